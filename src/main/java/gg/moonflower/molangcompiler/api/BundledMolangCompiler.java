@@ -0,0 +1,63 @@
+package gg.moonflower.molangcompiler.api;
+
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.bundle.MolangBundleWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * <p>A {@link MolangCompiler} that loads expressions from a precompiled bundle or from classes compiled at build time instead of compiling them.</p>
+ * <p>Bundles are created ahead of time with {@link #write(Collection, Path, int)} and are memory-mapped when opened.
+ * Expressions found in the bundle skip lexing, parsing, and bytecode generation entirely,
+ * and their classes are only defined once an expression from them is first requested.
+ * Any input that isn't in the bundle is compiled from source as usual.</p>
+ * <p>Bundles and registries written by a different version of the compiler are ignored, so every input is compiled from source until they are rewritten.</p>
+ *
+ * @author Ocelot
+ * @see MolangCompiler#bundled(Path, int)
+ * @see MolangCompiler#precompiled(int, ClassLoader)
+ * @since 3.2.0
+ */
+public interface BundledMolangCompiler extends MolangCompiler {
+
+    /**
+     * Checks whether the specified input can be loaded without compiling it.
+     *
+     * @param input The input to check
+     * @return Whether there is a precompiled version of the input
+     */
+    boolean contains(String input);
+
+    /**
+     * @return A snapshot of the current bundle statistics
+     */
+    Stats getStats();
+
+    /**
+     * Compiles all specified inputs and writes them into a bundle that can be opened with {@link MolangCompiler#bundled(Path, int)}.
+     *
+     * @param inputs The data to compile
+     * @param path   The file to write the bundle to
+     * @param flags  The compiler flags to use. {@link MolangCompiler#HIDDEN_CLASSES_FLAG} and {@link MolangCompiler#CLOSURE_FLAG} are ignored
+     * @throws IOException           If the file could not be written
+     * @throws MolangSyntaxException If any input fails to compile
+     */
+    static void write(Collection<String> inputs, Path path, int flags) throws IOException, MolangSyntaxException {
+        MolangBundleWriter.write(inputs, path, flags);
+    }
+
+    /**
+     * Statistics for a {@link BundledMolangCompiler}.
+     *
+     * @param hitCount         The number of precompiled expressions that were requested
+     * @param missCount        The number of expressions that had to be compiled from source
+     * @param loadedClassCount The number of precompiled classes that have been loaded
+     * @param size             The number of precompiled expressions
+     * @author Ocelot
+     * @since 3.2.0
+     */
+    record Stats(long hitCount, long missCount, int loadedClassCount, int size) {
+    }
+}
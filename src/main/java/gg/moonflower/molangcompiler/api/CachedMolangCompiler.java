@@ -0,0 +1,45 @@
+package gg.moonflower.molangcompiler.api;
+
+/**
+ * <p>A {@link MolangCompiler} that reuses previously compiled expressions for the same input.</p>
+ * <p>Inputs are normalized before lookup, so whitespace differences do not create new entries.
+ * Concurrent requests for the same input share a single compilation.
+ * Expressions are only weakly held, so their generated classes can still be unloaded once they are no longer used.</p>
+ *
+ * @author Ocelot
+ * @see MolangCompiler#cached(int, int)
+ * @since 3.2.0
+ */
+public interface CachedMolangCompiler extends MolangCompiler {
+
+    /**
+     * @return A snapshot of the current cache statistics
+     */
+    Stats getStats();
+
+    /**
+     * Removes all cached expressions. Expressions that are currently compiling will not be affected.
+     */
+    void invalidateAll();
+
+    /**
+     * Statistics for a {@link CachedMolangCompiler}.
+     *
+     * @param hitCount      The number of times a cached expression was returned
+     * @param missCount     The number of times an expression had to be compiled or waited on
+     * @param evictionCount The number of expressions removed because the cache was full or the expression was garbage collected
+     * @param size          The number of expressions currently in the cache
+     * @author Ocelot
+     * @since 3.2.0
+     */
+    record Stats(long hitCount, long missCount, long evictionCount, int size) {
+
+        /**
+         * @return The ratio of hits to total requests or <code>1.0</code> if no requests have been made
+         */
+        public double hitRate() {
+            long requests = this.hitCount + this.missCount;
+            return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+        }
+    }
+}
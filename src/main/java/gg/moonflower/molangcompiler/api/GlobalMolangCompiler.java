@@ -29,6 +29,9 @@ public final class GlobalMolangCompiler {
      * @return The compiler instance
      * @see MolangCompiler#OPTIMIZE_FLAG
      * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
      * @see MolangCompiler#DEFAULT_FLAGS
      */
     public static MolangCompiler get(int flags) {
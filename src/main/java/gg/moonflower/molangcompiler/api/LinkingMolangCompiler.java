@@ -0,0 +1,58 @@
+package gg.moonflower.molangcompiler.api;
+
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
+import gg.moonflower.molangcompiler.api.object.MolangLibrary;
+
+/**
+ * <p>A {@link MolangCompiler} that keeps the syntax tree of every expression it compiles, so expressions can be linked into each other.</p>
+ * <p>Normally, reading a query that holds another expression resolves it through the environment, which the optimizer can't see through.
+ * Once an expression from this compiler is {@linkplain #link(String, MolangExpression) linked} to a query,
+ * every expression compiled afterward that reads the query has the tree inlined instead. This allows constants to be folded
+ * and repeated values to be shared across both expressions.</p>
+ * <p>Only expressions that compute a single value are inlined. Expressions that use temp variables, assign variables, loop, or return early
+ * are still resolved through the environment.</p>
+ * <p>Java functions can be linked the same way. Calls to linked functions declared {@linkplain MolangJavaFunction.Purity#PURE pure}
+ * with constant parameters are computed while compiling, and repeated calls to pure or {@linkplain MolangJavaFunction.Purity#IDEMPOTENT idempotent}
+ * functions with the same parameters are only run once per evaluation.</p>
+ *
+ * @author Ocelot
+ * @see MolangCompiler#linking(int)
+ * @since 3.2.0
+ */
+public interface LinkingMolangCompiler extends MolangCompiler {
+
+    /**
+     * <p>Marks <code>query.name</code> as stable and holding the specified expression.</p>
+     * <p>This is a promise that every environment the following expressions are evaluated in resolves the query to the same expression.
+     * Expressions already compiled are not changed.</p>
+     *
+     * @param name       The name of the query without the <code>query.</code> prefix.
+     *                   Functions that only accept a specific number of parameters can be linked as <code>name$parameters</code>
+     * @param expression The expression or {@linkplain MolangExpression#function(int, MolangJavaFunction.Purity, MolangJavaFunction) function} the query holds
+     * @return Whether the expression was compiled by this compiler or is a function and will be linked
+     */
+    boolean link(String name, MolangExpression expression);
+
+    /**
+     * Stops inlining the specified query into expressions compiled afterward.
+     *
+     * @param name The name of the query without the <code>query.</code> prefix
+     */
+    void unlink(String name);
+
+    /**
+     * <p>Links every function in the specified library, so calls like <code>name.function()</code> know which function they run.</p>
+     * <p>This is a promise that every environment the following expressions are evaluated in loads the same library under the same name.</p>
+     *
+     * @param name    The name the library is loaded as
+     * @param library The library to link
+     */
+    void linkLibrary(String name, MolangLibrary library);
+
+    /**
+     * Stops linking functions from the library with the specified name into expressions compiled afterward.
+     *
+     * @param name The name the library is loaded as
+     */
+    void unlinkLibrary(String name);
+}
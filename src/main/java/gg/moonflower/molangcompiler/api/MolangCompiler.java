@@ -1,7 +1,20 @@
 package gg.moonflower.molangcompiler.api;
 
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.BundledMolangCompilerImpl;
+import gg.moonflower.molangcompiler.impl.CachedMolangCompilerImpl;
+import gg.moonflower.molangcompiler.impl.LinkingMolangCompilerImpl;
 import gg.moonflower.molangcompiler.impl.MolangCompilerImpl;
+import gg.moonflower.molangcompiler.impl.TieredMolangCompilerImpl;
+import gg.moonflower.molangcompiler.impl.bundle.BundleExpressions;
+import gg.moonflower.molangcompiler.impl.bundle.RegistryExpressions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <p>Compiles a {@link MolangExpression} from a string input.</p>
@@ -21,6 +34,27 @@ public interface MolangCompiler {
      * Whether to write the java bytecode to a class file. This is only for debugging.
      */
     int WRITE_CLASSES_FLAG = 0b10;
+    /**
+     * Whether to define each expression as a hidden class. Hidden classes are not owned by the compiler,
+     * so each expression can be unloaded as soon as it is no longer referenced instead of when the whole compiler is.
+     *
+     * @since 3.2.0
+     */
+    int HIDDEN_CLASSES_FLAG = 0b100;
+    /**
+     * Whether to compile expressions into a tree of pre-bound Java objects instead of generating classes.
+     * This is slower to evaluate than bytecode, but never defines a class, so it works in environments that don't allow it.
+     *
+     * @since 3.2.0
+     */
+    int CLOSURE_FLAG = 0b1000;
+    /**
+     * Whether to allow optimizations that can change results by a few units in the last place, such as replacing division
+     * by a constant with multiplication by its reciprocal and evaluating polynomials with Horner's rule. This only has an effect with {@link #OPTIMIZE_FLAG}.
+     *
+     * @since 3.2.0
+     */
+    int FAST_MATH_FLAG = 0b10000;
 
     /**
      * All default compilation flags. This may change in future versions as more options are added.
@@ -36,6 +70,70 @@ public interface MolangCompiler {
      */
     MolangExpression compile(String input) throws MolangSyntaxException;
 
+    /**
+     * <p>Compiles a {@link MolangExpression} from each of the specified string inputs.</p>
+     * <p>This is much faster than calling {@link #compile(String)} for each input when loading a large number of expressions,
+     * since many expressions are packed into a single class instead of defining a new class for every expression.
+     * As a result, the classes of the returned expressions can only be unloaded once all expressions in the same class are unreachable.</p>
+     *
+     * @param inputs The data to compile
+     * @return A map of each input to its compiled expression in the same order as the inputs
+     * @throws MolangSyntaxException If any input fails to compile
+     * @since 3.2.0
+     */
+    default Map<String, MolangExpression> compileAll(Collection<String> inputs) throws MolangSyntaxException {
+        Map<String, MolangExpression> expressions = new LinkedHashMap<>();
+        for (String input : inputs) {
+            if (!expressions.containsKey(input)) {
+                expressions.put(input, this.compile(input));
+            }
+        }
+        return expressions;
+    }
+
+    /**
+     * <p>Compiles a {@link MolangExpression} from each of the specified string inputs using all threads in the specified pool.</p>
+     * <p>Lexing, parsing, and class generation are all split across the pool. See {@link #compileAll(Collection)} for more details.</p>
+     *
+     * @param inputs The data to compile
+     * @param pool   The pool to compile expressions in. {@link ForkJoinPool#commonPool()} can be used if there is no dedicated pool
+     * @return A map of each input to its compiled expression in the same order as the inputs
+     * @throws MolangSyntaxException If any input fails to compile
+     * @since 3.2.0
+     */
+    default Map<String, MolangExpression> compileAll(Collection<String> inputs, ForkJoinPool pool) throws MolangSyntaxException {
+        return this.compileAll(inputs);
+    }
+
+    /**
+     * Compiles a {@link MolangExpression} from the specified string input in the background with {@linkplain Priority#NORMAL normal priority}.
+     *
+     * @param input The data to compile
+     * @return An expression that can be used immediately
+     * @throws MolangSyntaxException If the input is not a valid expression
+     * @see #compileAsync(String, Priority)
+     * @since 3.2.0
+     */
+    default MolangExpression compileAsync(String input) throws MolangSyntaxException {
+        return this.compileAsync(input, Priority.NORMAL);
+    }
+
+    /**
+     * <p>Compiles a {@link MolangExpression} from the specified string input in the background.</p>
+     * <p>The input is parsed immediately, so syntax errors are still thrown from this method.
+     * The returned expression can be used right away and evaluates much slower until compilation finishes,
+     * at which point it switches to the compiled code. Callers never wait for bytecode to be generated.</p>
+     *
+     * @param input    The data to compile
+     * @param priority The order to compile expressions in when many are waiting
+     * @return An expression that can be used immediately
+     * @throws MolangSyntaxException If the input is not a valid expression
+     * @since 3.2.0
+     */
+    default MolangExpression compileAsync(String input, Priority priority) throws MolangSyntaxException {
+        return this.compile(input);
+    }
+
     /**
      * Creates a compiler with the {@linkplain MolangCompiler#DEFAULT_FLAGS default flags}.
      *
@@ -52,6 +150,9 @@ public interface MolangCompiler {
      * @return The compiler instance
      * @see MolangCompiler#OPTIMIZE_FLAG
      * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
      * @see MolangCompiler#DEFAULT_FLAGS
      */
     static MolangCompiler create(int flags) {
@@ -67,9 +168,204 @@ public interface MolangCompiler {
      * @return The compiler instance
      * @see MolangCompiler#OPTIMIZE_FLAG
      * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
      * @see MolangCompiler#DEFAULT_FLAGS
      */
     static MolangCompiler create(int flags, ClassLoader parent) {
         return new MolangCompilerImpl(flags, parent);
     }
+
+    /**
+     * Creates a compiler with the specified flags that caches compiled expressions by their input.
+     *
+     * @param flags       The compiler flags to use
+     * @param maximumSize The maximum number of expressions to cache before the least recently used are evicted
+     * @return The compiler instance
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static CachedMolangCompiler cached(int flags, int maximumSize) {
+        return new CachedMolangCompilerImpl(create(flags), maximumSize);
+    }
+
+    /**
+     * Creates a compiler with the specified flags that caches compiled expressions by their input.
+     *
+     * @param flags       The compiler flags to use
+     * @param maximumSize The maximum number of expressions to cache before the least recently used are evicted
+     * @param parent      The classloader to use as the parent.
+     *                    This should only be set when the current class is not using the system class loader
+     * @return The compiler instance
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static CachedMolangCompiler cached(int flags, int maximumSize, ClassLoader parent) {
+        return new CachedMolangCompilerImpl(create(flags, parent), maximumSize);
+    }
+
+    /**
+     * Creates a compiler with the specified flags that only compiles expressions to bytecode once they are used frequently.
+     *
+     * @param flags     The compiler flags to use
+     * @param threshold The number of times an expression must be evaluated before it is compiled.
+     *                  {@link TieredMolangCompiler#DEFAULT_THRESHOLD} can be used if unsure
+     * @return The compiler instance
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static TieredMolangCompiler tiered(int flags, int threshold) {
+        return new TieredMolangCompilerImpl(flags, threshold, ClassLoader.getSystemClassLoader());
+    }
+
+    /**
+     * Creates a compiler with the specified flags that only compiles expressions to bytecode once they are used frequently.
+     *
+     * @param flags     The compiler flags to use
+     * @param threshold The number of times an expression must be evaluated before it is compiled.
+     *                  {@link TieredMolangCompiler#DEFAULT_THRESHOLD} can be used if unsure
+     * @param parent    The classloader to use as the parent.
+     *                  This should only be set when the current class is not using the system class loader
+     * @return The compiler instance
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static TieredMolangCompiler tiered(int flags, int threshold, ClassLoader parent) {
+        return new TieredMolangCompilerImpl(flags, threshold, parent);
+    }
+
+    /**
+     * Creates a compiler with the specified flags that can inline expressions it compiled into expressions that read them as queries.
+     *
+     * @param flags The compiler flags to use
+     * @return The compiler instance
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static LinkingMolangCompiler linking(int flags) {
+        return new LinkingMolangCompilerImpl(flags, ClassLoader.getSystemClassLoader());
+    }
+
+    /**
+     * Creates a compiler with the specified flags that can inline expressions it compiled into expressions that read them as queries.
+     *
+     * @param flags  The compiler flags to use
+     * @param parent The classloader to use as the parent.
+     *               This should only be set when the current class is not using the system class loader
+     * @return The compiler instance
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static LinkingMolangCompiler linking(int flags, ClassLoader parent) {
+        return new LinkingMolangCompilerImpl(flags, parent);
+    }
+
+    /**
+     * Opens a bundle of precompiled expressions written by {@link BundledMolangCompiler#write(Collection, Path, int)}.
+     *
+     * @param bundle The bundle file to open
+     * @param flags  The compiler flags to use for inputs that aren't in the bundle. If the bundle was written with a different
+     *               {@link #OPTIMIZE_FLAG} or {@link #FAST_MATH_FLAG}, every input is compiled from source instead
+     * @return The compiler instance
+     * @throws IOException If the bundle could not be opened
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static BundledMolangCompiler bundled(Path bundle, int flags) throws IOException {
+        ClassLoader parent = ClassLoader.getSystemClassLoader();
+        return new BundledMolangCompilerImpl(new BundleExpressions(bundle, parent), flags, parent);
+    }
+
+    /**
+     * Opens a bundle of precompiled expressions written by {@link BundledMolangCompiler#write(Collection, Path, int)}.
+     *
+     * @param bundle The bundle file to open
+     * @param flags  The compiler flags to use for inputs that aren't in the bundle. If the bundle was written with a different
+     *               {@link #OPTIMIZE_FLAG} or {@link #FAST_MATH_FLAG}, every input is compiled from source instead
+     * @param parent The classloader to use as the parent.
+     *               This should only be set when the current class is not using the system class loader
+     * @return The compiler instance
+     * @throws IOException If the bundle could not be opened
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static BundledMolangCompiler bundled(Path bundle, int flags, ClassLoader parent) throws IOException {
+        return new BundledMolangCompilerImpl(new BundleExpressions(bundle, parent), flags, parent);
+    }
+
+    /**
+     * <p>Creates a compiler that loads expressions compiled ahead of time from classes on the classpath instead of generating any bytecode.</p>
+     * <p>Expressions are compiled at build time by running <code>gg.moonflower.molangcompiler.impl.bundle.MolangAotCompiler</code>,
+     * which writes ordinary class files and a registry that should be packaged into the jar.
+     * Every registry visible to the class loader is used. Registries written by another version of the compiler or with a different
+     * {@link #OPTIMIZE_FLAG} or {@link #FAST_MATH_FLAG} are ignored.</p>
+     *
+     * @param flags       The compiler flags to use for inputs that weren't compiled ahead of time
+     * @param classLoader The class loader to find precompiled expressions with. This is also used as the parent for any new classes
+     * @return The compiler instance
+     * @throws IOException If a registry could not be read
+     * @see MolangCompiler#OPTIMIZE_FLAG
+     * @see MolangCompiler#WRITE_CLASSES_FLAG
+     * @see MolangCompiler#HIDDEN_CLASSES_FLAG
+     * @see MolangCompiler#CLOSURE_FLAG
+     * @see MolangCompiler#FAST_MATH_FLAG
+     * @see MolangCompiler#DEFAULT_FLAGS
+     * @since 3.2.0
+     */
+    static BundledMolangCompiler precompiled(int flags, ClassLoader classLoader) throws IOException {
+        return new BundledMolangCompilerImpl(RegistryExpressions.load(classLoader, flags), flags, classLoader);
+    }
+
+    /**
+     * Hints for the order to compile expressions in the background.
+     *
+     * @author Ocelot
+     * @since 3.2.0
+     */
+    enum Priority {
+        LOW,
+        NORMAL,
+        HIGH
+    }
 }
@@ -60,6 +60,28 @@ public interface MolangEnvironment {
      */
     void clearParameters();
 
+    /**
+     * <p>Starts a function call. Parameters loaded until {@link #endCall(int)} belong to this call.</p>
+     * <p>Parameters loaded for an outer call stay loaded underneath, so calls made while computing the parameters of another call don't disturb it.
+     * {@link #endCall(int)} must always be called, even if computing a parameter fails, or the parameters leak into later calls.</p>
+     *
+     * @return The previous call to restore with {@link #endCall(int)}
+     * @since 3.2.0
+     */
+    default int beginCall() {
+        return 0;
+    }
+
+    /**
+     * Finishes a call started with {@link #beginCall()} by removing its parameters and restoring the previous call.
+     *
+     * @param previous The value returned by {@link #beginCall()}
+     * @since 3.2.0
+     */
+    default void endCall(int previous) {
+        this.clearParameters();
+    }
+
     /**
      * @return The value of <code>this</code> in MoLang
      */
@@ -70,6 +70,19 @@ public interface MolangEnvironmentBuilder<V extends MolangEnvironment> {
         return this.setQuery(params < 0 ? name : (name + "$" + params), MolangExpression.function(params, function));
     }
 
+    /**
+     * Sets a global immutable function.
+     *
+     * @param name     The name of the function
+     * @param params   The number of parameters to accept or <code>-1</code> to accept any number
+     * @param purity   What the optimizer can assume about the function when it is known at compile time
+     * @param function The function to execute
+     * @since 3.2.0
+     */
+    default MolangEnvironmentBuilder<V> setQuery(String name, int params, MolangJavaFunction.Purity purity, MolangJavaFunction function) {
+        return this.setQuery(params < 0 ? name : (name + "$" + params), MolangExpression.function(params, purity, function));
+    }
+
     /**
      * Sets a global immutable value.
      *
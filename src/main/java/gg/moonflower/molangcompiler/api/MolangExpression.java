@@ -6,6 +6,7 @@ import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.node.*;
 import org.jetbrains.annotations.ApiStatus;
 
+import java.lang.invoke.MethodHandle;
 import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
@@ -165,6 +166,60 @@ public interface MolangExpression {
         return new MolangFunctionNode(-1, consumer);
     }
 
+    /**
+     * Creates a {@link MolangExpression} that calls the specified java code. It will only take the specified number of parameters.
+     *
+     * @param params   The number of parameters in the function. This must be at least 0
+     * @param purity   What the optimizer can assume about the function when it is known at compile time
+     * @param consumer The implementation of the MoLang call
+     * @return A new expression that calls the java function
+     * @since 3.2.0
+     */
+    static MolangExpression function(int params, MolangJavaFunction.Purity purity, MolangJavaFunction consumer) {
+        return new MolangFunctionNode(params, purity, consumer);
+    }
+
+    /**
+     * Creates a {@link MolangExpression} that calls the specified java code. It will take any number of parameters.
+     *
+     * @param purity   What the optimizer can assume about the function when it is known at compile time
+     * @param consumer The implementation of the MoLang call
+     * @return A new expression that calls the java function
+     * @since 3.2.0
+     */
+    static MolangExpression function(MolangJavaFunction.Purity purity, MolangJavaFunction consumer) {
+        return new MolangFunctionNode(-1, purity, consumer);
+    }
+
+    /**
+     * <p>Creates a {@link MolangExpression} that calls the specified method handle, such as a static method found with {@link java.lang.invoke.MethodHandles.Lookup#findStatic(Class, String, java.lang.invoke.MethodType)}.
+     * It will take one parameter for each parameter of the handle.</p>
+     * <p>When {@linkplain LinkingMolangCompiler linked}, compiled expressions call the handle directly with each parameter instead of looking up the function.</p>
+     *
+     * @param handle The handle to call. Every parameter and the result must be a <code>float</code>, <code>double</code>, <code>int</code>, or <code>long</code>, for example <code>(FF)F</code>
+     * @return A new expression that calls the java function
+     * @throws IllegalArgumentException If the handle can't be called with floats
+     * @since 3.2.0
+     */
+    static MolangExpression function(MethodHandle handle) {
+        return new MolangFunctionNode(handle, MolangJavaFunction.Purity.IMPURE);
+    }
+
+    /**
+     * <p>Creates a {@link MolangExpression} that calls the specified method handle, such as a static method found with {@link java.lang.invoke.MethodHandles.Lookup#findStatic(Class, String, java.lang.invoke.MethodType)}.
+     * It will take one parameter for each parameter of the handle.</p>
+     * <p>When {@linkplain LinkingMolangCompiler linked}, compiled expressions call the handle directly with each parameter instead of looking up the function.</p>
+     *
+     * @param handle The handle to call. Every parameter and the result must be a <code>float</code>, <code>double</code>, <code>int</code>, or <code>long</code>, for example <code>(FF)F</code>
+     * @param purity What the optimizer can assume about the function when it is known at compile time
+     * @return A new expression that calls the java function
+     * @throws IllegalArgumentException If the handle can't be called with floats
+     * @since 3.2.0
+     */
+    static MolangExpression function(MethodHandle handle, MolangJavaFunction.Purity purity) {
+        return new MolangFunctionNode(handle, purity);
+    }
+
     /**
      * Creates a {@link MolangExpression} of the specified value that will be computed after every call.
      *
@@ -19,7 +19,9 @@ public class MolangRuntime implements MolangEnvironment {
     private float thisValue;
     private final Map<String, MolangObject> objects;
     private final Map<String, String> aliases;
-    private final List<Float> parameters;
+    private float[] parameters;
+    private int parameterCount;
+    private int callStart;
 
     private final ImmutableMolangObject query;
     private final ImmutableMolangObject global;
@@ -34,7 +36,9 @@ public class MolangRuntime implements MolangEnvironment {
         this.loadLibrary("query", query, "q"); // This is static accesses
         this.loadLibrary("global", global); // This is parameter access
         this.loadLibrary("variable", variable, "v"); // Java code can access this
-        this.parameters = new ArrayList<>(8);
+        this.parameters = new float[8];
+        this.parameterCount = 0;
+        this.callStart = 0;
         this.query = query;
         this.global = global;
         this.variable = variable;
@@ -60,8 +64,8 @@ public class MolangRuntime implements MolangEnvironment {
         builder.deleteCharAt(builder.length() - 2);
         builder.append("==End Objects==\n\n");
         builder.append("==Start Parameters==\n");
-        for (int i = 0; i < this.parameters.size(); i++) {
-            builder.append("\tParameter ").append(i).append('=').append(this.parameters.get(i)).append('\n');
+        for (int i = 0; i < this.parameterCount; i++) {
+            builder.append("\tParameter ").append(i).append('=').append(this.parameters[i]).append('\n');
         }
         builder.append("==End Parameters==\n\n");
         builder.append("==End MoLang Runtime Dump==");
@@ -90,12 +94,28 @@ public class MolangRuntime implements MolangEnvironment {
 
     @Override
     public void loadParameter(float expression) {
-        this.parameters.add(expression);
+        if (this.parameterCount == this.parameters.length) {
+            this.parameters = Arrays.copyOf(this.parameters, this.parameters.length * 2);
+        }
+        this.parameters[this.parameterCount++] = expression;
     }
 
     @Override
     public void clearParameters() {
-        this.parameters.clear();
+        this.parameterCount = this.callStart;
+    }
+
+    @Override
+    public int beginCall() {
+        int previous = this.callStart;
+        this.callStart = this.parameterCount;
+        return previous;
+    }
+
+    @Override
+    public void endCall(int previous) {
+        this.parameterCount = this.callStart;
+        this.callStart = previous;
     }
 
     @Override
@@ -135,15 +155,15 @@ public class MolangRuntime implements MolangEnvironment {
 
     @Override
     public float getParameter(int parameter) throws MolangRuntimeException {
-        if (parameter < 0 || parameter >= this.parameters.size()) {
+        if (parameter < 0 || parameter >= this.getParameters()) {
             throw new MolangRuntimeException("No parameter loaded in slot " + parameter);
         }
-        return this.parameters.get(parameter);
+        return this.parameters[this.callStart + parameter];
     }
 
     @Override
     public int getParameters() {
-        return this.parameters.size();
+        return this.parameterCount - this.callStart;
     }
 
     @Override
@@ -0,0 +1,42 @@
+package gg.moonflower.molangcompiler.api;
+
+/**
+ * <p>A {@link MolangCompiler} that does not generate any bytecode until an expression is used frequently.</p>
+ * <p>Expressions start out evaluating their parsed syntax tree directly, which is slower but costs nothing to create.
+ * Once an expression has been evaluated enough times, it is compiled in the background and switches to the compiled code.
+ * This avoids defining classes for expressions that only run a few times.</p>
+ *
+ * @author Ocelot
+ * @see MolangCompiler#tiered(int, int)
+ * @since 3.2.0
+ */
+public interface TieredMolangCompiler extends MolangCompiler {
+
+    /**
+     * The default number of evaluations before an expression is compiled.
+     */
+    int DEFAULT_THRESHOLD = 64;
+
+    /**
+     * @return A snapshot of the current promotion statistics
+     */
+    Stats getStats();
+
+    /**
+     * Statistics for a {@link TieredMolangCompiler}.
+     *
+     * @param expressionCount The number of expressions created that were not constant
+     * @param promotedCount   The number of expressions that have been compiled to bytecode
+     * @author Ocelot
+     * @since 3.2.0
+     */
+    record Stats(long expressionCount, long promotedCount) {
+
+        /**
+         * @return The number of expressions that are still being interpreted
+         */
+        public long interpretedCount() {
+            return this.expressionCount - this.promotedCount;
+        }
+    }
+}
@@ -20,6 +20,30 @@ public interface MolangJavaFunction {
      */
     float resolve(Context context) throws MolangRuntimeException;
 
+    /**
+     * How much the optimizer can assume about a function that is known when an expression is compiled.
+     *
+     * @author Ocelot
+     * @see gg.moonflower.molangcompiler.api.LinkingMolangCompiler
+     * @since 3.2.0
+     */
+    enum Purity {
+        /**
+         * The function may have side effects or return a different value each time it is called. Every call is run.
+         */
+        IMPURE,
+        /**
+         * The function has no side effects and always returns the same value for the same parameters while a single expression is evaluated.
+         * Repeated calls with the same parameters in one expression are only run once.
+         */
+        IDEMPOTENT,
+        /**
+         * The function has no side effects and only depends on its parameters.
+         * Calls with constant parameters are computed when the expression is compiled, and repeated calls are only run once.
+         */
+        PURE
+    }
+
     /**
      * Provides parameters for MoLang Java functions.
      *
@@ -1,6 +1,8 @@
 package gg.moonflower.molangcompiler.api.object;
 
+import gg.moonflower.molangcompiler.api.LinkingMolangCompiler;
 import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
 import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.node.MolangFunctionNode;
 
@@ -25,7 +27,9 @@ public abstract class MolangLibrary implements MolangObject {
     }
 
     /**
-     * Populates the values this library will provide.
+     * <p>Populates the values this library will provide.</p>
+     * <p>Functions created with {@link MolangExpression#function(int, MolangJavaFunction.Purity, MolangJavaFunction)} can declare what the optimizer may assume about them.
+     * Libraries can't be changed once created, so they can be {@linkplain LinkingMolangCompiler#linkLibrary(String, MolangLibrary) linked} to let the optimizer use it.</p>
      *
      * @param consumer The consumer for functions
      */
@@ -0,0 +1,111 @@
+package gg.moonflower.molangcompiler.impl;
+
+import gg.moonflower.molangcompiler.api.BundledMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.bundle.MolangBundle;
+import gg.moonflower.molangcompiler.impl.bundle.PrecompiledExpressions;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class BundledMolangCompilerImpl implements BundledMolangCompiler {
+
+    private final PrecompiledExpressions precompiled;
+    private final MolangCompiler compiler;
+    private final AtomicReferenceArray<MolangExpression> expressions;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    public BundledMolangCompilerImpl(PrecompiledExpressions precompiled, int flags, ClassLoader parent) {
+        // Expressions compiled with other flags could give different results, so they are compiled from source instead
+        this.precompiled = MolangBundle.isCompatible(precompiled.getFlags(), flags) ? precompiled : PrecompiledExpressions.EMPTY;
+        this.compiler = new MolangCompilerImpl(flags, parent);
+        this.expressions = new AtomicReferenceArray<>(precompiled.size());
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    private @Nullable MolangExpression find(String input) throws MolangSyntaxException {
+        int entry = this.precompiled.find(MolangLexer.normalize(input));
+        if (entry == -1) {
+            this.misses.increment();
+            return null;
+        }
+
+        this.hits.increment();
+        MolangExpression expression = this.expressions.get(entry);
+        if (expression != null) {
+            return expression;
+        }
+
+        try {
+            expression = this.precompiled.load(entry);
+        } catch (Throwable t) {
+            throw new MolangSyntaxException("Failed to load precompiled expression '" + input + "'", t);
+        }
+
+        // Another thread may have loaded the same expression, so always return the first one
+        return this.expressions.compareAndSet(entry, null, expression) ? expression : this.expressions.get(entry);
+    }
+
+    @Override
+    public MolangExpression compile(String input) throws MolangSyntaxException {
+        MolangExpression expression = this.find(input);
+        return expression != null ? expression : this.compiler.compile(input);
+    }
+
+    @Override
+    public MolangExpression compileAsync(String input, Priority priority) throws MolangSyntaxException {
+        MolangExpression expression = this.find(input);
+        return expression != null ? expression : this.compiler.compileAsync(input, priority);
+    }
+
+    @Override
+    public Map<String, MolangExpression> compileAll(Collection<String> inputs) throws MolangSyntaxException {
+        return this.compileAll(inputs, (ForkJoinPool) null);
+    }
+
+    @Override
+    public Map<String, MolangExpression> compileAll(Collection<String> inputs, @Nullable ForkJoinPool pool) throws MolangSyntaxException {
+        Map<String, MolangExpression> expressions = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String input : inputs) {
+            if (expressions.containsKey(input)) {
+                continue;
+            }
+
+            MolangExpression expression = this.find(input);
+            if (expression == null) {
+                missing.add(input);
+            }
+            // Reserve the position so the result stays in the same order as the inputs
+            expressions.put(input, expression);
+        }
+
+        if (!missing.isEmpty()) {
+            expressions.putAll(pool != null ? this.compiler.compileAll(missing, pool) : this.compiler.compileAll(missing));
+        }
+        return expressions;
+    }
+
+    @Override
+    public boolean contains(String input) {
+        return this.precompiled.find(MolangLexer.normalize(input)) != -1;
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(this.hits.sum(), this.misses.sum(), this.precompiled.getLoadedClassCount(), this.precompiled.size());
+    }
+}
@@ -0,0 +1,195 @@
+package gg.moonflower.molangcompiler.impl;
+
+import gg.moonflower.molangcompiler.api.CachedMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class CachedMolangCompilerImpl implements CachedMolangCompiler {
+
+    private final MolangCompiler compiler;
+    private final Map<String, WeakReference<MolangExpression>> cache;
+    private final Map<String, CompletableFuture<MolangExpression>> pending;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Creates a new cache in front of the specified compiler. The flags of the compiler are fixed, so they are implicitly part of every key.
+     *
+     * @param compiler    The compiler to use when an expression is not cached
+     * @param maximumSize The maximum number of expressions to keep before evicting the least recently used
+     */
+    public CachedMolangCompilerImpl(MolangCompiler compiler, int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be at least 1");
+        }
+        this.compiler = compiler;
+        this.cache = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WeakReference<MolangExpression>> eldest) {
+                if (this.size() > maximumSize) {
+                    CachedMolangCompilerImpl.this.evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.pending = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    private MolangExpression getCached(String key) {
+        synchronized (this.cache) {
+            WeakReference<MolangExpression> reference = this.cache.get(key);
+            if (reference == null) {
+                return null;
+            }
+
+            MolangExpression expression = reference.get();
+            if (expression == null) {
+                // The expression was collected, so the entry is useless now
+                this.cache.remove(key);
+                this.evictions.increment();
+            }
+            return expression;
+        }
+    }
+
+    @Override
+    public MolangExpression compile(String input) throws MolangSyntaxException {
+        String key = MolangLexer.normalize(input);
+        MolangExpression cached = this.getCached(key);
+        if (cached != null) {
+            this.hits.increment();
+            return cached;
+        }
+
+        this.misses.increment();
+        CompletableFuture<MolangExpression> future = new CompletableFuture<>();
+        CompletableFuture<MolangExpression> existing = this.pending.putIfAbsent(key, future);
+        if (existing != null) {
+            // Another thread is already compiling this input, so wait for it instead of compiling again
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof MolangSyntaxException syntaxException) {
+                    throw syntaxException;
+                }
+                throw new MolangSyntaxException("Failed to compile expression '" + input + "'", e.getCause());
+            }
+        }
+
+        try {
+            // The expression may have finished compiling between the first check and claiming the input
+            MolangExpression expression = this.getCached(key);
+            if (expression == null) {
+                expression = this.compiler.compile(input);
+            }
+            synchronized (this.cache) {
+                this.cache.put(key, new WeakReference<>(expression));
+            }
+            future.complete(expression);
+            return expression;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            this.pending.remove(key, future);
+        }
+    }
+
+    @Override
+    public MolangExpression compileAsync(String input, Priority priority) throws MolangSyntaxException {
+        String key = MolangLexer.normalize(input);
+        MolangExpression cached = this.getCached(key);
+        if (cached != null) {
+            this.hits.increment();
+            return cached;
+        }
+
+        // Parsing is cheap compared to defining a class, so there is no need to collapse concurrent requests here
+        this.misses.increment();
+        MolangExpression expression = this.compiler.compileAsync(input, priority);
+        synchronized (this.cache) {
+            this.cache.put(key, new WeakReference<>(expression));
+        }
+        return expression;
+    }
+
+    @Override
+    public Map<String, MolangExpression> compileAll(Collection<String> inputs) throws MolangSyntaxException {
+        return this.compileAll(inputs, (ForkJoinPool) null);
+    }
+
+    @Override
+    public Map<String, MolangExpression> compileAll(Collection<String> inputs, @Nullable ForkJoinPool pool) throws MolangSyntaxException {
+        Map<String, MolangExpression> expressions = new LinkedHashMap<>();
+        Map<String, String> missing = new LinkedHashMap<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String input : inputs) {
+            if (expressions.containsKey(input)) {
+                continue;
+            }
+
+            String key = MolangLexer.normalize(input);
+            MolangExpression cached = this.getCached(key);
+            if (cached != null) {
+                this.hits.increment();
+                expressions.put(input, cached);
+            } else {
+                this.misses.increment();
+                expressions.put(input, null);
+                missing.put(input, key);
+                sources.putIfAbsent(key, input);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            // Compile all missing expressions together so they can be packed into as few classes as possible
+            Map<String, MolangExpression> compiled = pool != null ? this.compiler.compileAll(sources.values(), pool) : this.compiler.compileAll(sources.values());
+            synchronized (this.cache) {
+                for (Map.Entry<String, String> entry : sources.entrySet()) {
+                    this.cache.put(entry.getKey(), new WeakReference<>(compiled.get(entry.getValue())));
+                }
+            }
+            for (Map.Entry<String, String> entry : missing.entrySet()) {
+                expressions.put(entry.getKey(), compiled.get(sources.get(entry.getValue())));
+            }
+        }
+        return expressions;
+    }
+
+    @Override
+    public Stats getStats() {
+        int size;
+        synchronized (this.cache) {
+            size = this.cache.size();
+        }
+        return new Stats(this.hits.sum(), this.misses.sum(), this.evictions.sum(), size);
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (this.cache) {
+            this.cache.clear();
+        }
+    }
+}
@@ -35,6 +35,16 @@ public record ImmutableMolangEnvironment(MolangEnvironment environment) implemen
         this.environment.clearParameters();
     }
 
+    @Override
+    public int beginCall() {
+        return this.environment.beginCall();
+    }
+
+    @Override
+    public void endCall(int previous) {
+        this.environment.endCall(previous);
+    }
+
     @Override
     public float getThis() {
         return this.environment.getThis();
@@ -0,0 +1,138 @@
+package gg.moonflower.molangcompiler.impl;
+
+import gg.moonflower.molangcompiler.api.LinkingMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.api.object.MolangLibrary;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import gg.moonflower.molangcompiler.impl.ast.ReturnNode;
+import gg.moonflower.molangcompiler.impl.compiler.QueryLinker;
+import gg.moonflower.molangcompiler.impl.node.MolangFunctionNode;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class LinkingMolangCompilerImpl extends MolangCompilerImpl implements LinkingMolangCompiler {
+
+    private final Map<TreeKey, Node> trees;
+    private final ReferenceQueue<MolangExpression> queue;
+    private final Map<String, Node> links;
+    private final Map<String, MolangFunctionNode> functions;
+
+    public LinkingMolangCompilerImpl(int flags, ClassLoader classLoader) {
+        super(flags, classLoader);
+        // Trees are only kept while the expression is still in use
+        this.trees = new ConcurrentHashMap<>();
+        this.queue = new ReferenceQueue<>();
+        this.links = new ConcurrentHashMap<>();
+        this.functions = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    protected Node parse(String input) throws MolangSyntaxException {
+        // Linked trees already have their own links inlined, so this never recurses
+        return QueryLinker.link(super.parse(input), this.links, this.functions);
+    }
+
+    @Override
+    protected MolangExpression register(Node node, MolangExpression expression) {
+        // Returning at the root of an expression is the same as only computing the value
+        Node tree = node instanceof ReturnNode returnNode ? returnNode.value() : node;
+        if (QueryLinker.isLinkable(tree)) {
+            this.expungeStaleTrees();
+            this.trees.put(new TreeKey(expression, this.queue), tree);
+        }
+        return expression;
+    }
+
+    @Override
+    public boolean link(String name, MolangExpression expression) {
+        this.unlink(name);
+        if (expression instanceof MolangFunctionNode function) {
+            this.functions.put("query." + name, function);
+            return true;
+        }
+
+        this.expungeStaleTrees();
+        Node node = this.trees.get(new TreeKey(expression, null));
+        if (node == null) {
+            return false;
+        }
+        this.links.put(name, node);
+        return true;
+    }
+
+    @Override
+    public void unlink(String name) {
+        this.links.remove(name);
+        this.functions.remove("query." + name);
+    }
+
+    @Override
+    public void linkLibrary(String name, MolangLibrary library) {
+        this.unlinkLibrary(name);
+        String prefix = QueryLinker.getObject(name) + ".";
+        for (String key : library.getKeys()) {
+            try {
+                if (library.get(key) instanceof MolangFunctionNode function) {
+                    this.functions.put(prefix + key, function);
+                }
+            } catch (MolangRuntimeException ignored) {
+                // Libraries can't change, so every key can be read
+            }
+        }
+    }
+
+    @Override
+    public void unlinkLibrary(String name) {
+        String prefix = QueryLinker.getObject(name) + ".";
+        this.functions.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private void expungeStaleTrees() {
+        Reference<? extends MolangExpression> reference;
+        while ((reference = this.queue.poll()) != null) {
+            this.trees.remove(reference);
+        }
+    }
+
+    /**
+     * Weakly references an expression by identity. Expressions from other compilers can be equal to one compiled here, but they were never parsed by this compiler.
+     */
+    private static final class TreeKey extends WeakReference<MolangExpression> {
+
+        private final int hash;
+
+        private TreeKey(MolangExpression expression, @Nullable ReferenceQueue<MolangExpression> queue) {
+            super(expression, queue);
+            this.hash = System.identityHashCode(expression);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TreeKey key)) {
+                return false;
+            }
+            MolangExpression expression = this.get();
+            return expression != null && expression == key.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -7,27 +7,154 @@ import gg.moonflower.molangcompiler.impl.ast.Node;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
 import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import gg.moonflower.molangcompiler.impl.compiler.NodeCompiler;
+import gg.moonflower.molangcompiler.impl.node.MolangAsyncNode;
 import org.jetbrains.annotations.ApiStatus;
 
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * @author Ocelot
  */
 @ApiStatus.Internal
 public class MolangCompilerImpl implements MolangCompiler {
 
-    private final BytecodeCompiler compiler;
+    private final NodeCompiler compiler;
 
     public MolangCompilerImpl(int flags) {
-        this.compiler = new BytecodeCompiler(flags);
+        this.compiler = NodeCompiler.create(flags, ClassLoader.getSystemClassLoader());
     }
 
     public MolangCompilerImpl(int flags, ClassLoader classLoader) {
-        this.compiler = new BytecodeCompiler(flags, classLoader);
+        this.compiler = NodeCompiler.create(flags, classLoader);
     }
 
-    public MolangExpression compile(String input) throws MolangSyntaxException {
+    /**
+     * Parses the specified input into the tree that will be compiled.
+     *
+     * @param input The data to parse
+     * @return The root node of the expression
+     * @throws MolangSyntaxException If the input is not a valid expression
+     */
+    protected Node parse(String input) throws MolangSyntaxException {
         MolangLexer.Token[] tokens = MolangLexer.createTokens(input);
-        Node node = MolangParser.parseTokens(tokens);
-        return this.compiler.build(node);
+        return MolangParser.parseTokens(tokens);
+    }
+
+    /**
+     * Called for every expression this compiler creates.
+     *
+     * @param node       The tree the expression was compiled from
+     * @param expression The compiled expression
+     * @return The expression to return to the caller
+     */
+    protected MolangExpression register(Node node, MolangExpression expression) {
+        return expression;
+    }
+
+    public MolangExpression compile(String input) throws MolangSyntaxException {
+        Node node = this.parse(input);
+        return this.register(node, this.compiler.build(node));
+    }
+
+    @Override
+    public MolangExpression compileAsync(String input, Priority priority) throws MolangSyntaxException {
+        Node node = this.parse(input);
+        if (this.compiler.canInline(node)) {
+            // Constants never define a class, so there is nothing to wait for
+            return this.register(node, this.compiler.build(node));
+        }
+
+        MolangAsyncNode expression = new MolangAsyncNode(node, this.compiler, priority);
+        expression.schedule();
+        return this.register(node, expression);
+    }
+
+    @Override
+    public Map<String, MolangExpression> compileAll(Collection<String> inputs) throws MolangSyntaxException {
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        for (String input : inputs) {
+            if (!nodes.containsKey(input)) {
+                nodes.put(input, this.parse(input));
+            }
+        }
+
+        List<MolangExpression> compiled = this.compiler.buildAll(new ArrayList<>(nodes.values()));
+        Map<String, MolangExpression> expressions = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            expressions.put(entry.getKey(), this.register(entry.getValue(), compiled.get(i++)));
+        }
+        return expressions;
+    }
+
+    @Override
+    public Map<String, MolangExpression> compileAll(Collection<String> inputs, ForkJoinPool pool) throws MolangSyntaxException {
+        List<String> sources = new ArrayList<>(new LinkedHashSet<>(inputs));
+        MolangExpression[] compiled = new MolangExpression[sources.size()];
+        try {
+            pool.invoke(new CompileTask(sources, compiled, 0, sources.size()));
+        } catch (RuntimeException e) {
+            // Fork join may rethrow a copy of the exception, so find the original cause
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof MolangSyntaxException syntaxException) {
+                    throw syntaxException;
+                }
+            }
+            throw new MolangSyntaxException("Failed to compile expressions", e);
+        }
+
+        Map<String, MolangExpression> expressions = new LinkedHashMap<>();
+        for (int i = 0; i < compiled.length; i++) {
+            expressions.put(sources.get(i), compiled[i]);
+        }
+        return expressions;
+    }
+
+    /**
+     * Splits inputs until each task compiles at most a single batch of expressions.
+     */
+    private class CompileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> inputs;
+        private final MolangExpression[] expressions;
+        private final int start;
+        private final int end;
+
+        private CompileTask(List<String> inputs, MolangExpression[] expressions, int start, int end) {
+            this.inputs = inputs;
+            this.expressions = expressions;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > BytecodeCompiler.MAX_BATCH_SIZE) {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new CompileTask(this.inputs, this.expressions, this.start, middle),
+                        new CompileTask(this.inputs, this.expressions, middle, this.end));
+                return;
+            }
+
+            try {
+                List<Node> nodes = new ArrayList<>(this.end - this.start);
+                for (int i = this.start; i < this.end; i++) {
+                    nodes.add(MolangCompilerImpl.this.parse(this.inputs.get(i)));
+                }
+
+                List<MolangExpression> compiled = MolangCompilerImpl.this.compiler.buildAll(nodes);
+                for (int i = 0; i < compiled.size(); i++) {
+                    this.expressions[this.start + i] = MolangCompilerImpl.this.register(nodes.get(i), compiled.get(i));
+                }
+            } catch (MolangSyntaxException e) {
+                throw new CompletionException(e);
+            }
+        }
     }
 }
@@ -1,14 +1,22 @@
 package gg.moonflower.molangcompiler.impl;
 
+import gg.moonflower.molangcompiler.api.MolangEnvironment;
 import gg.moonflower.molangcompiler.api.MolangExpression;
 import gg.moonflower.molangcompiler.api.bridge.MolangVariable;
 import gg.moonflower.molangcompiler.api.exception.MolangException;
 import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.api.object.MolangObject;
+import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.node.MolangConstantNode;
 import gg.moonflower.molangcompiler.impl.node.MolangVariableNode;
 import org.jetbrains.annotations.ApiStatus;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 @ApiStatus.Internal
 @SuppressWarnings("unused") // Methods are referenced in ASM
 public class MolangUtil {
@@ -66,6 +74,12 @@ public class MolangUtil {
         return (Math.abs(x % wavelength - wavelength * 0.5F) - wavelength * 0.25F) / (wavelength * 0.25F);
     }
 
+    public static CallSite bootstrapFunction(MethodHandles.Lookup lookup, String name, MethodType type, int index) throws Throwable {
+        // Each class holds the handles it calls, so they are released with the class
+        MethodHandle[] functions = (MethodHandle[]) lookup.findStaticGetter(lookup.lookupClass(), BytecodeCompiler.FUNCTIONS_FIELD, MethodHandle[].class).invokeExact();
+        return new ConstantCallSite(functions[index]);
+    }
+
     public static MolangExpression getFunction(MolangObject object, String name, String fullKey) throws MolangException {
         if (object.has(fullKey)) {
             return object.get(fullKey);
@@ -89,4 +103,30 @@ public class MolangUtil {
             object.set(name, new MolangConstantNode(value));
         }
     }
+
+    public static MolangObject getObject(MolangEnvironment environment, String name) throws MolangRuntimeException {
+        if ("context".equalsIgnoreCase(name) || "c".equalsIgnoreCase(name)) {
+            return environment.getContext();
+        }
+        if ("query".equalsIgnoreCase(name) || "q".equalsIgnoreCase(name)) {
+            return environment.getQuery();
+        }
+        if ("global".equalsIgnoreCase(name)) {
+            return environment.getGlobal();
+        }
+        if ("variable".equalsIgnoreCase(name) || "v".equalsIgnoreCase(name)) {
+            return environment.getVariable();
+        }
+        return environment.get(name);
+    }
+
+    public static float invoke(MolangEnvironment environment, MolangObject object, String function, String fullKey) throws MolangRuntimeException {
+        try {
+            return environment.resolve(getFunction(object, function, fullKey));
+        } catch (MolangRuntimeException e) {
+            throw e;
+        } catch (MolangException e) {
+            throw new MolangRuntimeException(e);
+        }
+    }
 }
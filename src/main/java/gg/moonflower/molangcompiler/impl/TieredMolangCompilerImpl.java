@@ -0,0 +1,62 @@
+package gg.moonflower.molangcompiler.impl;
+
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.TieredMolangCompiler;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import gg.moonflower.molangcompiler.impl.compiler.NodeCompiler;
+import gg.moonflower.molangcompiler.impl.node.MolangAsyncNode;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class TieredMolangCompilerImpl implements TieredMolangCompiler {
+
+    private final NodeCompiler compiler;
+    private final int threshold;
+    private final LongAdder expressions;
+    private final LongAdder promoted;
+
+    public TieredMolangCompilerImpl(int flags, int threshold, ClassLoader parent) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must be at least 0");
+        }
+        this.compiler = NodeCompiler.create(flags, parent);
+        this.threshold = threshold;
+        this.expressions = new LongAdder();
+        this.promoted = new LongAdder();
+    }
+
+    @Override
+    public MolangExpression compile(String input) throws MolangSyntaxException {
+        return this.compile(input, Priority.NORMAL);
+    }
+
+    @Override
+    public MolangExpression compileAsync(String input, Priority priority) throws MolangSyntaxException {
+        // Tiered expressions never block on compilation
+        return this.compile(input, priority);
+    }
+
+    private MolangExpression compile(String input, Priority priority) throws MolangSyntaxException {
+        MolangLexer.Token[] tokens = MolangLexer.createTokens(input);
+        Node node = MolangParser.parseTokens(tokens);
+        if (this.compiler.canInline(node)) {
+            return this.compiler.build(node);
+        }
+
+        this.expressions.increment();
+        return new MolangAsyncNode(node, this.compiler, priority, this.threshold, this.promoted::increment);
+    }
+
+    @Override
+    public Stats getStats() {
+        return new Stats(this.expressions.sum(), this.promoted.sum());
+    }
+}
@@ -1,11 +1,12 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
 
 /**
@@ -38,22 +39,43 @@ public record BinaryConditionalNode(Node value, Node branch) implements Node {
         return this.value.evaluate(environment) != 0.0F ? this.branch.evaluate(environment) : 0.0F;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        if (this.value.interpret(interpreter) != 0.0F) {
+            interpreter.interpretBranch(this.branch);
+        }
+        return 0.0F;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         Label label_end = new Label();
 
         if (environment.optimize() && this.value.isConstant()) {
             if (this.value.evaluate(environment) != 0.0F) {
-                this.branch.writeBytecode(method, environment, breakLabel, continueLabel);
+                // The branch still has its own scope, so temp variables it creates are treated the same as when it isn't constant
+                MolangBytecodeEnvironment localEnvironment = new MolangBytecodeEnvironment(environment);
+                this.branch.writeBytecode(method, localEnvironment, breakLabel, continueLabel);
+                localEnvironment.mergeModifiedVariables(method);
             }
             return;
         }
 
-        this.value.writeBytecode(method, environment, breakLabel, continueLabel);
-        method.visitInsn(Opcodes.FCONST_0);
-        method.visitInsn(Opcodes.FCMPL);
-        method.visitJumpInsn(Opcodes.IFEQ, label_end);
-        this.branch.writeBytecode(method, environment, breakLabel, continueLabel);
+        // A branch that only leaves the loop can jump there directly
+        Label jump = this.branch instanceof BreakNode ? breakLabel : this.branch instanceof ContinueNode ? continueLabel : null;
+        if (jump != null && !environment.hasLoopWriteBack()) {
+            environment.writeLoopModifiedVariables(method);
+            this.value.writeCondition(method, environment, jump, true, breakLabel, continueLabel);
+            return;
+        }
+
+        this.value.writeCondition(method, environment, label_end, false, breakLabel, continueLabel);
+        {
+            // Anything loaded in the branch can't be used after it since the branch may not run
+            MolangBytecodeEnvironment localEnvironment = new MolangBytecodeEnvironment(environment);
+            this.branch.writeBytecode(method, localEnvironment, breakLabel, continueLabel);
+            localEnvironment.mergeModifiedVariables(method);
+        }
         method.visitLabel(label_end);
     }
 }
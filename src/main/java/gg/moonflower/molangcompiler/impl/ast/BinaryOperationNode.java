@@ -1,9 +1,12 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.compiler.AlgebraicSimplifier;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -37,10 +40,29 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
     }
 
     @Override
-    public float evaluate(MolangBytecodeEnvironment environment) throws MolangException {
-        float left = this.left.evaluate(environment);
-        float right = this.right.evaluate(environment);
+    public ValueType getType() {
         return switch (this.operator) {
+            case AND, OR, EQUALS, NOT_EQUALS, LESS_EQUALS, LESS, GREATER_EQUALS, GREATER -> ValueType.BOOLEAN;
+            // Int math could overflow where floats wouldn't, so only comparisons are specialized
+            default -> ValueType.FLOAT;
+        };
+    }
+
+    @Override
+    public float evaluate(MolangBytecodeEnvironment environment) throws MolangException {
+        return apply(this.operator, this.left.evaluate(environment), this.right.evaluate(environment));
+    }
+
+    /**
+     * Applies the specified operator to two values.
+     *
+     * @param operator The operator to apply
+     * @param left     The left value
+     * @param right    The right value
+     * @return The result of the operation
+     */
+    public static float apply(BinaryOperation operator, float left, float right) {
+        return switch (operator) {
             case ADD -> left + right;
             case SUBTRACT -> left - right;
             case MULTIPLY -> left * right;
@@ -58,6 +80,21 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
         };
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        return switch (this.operator) {
+            case AND -> this.left.interpret(interpreter) != 0 && interpreter.interpretBranch(this.right) != 0 ? 1.0F : 0.0F;
+            case OR -> this.left.interpret(interpreter) != 0 || interpreter.interpretBranch(this.right) != 0 ? 1.0F : 0.0F;
+            case NULL_COALESCING -> {
+                if (!(this.left instanceof VariableGetNode lookup)) {
+                    throw new MolangRuntimeException("Expected variable lookup, got " + this.left);
+                }
+                yield interpreter.hasValue(lookup.object(), lookup.name()) ? this.left.interpret(interpreter) : interpreter.interpretBranch(this.right);
+            }
+            default -> apply(this.operator, this.left.interpret(interpreter), this.right.interpret(interpreter));
+        };
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         if (environment.optimize()) {
@@ -65,23 +102,23 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
                 BytecodeCompiler.writeFloatConst(method, this.evaluate(environment));
                 return;
             }
+            if (environment.loadSubexpression(method, this)) {
+                return;
+            }
         }
 
+        this.writeOperation(method, environment, breakLabel, continueLabel);
+        environment.storeSubexpression(method, this);
+    }
+
+    private void writeOperation(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         switch (this.operator) {
             case AND -> {
                 Label label_false = new Label();
                 Label label_end = new Label();
-                writeNode(this.left, method, environment, breakLabel, continueLabel);
-                //left == 0: goto false
-                method.visitInsn(Opcodes.FCONST_0);
-                method.visitInsn(Opcodes.FCMPL);
-                method.visitJumpInsn(Opcodes.IFEQ, label_false);
-
-                //right == 0: goto false
-                writeNode(this.right, method, environment, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.FCONST_0);
-                method.visitInsn(Opcodes.FCMPL);
-                method.visitJumpInsn(Opcodes.IFEQ, label_false);
+                //left == 0 || right == 0: goto false
+                this.left.writeCondition(method, environment, label_false, false, breakLabel, continueLabel);
+                writeConditionBranch(this.right, method, environment, label_false, false, breakLabel, continueLabel);
 
                 //else: true
                 method.visitInsn(Opcodes.FCONST_1);
@@ -97,17 +134,9 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
             case OR -> {
                 Label label_true = new Label();
                 Label label_end = new Label();
-                //left != 0: goto true
-                writeNode(this.left, method, environment, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.FCONST_0);
-                method.visitInsn(Opcodes.FCMPL);
-                method.visitJumpInsn(Opcodes.IFNE, label_true);
-
-                //right != 0: goto true
-                writeNode(this.right, method, environment, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.FCONST_0);
-                method.visitInsn(Opcodes.FCMPL);
-                method.visitJumpInsn(Opcodes.IFNE, label_true);
+                //left != 0 || right != 0: goto true
+                this.left.writeCondition(method, environment, label_true, true, breakLabel, continueLabel);
+                writeConditionBranch(this.right, method, environment, label_true, true, breakLabel, continueLabel);
 
                 //else: false
                 method.visitInsn(Opcodes.FCONST_0);
@@ -132,10 +161,10 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
                 Label label_false = new Label();
                 Label label_end = new Label();
                 method.visitJumpInsn(Opcodes.IFEQ, label_false);
-                writeNode(this.left, method, environment, breakLabel, continueLabel);
+                writeBranch(this.left, method, environment, breakLabel, continueLabel);
                 method.visitJumpInsn(Opcodes.GOTO, label_end);
                 method.visitLabel(label_false);
-                writeNode(this.right, method, environment, breakLabel, continueLabel);
+                writeBranch(this.right, method, environment, breakLabel, continueLabel);
                 method.visitLabel(label_end);
             }
             case MULTIPLY -> {
@@ -156,24 +185,132 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
                 writeNode(this.right, method, environment, breakLabel, continueLabel);
                 method.visitInsn(Opcodes.FDIV);
             }
-            default -> {
+            case ADD, SUBTRACT -> {
                 writeNode(this.left, method, environment, breakLabel, continueLabel);
                 writeNode(this.right, method, environment, breakLabel, continueLabel);
+                method.visitInsn(this.operator == BinaryOperation.ADD ? Opcodes.FADD : Opcodes.FSUB);
+            }
+            default -> {
+                Label label_false = new Label();
+                Label label_end = new Label();
+                this.writeComparison(method, environment, label_false, false, breakLabel, continueLabel);
+                method.visitInsn(Opcodes.FCONST_1);
+                method.visitJumpInsn(Opcodes.GOTO, label_end);
+                method.visitLabel(label_false);
+                method.visitInsn(Opcodes.FCONST_0);
+                method.visitLabel(label_end);
+            }
+        }
+    }
+
+    @Override
+    public void writeCondition(MethodNode method, MolangBytecodeEnvironment environment, Label target, boolean jumpIf, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        // Repeated operations are stored as a value so they can be reused
+        if (environment.optimize() && (this.isConstant() || environment.commonSubexpressions().getId(this) != -1)) {
+            Node.super.writeCondition(method, environment, target, jumpIf, breakLabel, continueLabel);
+            return;
+        }
 
-                switch (this.operator) {
-                    case ADD -> method.visitInsn(Opcodes.FADD);
-                    case SUBTRACT -> method.visitInsn(Opcodes.FSUB);
-                    case EQUALS -> writeComparision(method, Opcodes.IFNE);
-                    case NOT_EQUALS -> writeComparision(method, Opcodes.IFEQ);
-                    case LESS_EQUALS -> writeComparision(method, Opcodes.IFGT);
-                    case LESS -> writeComparision(method, Opcodes.IFGE);
-                    case GREATER_EQUALS -> writeComparision(method, Opcodes.IFLT);
-                    case GREATER -> writeComparision(method, Opcodes.IFLE);
+        switch (this.operator) {
+            case AND -> {
+                if (jumpIf) {
+                    Label label_false = new Label();
+                    this.left.writeCondition(method, environment, label_false, false, breakLabel, continueLabel);
+                    writeConditionBranch(this.right, method, environment, target, true, breakLabel, continueLabel);
+                    method.visitLabel(label_false);
+                } else {
+                    this.left.writeCondition(method, environment, target, false, breakLabel, continueLabel);
+                    writeConditionBranch(this.right, method, environment, target, false, breakLabel, continueLabel);
+                }
+            }
+            case OR -> {
+                if (jumpIf) {
+                    this.left.writeCondition(method, environment, target, true, breakLabel, continueLabel);
+                    writeConditionBranch(this.right, method, environment, target, true, breakLabel, continueLabel);
+                } else {
+                    Label label_true = new Label();
+                    this.left.writeCondition(method, environment, label_true, true, breakLabel, continueLabel);
+                    writeConditionBranch(this.right, method, environment, target, false, breakLabel, continueLabel);
+                    method.visitLabel(label_true);
                 }
             }
+            case EQUALS, NOT_EQUALS, LESS_EQUALS, LESS, GREATER_EQUALS, GREATER -> this.writeComparison(method, environment, target, jumpIf, breakLabel, continueLabel);
+            default -> Node.super.writeCondition(method, environment, target, jumpIf, breakLabel, continueLabel);
         }
     }
 
+    private void writeComparison(MethodNode method, MolangBytecodeEnvironment environment, Label target, boolean jumpIf, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        // Whole numbers convert to floats exactly, so they can be compared without converting them
+        if (environment.optimize() && this.left.getType().isInteger() && this.right.getType().isInteger()) {
+            this.left.writeInt(method, environment, breakLabel, continueLabel);
+            this.right.writeInt(method, environment, breakLabel, continueLabel);
+            int falseJump = this.getIntFalseJump();
+            method.visitJumpInsn(jumpIf ? invertJump(falseJump) : falseJump, target);
+            return;
+        }
+
+        writeNode(this.left, method, environment, breakLabel, continueLabel);
+        writeNode(this.right, method, environment, breakLabel, continueLabel);
+        method.visitInsn(this.getCompareInsn());
+        int falseJump = this.getFalseJump();
+        method.visitJumpInsn(jumpIf ? invertJump(falseJump) : falseJump, target);
+    }
+
+    /**
+     * @return The float comparison to use. NaN must compare as greater for less than checks, so they are false like in Java
+     */
+    private int getCompareInsn() {
+        return this.operator == BinaryOperation.LESS || this.operator == BinaryOperation.LESS_EQUALS ? Opcodes.FCMPG : Opcodes.FCMPL;
+    }
+
+    /**
+     * @return The jump after the comparison that is taken when this comparison is false
+     */
+    private int getFalseJump() {
+        return switch (this.operator) {
+            case EQUALS -> Opcodes.IFNE;
+            case NOT_EQUALS -> Opcodes.IFEQ;
+            case LESS_EQUALS -> Opcodes.IFGT;
+            case LESS -> Opcodes.IFGE;
+            case GREATER_EQUALS -> Opcodes.IFLT;
+            case GREATER -> Opcodes.IFLE;
+            default -> throw new IllegalStateException("Not a comparison: " + this.operator);
+        };
+    }
+
+    /**
+     * @return The jump comparing two ints that is taken when this comparison is false
+     */
+    private int getIntFalseJump() {
+        return switch (this.operator) {
+            case EQUALS -> Opcodes.IF_ICMPNE;
+            case NOT_EQUALS -> Opcodes.IF_ICMPEQ;
+            case LESS_EQUALS -> Opcodes.IF_ICMPGT;
+            case LESS -> Opcodes.IF_ICMPGE;
+            case GREATER_EQUALS -> Opcodes.IF_ICMPLT;
+            case GREATER -> Opcodes.IF_ICMPLE;
+            default -> throw new IllegalStateException("Not a comparison: " + this.operator);
+        };
+    }
+
+    private static int invertJump(int opcode) {
+        return switch (opcode) {
+            case Opcodes.IF_ICMPEQ -> Opcodes.IF_ICMPNE;
+            case Opcodes.IF_ICMPNE -> Opcodes.IF_ICMPEQ;
+            case Opcodes.IF_ICMPLT -> Opcodes.IF_ICMPGE;
+            case Opcodes.IF_ICMPGE -> Opcodes.IF_ICMPLT;
+            case Opcodes.IF_ICMPGT -> Opcodes.IF_ICMPLE;
+            case Opcodes.IF_ICMPLE -> Opcodes.IF_ICMPGT;
+            case Opcodes.IFEQ -> Opcodes.IFNE;
+            case Opcodes.IFNE -> Opcodes.IFEQ;
+            case Opcodes.IFLT -> Opcodes.IFGE;
+            case Opcodes.IFGE -> Opcodes.IFLT;
+            case Opcodes.IFGT -> Opcodes.IFLE;
+            case Opcodes.IFLE -> Opcodes.IFGT;
+            default -> throw new IllegalArgumentException("Unknown jump: " + opcode);
+        };
+    }
+
     // Try to replace with the negate operation if multiplying/dividing by -1
     private boolean tryWriteNegate(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         if (this.left.isConstant()) {
@@ -202,15 +339,23 @@ public record BinaryOperationNode(BinaryOperation operator, Node left, Node righ
         }
     }
 
-    private static void writeComparision(MethodNode method, int success) {
-        Label label_false = new Label();
-        Label label_end = new Label();
-        method.visitInsn(Opcodes.FCMPL);
-        method.visitJumpInsn(success, label_false);
-        method.visitInsn(Opcodes.FCONST_1);
-        method.visitJumpInsn(Opcodes.GOTO, label_end);
-        method.visitLabel(label_false);
+    // Anything loaded by a node that may not run can't be used after it, so it gets its own environment
+    private static void writeBranch(Node node, MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        MolangBytecodeEnvironment localEnvironment = new MolangBytecodeEnvironment(environment);
+        writeNode(node, method, localEnvironment, breakLabel, continueLabel);
+        localEnvironment.mergeModifiedVariables(method);
+    }
+
+    // Pure conditions don't modify any variables, so they can jump out of the branch without writing anything back
+    private static void writeConditionBranch(Node node, MethodNode method, MolangBytecodeEnvironment environment, Label target, boolean jumpIf, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (AlgebraicSimplifier.isPure(node)) {
+            node.writeCondition(method, new MolangBytecodeEnvironment(environment), target, jumpIf, breakLabel, continueLabel);
+            return;
+        }
+
+        writeBranch(node, method, environment, breakLabel, continueLabel);
         method.visitInsn(Opcodes.FCONST_0);
-        method.visitLabel(label_end);
+        method.visitInsn(Opcodes.FCMPL);
+        method.visitJumpInsn(jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target);
     }
 }
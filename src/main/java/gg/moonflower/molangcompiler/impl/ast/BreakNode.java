@@ -3,6 +3,7 @@ package gg.moonflower.molangcompiler.impl.ast;
 import gg.moonflower.molangcompiler.api.exception.MolangException;
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -32,11 +33,18 @@ public record BreakNode() implements Node {
         return false;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) {
+        interpreter.interrupt(MolangInterpreter.Flow.BREAK, 0.0F);
+        return 0.0F;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         if (breakLabel == null) {
             throw new MolangSyntaxException("Cannot break outside of loop");
         }
+        environment.writeLoopModifiedVariables(method);
         method.visitJumpInsn(Opcodes.GOTO, breakLabel);
     }
 }
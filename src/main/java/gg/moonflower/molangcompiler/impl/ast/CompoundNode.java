@@ -1,7 +1,9 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -40,6 +42,18 @@ public record CompoundNode(Node... nodes) implements Node {
         return this.nodes[0].evaluate(environment);
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        float value = 0.0F;
+        for (Node node : this.nodes) {
+            value = node.interpret(interpreter);
+            if (interpreter.isInterrupted()) {
+                break;
+            }
+        }
+        return value;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         for (Node node : this.nodes) {
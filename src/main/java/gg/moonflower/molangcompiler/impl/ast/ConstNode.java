@@ -3,6 +3,7 @@ package gg.moonflower.molangcompiler.impl.ast;
 import gg.moonflower.molangcompiler.api.exception.MolangException;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -17,6 +18,8 @@ import org.objectweb.asm.tree.MethodNode;
 @ApiStatus.Internal
 public record ConstNode(float value) implements Node {
 
+    private static final int MAX_EXACT_INT = 1 << 24;
+
     @Override
     public String toString() {
         return String.valueOf(this.value);
@@ -32,11 +35,22 @@ public record ConstNode(float value) implements Node {
         return true;
     }
 
+    @Override
+    public ValueType getType() {
+        // Larger values may not convert to an int and back exactly
+        return this.value == (int) this.value && Math.abs(this.value) <= MAX_EXACT_INT ? ValueType.INT : ValueType.FLOAT;
+    }
+
     @Override
     public float evaluate(MolangBytecodeEnvironment environment) throws MolangException {
         return this.value;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) {
+        return this.value;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         BytecodeCompiler.writeFloatConst(method, this.value);
@@ -1,10 +1,15 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
+import gg.moonflower.molangcompiler.impl.node.MolangFunctionNode;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
@@ -17,11 +22,32 @@ import java.util.stream.Collectors;
  *
  * @param object    The object to run the function from
  * @param function  The name of the function to run
+ * @param linked    The Java function this call is known to run when compiled or <code>null</code> to look it up when the expression runs
  * @param arguments The parameters to pass into the function
  * @author Ocelot
  */
 @ApiStatus.Internal
-public record FunctionNode(String object, String function, Node... arguments) implements Node {
+public record FunctionNode(String object, String function, @Nullable MolangFunctionNode linked, Node... arguments) implements Node {
+
+    private static final Handle BOOTSTRAP = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "gg/moonflower/molangcompiler/impl/MolangUtil",
+            "bootstrapFunction",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;I)Ljava/lang/invoke/CallSite;",
+            false
+    );
+
+    public FunctionNode(String object, String function, Node... arguments) {
+        this(object, function, null, arguments);
+    }
+
+    /**
+     * @param arguments The new arguments
+     * @return A call to the same function with the specified arguments
+     */
+    public FunctionNode withArguments(Node[] arguments) {
+        return new FunctionNode(this.object, this.function, this.linked, arguments);
+    }
 
     @Override
     public String toString() {
@@ -30,7 +56,27 @@ public record FunctionNode(String object, String function, Node... arguments) im
 
     @Override
     public boolean isConstant() {
-        return false;
+        if (this.linked == null || this.linked.getPurity() != MolangJavaFunction.Purity.PURE) {
+            return false;
+        }
+        for (Node argument : this.arguments) {
+            if (!argument.isConstant()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public float evaluate(MolangBytecodeEnvironment environment) throws MolangException {
+        if (!this.isConstant()) {
+            return Node.super.evaluate(environment);
+        }
+        float[] parameters = new float[this.arguments.length];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = this.arguments[i].evaluate(environment);
+        }
+        return this.linked.call(parameters);
     }
 
     @Override
@@ -38,8 +84,31 @@ public record FunctionNode(String object, String function, Node... arguments) im
         return true;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        // Nested function calls load their parameters after these and remove them when they end
+        int previous = interpreter.beginCall();
+        try {
+            for (Node argument : this.arguments) {
+                interpreter.loadParameter(argument.interpret(interpreter));
+            }
+            return interpreter.invoke(this.object, this.function, this.arguments.length);
+        } finally {
+            interpreter.endCall(previous);
+        }
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (environment.loadSubexpression(method, this)) {
+            return;
+        }
+        if (environment.optimize() && this.linked != null && this.linked.hasHandle()) {
+            this.writeDirectCall(method, environment, breakLabel, continueLabel);
+            environment.storeSubexpression(method, this);
+            return;
+        }
+
         int objectIndex = environment.getObjectIndex(method, this.object);
 
         // Function
@@ -56,6 +125,25 @@ public record FunctionNode(String object, String function, Node... arguments) im
         int expressionIndex = environment.allocateVariable(this.object + "." + this.function + "$" + this.arguments.length);
         method.visitVarInsn(Opcodes.ASTORE, expressionIndex);
 
+        // Nested function calls load their parameters after these and remove them when they end.
+        // Every call needs its own local, since nested calls start while this one is still running
+        int previousIndex = environment.allocateVariable("$call" + environment.variables().size());
+        method.visitVarInsn(Opcodes.ALOAD, BytecodeCompiler.RUNTIME_INDEX);
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                "gg/moonflower/molangcompiler/api/MolangEnvironment",
+                "beginCall",
+                "()I",
+                true
+        );
+        method.visitVarInsn(Opcodes.ISTORE, previousIndex);
+
+        Label start = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        Label after = new Label();
+        method.visitLabel(start);
+
         // Parameters
         for (Node node : this.arguments) {
             boolean full = !environment.optimize() || !node.isConstant();
@@ -79,24 +167,55 @@ public record FunctionNode(String object, String function, Node... arguments) im
         }
 
         // Resolve Function
-        method.visitVarInsn(Opcodes.ALOAD, expressionIndex);
         method.visitVarInsn(Opcodes.ALOAD, BytecodeCompiler.RUNTIME_INDEX);
+        method.visitVarInsn(Opcodes.ALOAD, expressionIndex);
         method.visitMethodInsn(
                 Opcodes.INVOKEINTERFACE,
-                "gg/moonflower/molangcompiler/api/MolangExpression",
+                "gg/moonflower/molangcompiler/api/MolangEnvironment",
                 "resolve",
-                "(Lgg/moonflower/molangcompiler/api/MolangEnvironment;)F",
+                "(Lgg/moonflower/molangcompiler/api/MolangExpression;)F",
                 true
         );
+        method.visitLabel(end);
+        writeEndCall(method, previousIndex);
+        method.visitJumpInsn(Opcodes.GOTO, after);
+
+        // The call is ended even if a parameter or the function throws, so the parameters don't leak into later calls
+        method.visitLabel(handler);
+        writeEndCall(method, previousIndex);
+        method.visitInsn(Opcodes.ATHROW);
+        method.visitLabel(after);
+
+        // Nested calls have already added their handlers, so they are checked before this one
+        method.visitTryCatchBlock(start, end, handler, null);
+        environment.storeSubexpression(method, this);
+    }
 
-        // Clear parameters
+    private static void writeEndCall(MethodNode method, int previousIndex) {
         method.visitVarInsn(Opcodes.ALOAD, BytecodeCompiler.RUNTIME_INDEX);
+        method.visitVarInsn(Opcodes.ILOAD, previousIndex);
         method.visitMethodInsn(
                 Opcodes.INVOKEINTERFACE,
                 "gg/moonflower/molangcompiler/api/MolangEnvironment",
-                "clearParameters",
-                "()V",
+                "endCall",
+                "(I)V",
                 true
         );
     }
+
+    /**
+     * Calls the handle of the linked function with each parameter on the stack. The call site is bound to the handle stored in the class
+     * the first time it runs, after which it is as fast as calling the method directly.
+     */
+    private void writeDirectCall(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        int parameters = this.linked.getParameters();
+        for (int i = 0; i < this.arguments.length; i++) {
+            this.arguments[i].writeBytecode(method, environment, breakLabel, continueLabel);
+            if (i >= parameters) {
+                // Extra arguments are still evaluated, but the function never sees them
+                method.visitInsn(Opcodes.POP);
+            }
+        }
+        method.visitInvokeDynamicInsn(this.function, "(" + "F".repeat(parameters) + ")F", BOOTSTRAP, environment.getFunctionIndex(this.linked));
+    }
 }
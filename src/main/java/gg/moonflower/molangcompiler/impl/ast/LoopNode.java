@@ -1,14 +1,20 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * Runs the body based on the number of iterations requested.
  *
@@ -19,6 +25,10 @@ import org.objectweb.asm.tree.MethodNode;
 @ApiStatus.Internal
 public record LoopNode(Node iterations, Node body) implements Node {
 
+    private static final int MAX_UNROLLED_ITERATIONS = 8;
+    private static final int MAX_UNROLLED_COPIES = 4;
+    private static final int MAX_UNROLLED_INSTRUCTIONS = 128;
+
     @Override
     public String toString() {
         return "loop(" + this.iterations + ", {" + this.body + "})";
@@ -34,29 +44,327 @@ public record LoopNode(Node iterations, Node body) implements Node {
         return false;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        int iterations = (int) this.iterations.interpret(interpreter);
+        if (iterations > 0) {
+            for (String name : getTempWrites(this.body)) {
+                interpreter.declareTemp(name);
+            }
+        }
+        for (int i = 0; i < iterations; i++) {
+            this.body.interpret(interpreter);
+            if (interpreter.consume(MolangInterpreter.Flow.BREAK) || interpreter.isInterrupted() && !interpreter.consume(MolangInterpreter.Flow.CONTINUE)) {
+                break;
+            }
+        }
+        return 0.0F;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (environment.optimize() && this.iterations.isConstant()) {
+            int count = (int) this.iterations.evaluate(environment);
+            if (count <= 0) {
+                return;
+            }
+            this.declareTemps(method, environment);
+            if (count > 1 && canUnroll(this.body) && this.tryWriteUnrolled(method, environment, count)) {
+                return;
+            }
+        }
+
         Label begin = new Label();
         Label next = new Label();
+        Label check = new Label();
         Label end = new Label();
 
         // iterations
-        this.iterations.writeBytecode(method, environment, breakLabel, continueLabel);
-        method.visitInsn(Opcodes.F2I);
+        this.iterations.writeInt(method, environment, breakLabel, continueLabel);
+        this.preloadVariables(method, environment);
+        this.declareTemps(method, environment);
 
         BytecodeCompiler.writeIntConst(method, 0); // int i = 0;
+        method.visitJumpInsn(Opcodes.GOTO, check); // The body doesn't run if there are no iterations
         method.visitLabel(begin);
 
-        this.body.writeBytecode(method, environment, end, next);
+        // Values computed before the loop may be changed by a previous iteration
+        environment.invalidateSubexpressions();
+
+        MolangBytecodeEnvironment bodyEnvironment = new MolangBytecodeEnvironment(environment, true);
+        this.body.writeBytecode(method, bodyEnvironment, end, next);
         if (this.body.hasValue()) { // Must return void
             method.visitInsn(Opcodes.POP);
         }
+        // Anything loaded in the body can't be used after the loop, since a break may have skipped it
+        bodyEnvironment.mergeModifiedVariables(method);
 
         method.visitLabel(next);
         method.visitInsn(Opcodes.ICONST_1);
         method.visitInsn(Opcodes.IADD); // i++
+        method.visitLabel(check);
+        method.visitInsn(Opcodes.DUP2);
+        method.visitJumpInsn(Opcodes.IF_ICMPGT, begin);
+        method.visitLabel(end);
+        method.visitInsn(Opcodes.POP2);
+        environment.invalidateSubexpressions();
+    }
+
+    /**
+     * Writes the body once for each iteration if it is small enough. Larger loops with many iterations repeat several copies of the body in a smaller loop instead.
+     *
+     * @return Whether the loop was written
+     */
+    private boolean tryWriteUnrolled(MethodNode method, MolangBytecodeEnvironment environment, int count) throws MolangException {
+        // Write the body somewhere else first to find out how large each copy is
+        MethodNode sizeMethod = new MethodNode();
+        this.body.writeBytecode(sizeMethod, new MolangBytecodeEnvironment(environment, true), new Label(), new Label());
+        int size = Math.max(sizeMethod.instructions.size(), 1);
+
+        Label end = new Label();
+        if (count <= MAX_UNROLLED_ITERATIONS && count * size <= MAX_UNROLLED_INSTRUCTIONS) {
+            MolangBytecodeEnvironment bodyEnvironment = new MolangBytecodeEnvironment(environment, true);
+            this.writeCopies(method, bodyEnvironment, count, end);
+            method.visitLabel(end);
+            environment.merge(bodyEnvironment);
+            environment.invalidateSubexpressions();
+            return true;
+        }
+
+        int copies = Math.min(MAX_UNROLLED_COPIES, MAX_UNROLLED_INSTRUCTIONS / size);
+        if (copies < 2 || count < copies * 2) {
+            return false;
+        }
+
+        Label begin = new Label();
+        this.preloadVariables(method, environment);
+        BytecodeCompiler.writeIntConst(method, count / copies);
+        BytecodeCompiler.writeIntConst(method, 0); // int i = 0;
+        method.visitLabel(begin);
+        MolangBytecodeEnvironment bodyEnvironment = new MolangBytecodeEnvironment(environment, true);
+        this.writeCopies(method, bodyEnvironment, copies, end);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.IADD); // i++
         method.visitInsn(Opcodes.DUP2);
         method.visitJumpInsn(Opcodes.IF_ICMPGT, begin);
+
+        // Iterations that didn't fit evenly into the loop
+        this.writeCopies(method, bodyEnvironment, count % copies, end);
         method.visitLabel(end);
+        method.visitInsn(Opcodes.POP2);
+        environment.merge(bodyEnvironment);
+        environment.invalidateSubexpressions();
+        return true;
+    }
+
+    /**
+     * Loads variables that are read and then changed by the body before the loop starts.
+     * Otherwise, the first read would load the variable again in every iteration and lose the changes from the previous one.
+     * Variables the body always sets before reading don't need the previous value, so they aren't loaded and don't have to exist yet.
+     */
+    private void preloadVariables(MethodNode method, MolangBytecodeEnvironment environment) {
+        Set<String> reads = new LinkedHashSet<>();
+        Set<String> writes = new HashSet<>();
+        collectVariables(this.body, new HashSet<>(), writes);
+        collectExposedReads(this.body, new HashSet<>(), reads);
+        for (String name : reads) {
+            if (writes.contains(name) && !environment.variables().containsKey(name)) {
+                String[] parts = name.split("\\.", 2);
+                environment.loadVariable(method, parts[0], parts[1]);
+            }
+        }
+    }
+
+    /**
+     * Declares temp variables the body creates before the loop, so later iterations and the code after the loop can use them once they are set.
+     */
+    private void declareTemps(MethodNode method, MolangBytecodeEnvironment environment) {
+        for (String name : getTempWrites(this.body)) {
+            environment.declareTemp(method, name);
+        }
+    }
+
+    /**
+     * Finds the temp variables set anywhere in the specified node. Temp variables set by a loop body stay declared after the loop,
+     * even if they are set in a branch of the body.
+     *
+     * @param node The node to search
+     * @return The names of the temp variables without the object
+     */
+    public static Set<String> getTempWrites(Node node) {
+        Set<String> reads = new HashSet<>();
+        Set<String> writes = new LinkedHashSet<>();
+        collectVariables(node, reads, writes);
+
+        Set<String> temps = new LinkedHashSet<>();
+        for (String name : writes) {
+            if (name.startsWith("temp.")) {
+                temps.add(name.substring(5));
+            }
+        }
+        return temps;
+    }
+
+    private void writeCopies(MethodNode method, MolangBytecodeEnvironment environment, int copies, Label end) throws MolangException {
+        for (int i = 0; i < copies; i++) {
+            Label next = new Label();
+
+            // Values computed before this iteration may be changed by a previous iteration
+            environment.invalidateSubexpressions();
+
+            this.body.writeBytecode(method, environment, end, next);
+            if (this.body.hasValue()) { // Must return void
+                method.visitInsn(Opcodes.POP);
+            }
+            method.visitLabel(next);
+        }
+    }
+
+    /**
+     * Checks whether copies of the body can be written one after another. Every copy uses the variables loaded by the first one,
+     * so only the last statement may leave the body early.
+     *
+     * @param body The body of the loop
+     * @return Whether the body can be unrolled
+     */
+    private static boolean canUnroll(Node body) {
+        Node last = body;
+        if (body instanceof CompoundNode compound) {
+            Node[] nodes = compound.nodes();
+            for (int i = 0; i < nodes.length - 1; i++) {
+                if (hasJump(nodes[i])) {
+                    return false;
+                }
+            }
+            last = nodes[nodes.length - 1];
+        }
+        if (last instanceof BinaryConditionalNode conditional && (conditional.branch() instanceof BreakNode || conditional.branch() instanceof ContinueNode)) {
+            return !hasJump(conditional.value());
+        }
+        return last instanceof BreakNode || last instanceof ContinueNode || !hasJump(last);
+    }
+
+    private static void collectVariables(Node node, Set<String> reads, Set<String> writes) {
+        if (node instanceof VariableGetNode get) {
+            // Temp variables can't be loaded and a variable that may not exist must be checked first
+            if (!"temp".equals(get.object())) {
+                reads.add(get.object() + "." + get.name());
+            }
+        } else if (node instanceof VariableSetNode set) {
+            collectVariables(set.value(), reads, writes);
+            writes.add(set.object() + "." + set.name());
+        } else if (node instanceof BinaryOperationNode operation) {
+            if (operation.operator() != BinaryOperation.NULL_COALESCING) {
+                collectVariables(operation.left(), reads, writes);
+            }
+            collectVariables(operation.right(), reads, writes);
+        } else if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                collectVariables(child, reads, writes);
+            }
+        } else if (node instanceof ScopeNode scope) {
+            collectVariables(scope.node(), reads, writes);
+        } else if (node instanceof ReturnNode returnNode) {
+            collectVariables(returnNode.value(), reads, writes);
+        } else if (node instanceof TernaryOperationNode ternary) {
+            collectVariables(ternary.value(), reads, writes);
+            collectVariables(ternary.left(), reads, writes);
+            collectVariables(ternary.right(), reads, writes);
+        } else if (node instanceof BinaryConditionalNode conditional) {
+            collectVariables(conditional.value(), reads, writes);
+            collectVariables(conditional.branch(), reads, writes);
+        } else if (node instanceof LoopNode loop) {
+            collectVariables(loop.iterations(), reads, writes);
+            collectVariables(loop.body(), reads, writes);
+        } else if (node instanceof NegateNode negate) {
+            collectVariables(negate.value(), reads, writes);
+        } else if (node instanceof MathNode math) {
+            for (Node argument : math.arguments()) {
+                collectVariables(argument, reads, writes);
+            }
+        } else if (node instanceof FunctionNode function) {
+            for (Node argument : function.arguments()) {
+                collectVariables(argument, reads, writes);
+            }
+        }
+    }
+
+    /**
+     * Collects the variables that may be read before the body sets them.
+     *
+     * @param node    The node to check
+     * @param defined The variables that are always set before this node runs
+     * @param reads   The variables read without being set first
+     */
+    private static void collectExposedReads(Node node, Set<String> defined, Set<String> reads) {
+        if (node instanceof VariableGetNode get) {
+            String name = get.object() + "." + get.name();
+            if (!"temp".equals(get.object()) && !defined.contains(name)) {
+                reads.add(name);
+            }
+        } else if (node instanceof VariableSetNode set) {
+            collectExposedReads(set.value(), defined, reads);
+            defined.add(set.object() + "." + set.name());
+        } else if (node instanceof BinaryOperationNode operation) {
+            if (operation.operator() != BinaryOperation.NULL_COALESCING) {
+                collectExposedReads(operation.left(), defined, reads);
+            }
+            // The right side of logical operators may not run
+            boolean conditional = operation.operator() == BinaryOperation.AND || operation.operator() == BinaryOperation.OR || operation.operator() == BinaryOperation.NULL_COALESCING;
+            collectExposedReads(operation.right(), conditional ? new HashSet<>(defined) : defined, reads);
+        } else if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                collectExposedReads(child, defined, reads);
+            }
+        } else if (node instanceof ScopeNode scope) {
+            collectExposedReads(scope.node(), defined, reads);
+        } else if (node instanceof ReturnNode returnNode) {
+            collectExposedReads(returnNode.value(), defined, reads);
+        } else if (node instanceof TernaryOperationNode ternary) {
+            collectExposedReads(ternary.value(), defined, reads);
+            collectExposedReads(ternary.left(), new HashSet<>(defined), reads);
+            collectExposedReads(ternary.right(), new HashSet<>(defined), reads);
+        } else if (node instanceof BinaryConditionalNode conditional) {
+            collectExposedReads(conditional.value(), defined, reads);
+            collectExposedReads(conditional.branch(), new HashSet<>(defined), reads);
+        } else if (node instanceof LoopNode loop) {
+            collectExposedReads(loop.iterations(), defined, reads);
+            collectExposedReads(loop.body(), new HashSet<>(defined), reads);
+        } else if (node instanceof NegateNode negate) {
+            collectExposedReads(negate.value(), defined, reads);
+        } else if (node instanceof MathNode math) {
+            for (Node argument : math.arguments()) {
+                collectExposedReads(argument, defined, reads);
+            }
+        } else if (node instanceof FunctionNode function) {
+            for (Node argument : function.arguments()) {
+                collectExposedReads(argument, defined, reads);
+            }
+        }
+    }
+
+    private static boolean hasJump(Node node) {
+        if (node instanceof BreakNode || node instanceof ContinueNode) {
+            return true;
+        }
+        if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                if (hasJump(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (node instanceof ScopeNode scope) {
+            return hasJump(scope.node());
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            return hasJump(conditional.branch());
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            return hasJump(ternary.left()) || hasJump(ternary.right());
+        }
+        // Jumps in nested loops stay inside them
+        return false;
     }
 }
@@ -1,9 +1,11 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.MolangUtil;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,8 +26,8 @@ import java.util.stream.Collectors;
 @ApiStatus.Internal
 public record MathNode(MathOperation function, Node... arguments) implements Node {
 
-    private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
-    private static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180);
+    public static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
+    public static final float DEGREES_TO_RADIANS = (float) (Math.PI / 180);
 
     @Override
     public @NotNull String toString() {
@@ -62,8 +64,18 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
         for (int i = 0; i < values.length; i++) {
             values[i] = this.arguments[i].evaluate(environment);
         }
+        return apply(this.function, values);
+    }
 
-        return switch (this.function) {
+    /**
+     * Applies the specified math function to the specified arguments.
+     *
+     * @param function The function to run
+     * @param values   The argument values
+     * @return The result of the function
+     */
+    public static float apply(MathOperation function, float... values) {
+        return switch (function) {
             case ABS -> Math.abs(values[0]);
             case ACOS -> RADIANS_TO_DEGREES * (float) Math.acos(values[0]);
             case ASIN -> RADIANS_TO_DEGREES * (float) Math.asin(values[0]);
@@ -71,6 +83,8 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
             case ATAN2 -> RADIANS_TO_DEGREES * (float) Math.atan2(values[0], values[1]);
             case CEIL -> (float) Math.ceil(values[0]);
             case CLAMP -> MolangUtil.clamp(values[0], values[1], values[2]);
+            case DIE_ROLL -> MolangUtil.dieRoll((int) values[0], values[1], values[2]);
+            case DIE_ROLL_INTEGER -> MolangUtil.dieRollInt((int) values[0], (int) values[1], (int) values[2]);
             case COS -> (float) Math.cos(DEGREES_TO_RADIANS * values[0]);
             case SIN -> (float) Math.sin(DEGREES_TO_RADIANS * values[0]);
             case EXP -> (float) Math.exp(values[0]);
@@ -85,17 +99,88 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
             case MOD -> values[0] % values[1];
             case PI -> (float) Math.PI;
             case POW -> (float) Math.pow(values[0], values[1]);
+            case RANDOM -> MolangUtil.random(values[0], values[1]);
+            case RANDOM_INTEGER -> (int) MolangUtil.random((int) values[0], (int) values[1]);
             case ROUND -> Math.round(values[0]);
             case SQRT -> (float) Math.sqrt(values[0]);
             case TRUNC -> (int) values[0];
             case SIGN -> Math.signum(values[0]);
             case TRIANGLE_WAVE -> MolangUtil.triangleWave(values[0], values[1]);
-            default -> throw new MolangException("Unexpected value: " + this.function);
+        };
+    }
+
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        float[] values = new float[this.arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = this.arguments[i].interpret(interpreter);
+        }
+        return apply(this.function, values);
+    }
+
+    @Override
+    public ValueType getType() {
+        return switch (this.function) {
+            case ROUND, TRUNC, RANDOM_INTEGER, DIE_ROLL_INTEGER -> ValueType.INT;
+            default -> ValueType.FLOAT;
         };
     }
 
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment env, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (env.loadSubexpression(method, this)) {
+            return;
+        }
+        if (this.getType() == ValueType.INT) {
+            this.writeIntFunction(method, env, breakLabel, continueLabel);
+            method.visitInsn(Opcodes.I2F);
+        } else {
+            this.writeFunction(method, env, breakLabel, continueLabel);
+        }
+        env.storeSubexpression(method, this);
+    }
+
+    @Override
+    public void writeInt(MethodNode method, MolangBytecodeEnvironment env, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        // Repeated values are stored as floats, so they have to be converted anyway
+        if (!env.optimize() || this.getType() != ValueType.INT || this.isConstant() || env.commonSubexpressions().getId(this) != -1) {
+            Node.super.writeInt(method, env, breakLabel, continueLabel);
+            return;
+        }
+        this.writeIntFunction(method, env, breakLabel, continueLabel);
+    }
+
+    private void writeIntFunction(MethodNode method, MolangBytecodeEnvironment env, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        switch (this.function) {
+            case ROUND -> {
+                // Whole numbers are already rounded
+                if (env.optimize() && this.arguments[0].getType().isInteger()) {
+                    this.arguments[0].writeInt(method, env, breakLabel, continueLabel);
+                    return;
+                }
+                this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
+                method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", this.function.getName(), "(F)I", false);
+            }
+            case TRUNC -> this.arguments[0].writeInt(method, env, breakLabel, continueLabel);
+            case RANDOM_INTEGER -> {
+                this.arguments[0].writeInt(method, env, breakLabel, continueLabel);
+                method.visitInsn(Opcodes.I2F);
+                this.arguments[1].writeInt(method, env, breakLabel, continueLabel);
+                method.visitInsn(Opcodes.I2F);
+                method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "random", "(FF)F", false);
+                method.visitInsn(Opcodes.F2I);
+            }
+            case DIE_ROLL_INTEGER -> {
+                this.arguments[0].writeInt(method, env, breakLabel, continueLabel);
+                this.arguments[1].writeInt(method, env, breakLabel, continueLabel);
+                this.arguments[2].writeInt(method, env, breakLabel, continueLabel);
+                method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "dieRollInt", "(III)I", false);
+            }
+            default -> throw new IllegalStateException("Not an int function: " + this.function);
+        }
+    }
+
+    private void writeFunction(MethodNode method, MolangBytecodeEnvironment env, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         switch (this.function) {
             // Single-argument Float
             case ABS -> {
@@ -119,6 +204,11 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
             }
             // Single-argument Double
             case CEIL, EXP, FLOOR, LN, SQRT -> {
+                // Whole numbers are already rounded
+                if (env.optimize() && (this.function == MathOperation.CEIL || this.function == MathOperation.FLOOR) && this.arguments[0].getType().isInteger()) {
+                    this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
+                    return;
+                }
                 this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
                 method.visitInsn(Opcodes.F2D);
                 method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", this.function.getName(), "(D)D", false);
@@ -153,12 +243,6 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
                 BytecodeCompiler.writeFloatConst(method, RADIANS_TO_DEGREES);
                 method.visitInsn(Opcodes.FMUL);
             }
-            // Single-argument Float->Int
-            case ROUND -> {
-                this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", this.function.getName(), "(F)I", false);
-                method.visitInsn(Opcodes.I2F);
-            }
             // Operations
             case MOD -> {
                 this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
@@ -166,11 +250,6 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
                 method.visitInsn(Opcodes.FREM);
             }
             case PI -> BytecodeCompiler.writeFloatConst(method, (float) Math.PI);
-            case TRUNC -> {
-                this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
-                method.visitInsn(Opcodes.I2F);
-            }
             // Custom
             case CLAMP -> {
                 this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
@@ -179,24 +258,11 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
                 method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "clamp", "(FFF)F", false);
             }
             case DIE_ROLL -> {
-                this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
+                this.arguments[0].writeInt(method, env, breakLabel, continueLabel);
                 this.arguments[1].writeBytecode(method, env, breakLabel, continueLabel);
                 this.arguments[2].writeBytecode(method, env, breakLabel, continueLabel);
                 method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "dieRoll", "(IFF)F", false);
             }
-            case DIE_ROLL_INTEGER -> {
-                this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
-                this.arguments[1].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
-                method.visitInsn(Opcodes.I2F);
-                this.arguments[2].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
-                method.visitInsn(Opcodes.I2F);
-                method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "dieRoll", "(IFF)F", false);
-                method.visitInsn(Opcodes.I2F);
-            }
             case HERMITE_BLEND -> {
                 this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
                 method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "hermiteBlend", "(F)F", false);
@@ -222,17 +288,6 @@ public record MathNode(MathOperation function, Node... arguments) implements Nod
                 this.arguments[1].writeBytecode(method, env, breakLabel, continueLabel);
                 method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "random", "(FF)F", false);
             }
-            case RANDOM_INTEGER -> {
-                this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
-                method.visitInsn(Opcodes.I2F);
-                this.arguments[1].writeBytecode(method, env, breakLabel, continueLabel);
-                method.visitInsn(Opcodes.F2I);
-                method.visitInsn(Opcodes.I2F);
-                method.visitMethodInsn(Opcodes.INVOKESTATIC, "gg/moonflower/molangcompiler/impl/MolangUtil", "random", "(FF)F", false);
-                method.visitInsn(Opcodes.F2I);
-                method.visitInsn(Opcodes.I2F);
-            }
             case SIGN -> {
                 this.arguments[0].writeBytecode(method, env, breakLabel, continueLabel);
                 method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "signum", "(F)F", false);
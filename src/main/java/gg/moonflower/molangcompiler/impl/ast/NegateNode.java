@@ -1,8 +1,10 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -32,36 +34,62 @@ public record NegateNode(Node value) implements Node {
         return true;
     }
 
+    @Override
+    public ValueType getType() {
+        return ValueType.BOOLEAN;
+    }
+
     @Override
     public float evaluate(MolangBytecodeEnvironment environment) throws MolangException {
         return this.value.evaluate(environment) == 0.0F ? 1.0F : 0.0F;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        return this.value.interpret(interpreter) == 0.0F ? 1.0F : 0.0F;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         if (environment.optimize() && this.isConstant()) {
             BytecodeCompiler.writeFloatConst(method, this.evaluate(environment));
             return;
         }
+        if (environment.loadSubexpression(method, this)) {
+            return;
+        }
 
         Label label_right = new Label();
         Label label_end = new Label();
 
-        this.value.writeBytecode(method, environment, breakLabel, continueLabel);
-        method.visitInsn(Opcodes.FCONST_0);
-        method.visitInsn(Opcodes.FCMPL);
-
         //value ?
-        method.visitJumpInsn(Opcodes.IFEQ, label_right);
+        if (environment.optimize()) {
+            this.value.writeCondition(method, environment, label_right, false, breakLabel, continueLabel);
+        } else {
+            this.value.writeBytecode(method, environment, breakLabel, continueLabel);
+            method.visitInsn(Opcodes.FCONST_0);
+            method.visitInsn(Opcodes.FCMPL);
+            method.visitJumpInsn(Opcodes.IFEQ, label_right);
+        }
 
-        // 1
-        method.visitInsn(Opcodes.FCONST_1);
+        // 0
+        method.visitInsn(Opcodes.FCONST_0);
         method.visitJumpInsn(Opcodes.GOTO, label_end);
 
-        //: 0
+        //: 1
         method.visitLabel(label_right);
-        method.visitInsn(Opcodes.FCONST_0);
+        method.visitInsn(Opcodes.FCONST_1);
 
         method.visitLabel(label_end);
+        environment.storeSubexpression(method, this);
+    }
+
+    @Override
+    public void writeCondition(MethodNode method, MolangBytecodeEnvironment environment, Label target, boolean jumpIf, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (environment.optimize() && (this.isConstant() || environment.commonSubexpressions().getId(this) != -1)) {
+            Node.super.writeCondition(method, environment, target, jumpIf, breakLabel, continueLabel);
+            return;
+        }
+        this.value.writeCondition(method, environment, target, !jumpIf, breakLabel, continueLabel);
     }
 }
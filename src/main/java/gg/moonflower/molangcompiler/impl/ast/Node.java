@@ -1,10 +1,14 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
 
 /**
@@ -26,6 +30,13 @@ public interface Node {
      */
     boolean hasValue();
 
+    /**
+     * @return The kind of value this node produces
+     */
+    default ValueType getType() {
+        return ValueType.FLOAT;
+    }
+
     /**
      * Attempts to statically evaluate this expression. This will fail if {@link #isConstant()} is <code>false</code>.
      *
@@ -36,6 +47,17 @@ public interface Node {
         throw new MolangException("Cannot statically evaluate " + this.getClass().getSimpleName());
     }
 
+    /**
+     * Evaluates this node directly without compiling it.
+     *
+     * @param interpreter The interpreter evaluating the expression
+     * @return The value of this node or <code>0.0</code> if {@link #hasValue()} is <code>false</code>
+     * @throws MolangRuntimeException If any error occurs while evaluating this node
+     */
+    default float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        throw new MolangRuntimeException("Cannot interpret " + this.getClass().getSimpleName());
+    }
+
     /**
      * Writes java bytecode representing this node to the specified method.
      *
@@ -48,4 +70,68 @@ public interface Node {
     default void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         throw new MolangException("Not implemented (" + this.getClass().getSimpleName() + " " + this + ")");
     }
+
+    /**
+     * Writes java bytecode that pushes this node as an int, truncating it the same way as casting the float value would.
+     * Nodes that produce whole numbers can override this to skip converting to a float and back.
+     *
+     * @param method        The method to write into
+     * @param environment   The bytecode compilation environment
+     * @param breakLabel    A label to break out of loops or <code>null</code> if not in a loop
+     * @param continueLabel A label to continue to the next loop iteration or <code>null</code> if not in a loop
+     * @throws MolangException If any syntax problems prevent the expression from being written
+     */
+    default void writeInt(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (environment.optimize()) {
+            if (this.isConstant()) {
+                BytecodeCompiler.writeIntConst(method, (int) this.evaluate(environment));
+                return;
+            }
+            if (this.getType() == ValueType.BOOLEAN) {
+                Label label_false = new Label();
+                Label label_end = new Label();
+                this.writeCondition(method, environment, label_false, false, breakLabel, continueLabel);
+                method.visitInsn(Opcodes.ICONST_1);
+                method.visitJumpInsn(Opcodes.GOTO, label_end);
+                method.visitLabel(label_false);
+                method.visitInsn(Opcodes.ICONST_0);
+                method.visitLabel(label_end);
+                return;
+            }
+        }
+
+        this.writeBytecode(method, environment, breakLabel, continueLabel);
+        method.visitInsn(Opcodes.F2I);
+    }
+
+    /**
+     * Writes java bytecode that tests this node as a condition and jumps to the specified label instead of pushing a value.
+     * Nodes that produce booleans can override this to jump directly instead of creating <code>1.0</code> or <code>0.0</code> first.
+     *
+     * @param method        The method to write into
+     * @param environment   The bytecode compilation environment
+     * @param target        The label to jump to
+     * @param jumpIf        Whether to jump when this node is true or when it is false. Otherwise, execution continues after the condition
+     * @param breakLabel    A label to break out of loops or <code>null</code> if not in a loop
+     * @param continueLabel A label to continue to the next loop iteration or <code>null</code> if not in a loop
+     * @throws MolangException If any syntax problems prevent the expression from being written
+     */
+    default void writeCondition(MethodNode method, MolangBytecodeEnvironment environment, Label target, boolean jumpIf, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        if (environment.optimize() && this.isConstant()) {
+            if (this.evaluate(environment) != 0.0F == jumpIf) {
+                method.visitJumpInsn(Opcodes.GOTO, target);
+            }
+            return;
+        }
+        if (environment.optimize() && this.getType() == ValueType.INT) {
+            this.writeInt(method, environment, breakLabel, continueLabel);
+            method.visitJumpInsn(jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target);
+            return;
+        }
+
+        this.writeBytecode(method, environment, breakLabel, continueLabel);
+        method.visitInsn(Opcodes.FCONST_0);
+        method.visitInsn(Opcodes.FCMPL);
+        method.visitJumpInsn(jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target);
+    }
 }
\ No newline at end of file
@@ -1,8 +1,10 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -38,6 +40,15 @@ public record ReturnNode(Node value) implements Node {
         return this.value.evaluate(environment);
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        float value = this.value.interpret(interpreter);
+        if (!interpreter.isInterrupted()) {
+            interpreter.interrupt(MolangInterpreter.Flow.RETURN, this.value.hasValue() ? value : 0.0F);
+        }
+        return value;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         if (environment.optimize() && this.isConstant()) {
@@ -48,7 +59,7 @@ public record ReturnNode(Node value) implements Node {
                 method.visitInsn(Opcodes.FCONST_0);
             }
         }
-        environment.writeModifiedVariables(method);
+        environment.writeAllModifiedVariables(method);
         method.visitInsn(Opcodes.FRETURN);
     }
 }
\ No newline at end of file
@@ -1,14 +1,17 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.tree.MethodNode;
 
 /**
- * Represents a local scope with independent variables.
+ * Represents a block of statements. A block always runs completely, so temp variables it sets can be used after it.
+ * Branches that may not run are given their own scope by the node that chooses them instead.
  *
  * @param node The node within this scope
  * @author Ocelot
@@ -36,10 +39,13 @@ public record ScopeNode(Node node) implements Node {
         return this.node.evaluate(environment);
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        return this.node.interpret(interpreter);
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
-        MolangBytecodeEnvironment scopeEnvironment = new MolangBytecodeEnvironment(environment);
-        this.node.writeBytecode(method, scopeEnvironment, breakLabel, continueLabel);
-        scopeEnvironment.writeModifiedVariables(method);
+        this.node.writeBytecode(method, environment, breakLabel, continueLabel);
     }
 }
@@ -1,13 +1,20 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.impl.compiler.AlgebraicSimplifier;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * Performs an "if" check on the specified value and chooses a branch.
  *
@@ -19,6 +26,8 @@ import org.objectweb.asm.tree.MethodNode;
 @ApiStatus.Internal
 public record TernaryOperationNode(Node value, Node left, Node right) implements Node {
 
+    private static final int MIN_SWITCH_CASES = 3;
+
     @Override
     public String toString() {
         return this.value + " ? " + this.left + " : " + this.right;
@@ -39,32 +48,28 @@ public record TernaryOperationNode(Node value, Node left, Node right) implements
         return this.value.evaluate(environment) != 0.0F ? this.left.evaluate(environment) : this.right.evaluate(environment);
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        return interpreter.interpretBranch(this.value.interpret(interpreter) != 0.0F ? this.left : this.right);
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         Label label_right = new Label();
         Label label_end = new Label();
 
         if (environment.optimize() && this.value.isConstant()) {
-            if (this.value.evaluate(environment) != 0.0F) {
-                this.left.writeBytecode(method, environment, breakLabel, continueLabel);
-                if (this.left.hasValue() && !this.hasValue()) {
-                    method.visitInsn(Opcodes.POP);
-                }
-            } else {
-                this.right.writeBytecode(method, environment, breakLabel, continueLabel);
-                if (this.right.hasValue() && !this.hasValue()) {
-                    method.visitInsn(Opcodes.POP);
-                }
-            }
+            // The branch still has its own scope, so temp variables it creates are treated the same as when it isn't constant
+            this.writeCase(this.value.evaluate(environment) != 0.0F ? this.left : this.right, method, environment, breakLabel, continueLabel);
             return;
         }
 
-        this.value.writeBytecode(method, environment, breakLabel, continueLabel);
-        method.visitInsn(Opcodes.FCONST_0);
-        method.visitInsn(Opcodes.FCMPL);
+        if (environment.optimize() && this.tryWriteSwitch(method, environment, breakLabel, continueLabel)) {
+            return;
+        }
 
         //value ?
-        method.visitJumpInsn(Opcodes.IFEQ, label_right);
+        this.value.writeCondition(method, environment, label_right, false, breakLabel, continueLabel);
 
         // [left]
         {
@@ -73,7 +78,7 @@ public record TernaryOperationNode(Node value, Node left, Node right) implements
             if (this.left.hasValue() && !this.hasValue()) {
                 method.visitInsn(Opcodes.POP);
             }
-            localEnvironment.writeModifiedVariables(method);
+            localEnvironment.mergeModifiedVariables(method);
         }
         method.visitJumpInsn(Opcodes.GOTO, label_end);
 
@@ -81,13 +86,129 @@ public record TernaryOperationNode(Node value, Node left, Node right) implements
         method.visitLabel(label_right);
         {
             MolangBytecodeEnvironment localEnvironment = new MolangBytecodeEnvironment(environment);
-            this.right.writeBytecode(method, environment, breakLabel, continueLabel);
+            this.right.writeBytecode(method, localEnvironment, breakLabel, continueLabel);
             if (this.right.hasValue() && !this.hasValue()) {
                 method.visitInsn(Opcodes.POP);
             }
-            localEnvironment.writeModifiedVariables(method);
+            localEnvironment.mergeModifiedVariables(method);
         }
 
         method.visitLabel(label_end);
     }
+
+    /**
+     * Writes chains like <code>a == 0 ? x : a == 1 ? y : z</code> as a single switch on the int value of <code>a</code>.
+     *
+     * @return Whether this ternary was a chain that could be written as a switch
+     */
+    private boolean tryWriteSwitch(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        Node subject = getSubject(this.value);
+        if (subject == null || !AlgebraicSimplifier.isPure(subject)) {
+            return false;
+        }
+
+        // Only the first branch for each value can be reached
+        Map<Integer, Node> cases = new TreeMap<>();
+        int comparisons = 0;
+        Node otherwise = this;
+        String key = subject.toString();
+        while (otherwise instanceof TernaryOperationNode ternary) {
+            Node caseSubject = getSubject(ternary.value());
+            if (caseSubject == null || !key.equals(caseSubject.toString())) {
+                break;
+            }
+            cases.putIfAbsent(getCaseValue(ternary.value()), ternary.left());
+            comparisons++;
+            otherwise = ternary.right();
+        }
+        if (comparisons < MIN_SWITCH_CASES) {
+            return false;
+        }
+
+        Label label_default = new Label();
+        Label label_end = new Label();
+        if (subject.getType().isInteger()) {
+            subject.writeInt(method, environment, breakLabel, continueLabel);
+        } else {
+            // Values that aren't whole numbers can't equal any case
+            Label label_switch = new Label();
+            subject.writeBytecode(method, environment, breakLabel, continueLabel);
+            method.visitInsn(Opcodes.DUP);
+            method.visitInsn(Opcodes.F2I);
+            method.visitInsn(Opcodes.DUP_X1);
+            method.visitInsn(Opcodes.I2F);
+            method.visitInsn(Opcodes.FCMPL);
+            method.visitJumpInsn(Opcodes.IFEQ, label_switch);
+            method.visitInsn(Opcodes.POP);
+            method.visitJumpInsn(Opcodes.GOTO, label_default);
+            method.visitLabel(label_switch);
+        }
+
+        int[] keys = cases.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Label[] labels = new Label[keys.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = new Label();
+        }
+        int min = keys[0];
+        int max = keys[keys.length - 1];
+        // Same cost estimate javac uses to pick between the two
+        long tableCost = 4L + ((long) max - min + 1) + 3 * 3;
+        long lookupCost = 3L + 2L * keys.length + 3L * keys.length;
+        if (tableCost <= lookupCost) {
+            Label[] table = new Label[max - min + 1];
+            Arrays.fill(table, label_default);
+            for (int i = 0; i < keys.length; i++) {
+                table[keys[i] - min] = labels[i];
+            }
+            method.visitTableSwitchInsn(min, max, label_default, table);
+        } else {
+            method.visitLookupSwitchInsn(label_default, keys, labels);
+        }
+
+        int i = 0;
+        for (Node branch : cases.values()) {
+            method.visitLabel(labels[i++]);
+            this.writeCase(branch, method, environment, breakLabel, continueLabel);
+            method.visitJumpInsn(Opcodes.GOTO, label_end);
+        }
+        method.visitLabel(label_default);
+        this.writeCase(otherwise, method, environment, breakLabel, continueLabel);
+        method.visitLabel(label_end);
+        return true;
+    }
+
+    private void writeCase(Node branch, MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
+        MolangBytecodeEnvironment localEnvironment = new MolangBytecodeEnvironment(environment);
+        branch.writeBytecode(method, localEnvironment, breakLabel, continueLabel);
+        if (branch.hasValue() && !this.hasValue()) {
+            method.visitInsn(Opcodes.POP);
+        }
+        localEnvironment.mergeModifiedVariables(method);
+    }
+
+    /**
+     * @return The value compared against a whole number or <code>null</code> if the condition is not that kind of comparison
+     */
+    private static @Nullable Node getSubject(Node condition) {
+        if (!(condition instanceof BinaryOperationNode operation) || operation.operator() != BinaryOperation.EQUALS) {
+            return null;
+        }
+        if (isCaseValue(operation.right()) && !operation.left().isConstant()) {
+            return operation.left();
+        }
+        if (isCaseValue(operation.left()) && !operation.right().isConstant()) {
+            return operation.right();
+        }
+        return null;
+    }
+
+    private static int getCaseValue(Node condition) {
+        BinaryOperationNode operation = (BinaryOperationNode) condition;
+        ConstNode value = (ConstNode) (isCaseValue(operation.right()) ? operation.right() : operation.left());
+        return (int) value.value();
+    }
+
+    private static boolean isCaseValue(Node node) {
+        return node instanceof ConstNode constNode && constNode.getType() == ValueType.INT;
+    }
 }
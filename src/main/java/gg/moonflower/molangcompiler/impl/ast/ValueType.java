@@ -0,0 +1,32 @@
+package gg.moonflower.molangcompiler.impl.ast;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * The kind of value a node always produces. Every value is still a float in MoLang,
+ * but values that are known to be whole numbers or booleans can skip converting to and from floats.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public enum ValueType {
+    /**
+     * Always <code>0.0</code> or <code>1.0</code>.
+     */
+    BOOLEAN,
+    /**
+     * Always a whole number that converts to a float and back without changing.
+     */
+    INT,
+    /**
+     * Any value.
+     */
+    FLOAT;
+
+    /**
+     * @return Whether values of this type can be written as an int without losing anything
+     */
+    public boolean isInteger() {
+        return this != FLOAT;
+    }
+}
@@ -1,7 +1,9 @@
 package gg.moonflower.molangcompiler.impl.ast;
 
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
@@ -42,6 +44,13 @@ public record VariableSetNode(String object,
         return this.returnValue;
     }
 
+    @Override
+    public float interpret(MolangInterpreter interpreter) throws MolangRuntimeException {
+        float value = this.value.interpret(interpreter);
+        interpreter.setValue(this.object, this.name, value);
+        return value;
+    }
+
     @Override
     public void writeBytecode(MethodNode method, MolangBytecodeEnvironment environment, @Nullable Label breakLabel, @Nullable Label continueLabel) throws MolangException {
         if (!"temp".equals(this.object)) {
@@ -55,7 +64,11 @@ public record VariableSetNode(String object,
         }
         int index = environment.allocateVariable(this.object + "." + this.name);
         method.visitVarInsn(Opcodes.FSTORE, index);
+        if ("temp".equals(this.object)) {
+            environment.markTempSet(method, this.name);
+        }
         environment.markDirty(this.object, this.name);
+        environment.invalidateSubexpressions();
     }
 
     @Override
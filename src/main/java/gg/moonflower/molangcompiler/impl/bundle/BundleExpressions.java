@@ -0,0 +1,92 @@
+package gg.moonflower.molangcompiler.impl.bundle;
+
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Loads expressions from a memory-mapped {@link MolangBundle}. Classes are defined from the bundle the first time they are requested.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class BundleExpressions extends ClassLoader implements PrecompiledExpressions {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final MolangBundle bundle;
+    private final Map<String, Integer> classes;
+    private final AtomicReferenceArray<Constructor<?>> constructors;
+    private final AtomicInteger loaded;
+
+    public BundleExpressions(Path path, ClassLoader parent) throws IOException {
+        super(parent);
+        this.bundle = MolangBundle.open(path);
+        this.classes = new HashMap<>();
+        for (int i = 0; i < this.bundle.getClassCount(); i++) {
+            this.classes.put(this.bundle.getClassName(i), i);
+        }
+        this.constructors = new AtomicReferenceArray<>(this.bundle.getClassCount());
+        this.loaded = new AtomicInteger();
+    }
+
+    private Constructor<?> getConstructor(int index) throws ReflectiveOperationException {
+        Constructor<?> constructor = this.constructors.get(index);
+        if (constructor == null) {
+            // loadClass makes sure each class is only defined once
+            constructor = this.loadClass(this.bundle.getClassName(index)).getConstructor(int.class, String.class);
+            this.constructors.set(index, constructor);
+        }
+        return constructor;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Integer index = this.classes.get(name);
+        if (index == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        byte[] data = this.bundle.getClassData(index);
+        this.loaded.incrementAndGet();
+        return this.defineClass(name, data, 0, data.length);
+    }
+
+    @Override
+    public int find(String normalized) {
+        return this.bundle.find(normalized);
+    }
+
+    @Override
+    public MolangExpression load(int entry) throws ReflectiveOperationException {
+        int classIndex = this.bundle.getClassIndex(entry);
+        if (classIndex == -1) {
+            return MolangExpression.of(Float.intBitsToFloat(this.bundle.getValue(entry)));
+        }
+        return (MolangExpression) this.getConstructor(classIndex).newInstance(this.bundle.getValue(entry), this.bundle.getSource(entry));
+    }
+
+    @Override
+    public int size() {
+        return this.bundle.getEntryCount();
+    }
+
+    @Override
+    public int getLoadedClassCount() {
+        return this.loaded.get();
+    }
+
+    @Override
+    public int getFlags() {
+        return this.bundle.getFlags();
+    }
+}
@@ -0,0 +1,301 @@
+package gg.moonflower.molangcompiler.impl.bundle;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * <p>Compiles expressions at build time into ordinary class files and a registry that can be loaded with {@link MolangCompiler#precompiled(int, ClassLoader)}.</p>
+ * <p>This can be run as a standalone program:</p>
+ * <pre>
+ * MolangAotCompiler --package &lt;name&gt; [--flags &lt;flags&gt;] [--keys &lt;key,key...&gt;] &lt;output directory&gt; &lt;sources...&gt;
+ * </pre>
+ * <p>Each source is either a file or a directory that is searched for files. <code>.molang</code> files contain a single expression.
+ * In <code>.json</code> files, only string values inside one of the {@link #EXPRESSION_KEYS} are compiled, so Bedrock resource pack files can be used directly.
+ * <code>--keys</code> replaces those keys for other file formats.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class MolangAotCompiler {
+
+    /**
+     * The JSON keys that hold expressions in Bedrock animations, animation controllers, render controllers, and client entities.
+     * Values nested anywhere inside one of these keys are expressions, such as the keyframes of a bone rotation.
+     */
+    public static final Set<String> EXPRESSION_KEYS = Set.of(
+            "anim_time_update", "blend_weight", "loop_delay", "start_delay",
+            "position", "rotation", "scale",
+            "transitions", "on_entry", "on_exit",
+            "initialize", "pre_animation", "part_visibility");
+
+    private MolangAotCompiler() {
+    }
+
+    public static void main(String[] args) {
+        String packageName = null;
+        int flags = MolangCompiler.DEFAULT_FLAGS;
+        Set<String> keys = EXPRESSION_KEYS;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--package" -> packageName = i + 1 < args.length ? args[++i] : null;
+                case "--flags" -> flags = i + 1 < args.length ? Integer.decode(args[++i]) : flags;
+                case "--keys" -> keys = i + 1 < args.length ? Set.of(args[++i].split(",")) : keys;
+                default -> paths.add(args[i]);
+            }
+        }
+        if (packageName == null || paths.size() < 2) {
+            System.err.println("Usage: MolangAotCompiler --package <name> [--flags <flags>] [--keys <key,key...>] <output directory> <sources...>");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            Set<String> inputs = new LinkedHashSet<>();
+            int skipped = 0;
+            for (String source : paths.subList(1, paths.size())) {
+                skipped += readSources(Path.of(source), keys, inputs);
+            }
+
+            int classCount = compile(inputs, Path.of(paths.get(0)), packageName, flags);
+            System.out.println("Compiled " + inputs.size() + " expressions into " + classCount + " classes" + (skipped > 0 ? ", skipped " + skipped + " JSON strings that are not expressions" : ""));
+        } catch (IOException | MolangSyntaxException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compiles all inputs and writes their classes and registry to the specified directory.
+     *
+     * @param inputs      The expressions to compile
+     * @param output      The directory to write classes and the registry to. This is usually added to the resources of a jar
+     * @param packageName The package to generate classes in. This must be unique for each set of compiled expressions on the classpath
+     * @param flags       The compiler flags to use. Generated classes are never hidden and never use closures
+     * @return The number of classes written
+     * @throws IOException           If any file could not be written
+     * @throws MolangSyntaxException If any input fails to compile
+     */
+    public static int compile(Collection<String> inputs, Path output, String packageName, int flags) throws IOException, MolangSyntaxException {
+        // Inputs are stored normalized so lookups ignore insignificant whitespace
+        Set<String> keys = new LinkedHashSet<>();
+        for (String input : inputs) {
+            keys.add(MolangLexer.normalize(input));
+        }
+
+        List<String> sources = new ArrayList<>(keys);
+        List<Node> nodes = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            nodes.add(MolangParser.parseTokens(MolangLexer.createTokens(source)));
+        }
+
+        int compilerFlags = flags & ~(MolangCompiler.HIDDEN_CLASSES_FLAG | MolangCompiler.CLOSURE_FLAG);
+        String packagePrefix = packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+        String[] classNames = new String[nodes.size()];
+        int[] values = new int[nodes.size()];
+        List<String> classes = new ArrayList<>();
+        BytecodeCompiler compiler = new BytecodeCompiler(compilerFlags) {
+            @Override
+            protected String createClassName(String prefix) {
+                // Class names must be the same every build so they can be found from the registry
+                return packagePrefix + prefix + classes.size();
+            }
+        };
+        compiler.generateAll(nodes, new BytecodeCompiler.BatchConsumer() {
+            @Override
+            public void acceptConstant(int index, float value) {
+                classNames[index] = "";
+                values[index] = Float.floatToRawIntBits(value);
+            }
+
+            @Override
+            public void acceptClass(String name, byte[] data, List<Integer> indices) throws MolangSyntaxException {
+                for (int i = 0; i < indices.size(); i++) {
+                    classNames[indices.get(i)] = name.replace('/', '.');
+                    values[indices.get(i)] = i;
+                }
+                classes.add(name);
+
+                try {
+                    Path path = output.resolve(name + ".class");
+                    Files.createDirectories(path.getParent());
+                    Files.write(path, data);
+                } catch (IOException e) {
+                    throw new MolangSyntaxException("Failed to write class " + name, e);
+                }
+            }
+        });
+
+        Path registry = output.resolve(RegistryExpressions.PATH);
+        Files.createDirectories(registry.getParent());
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(registry)))) {
+            stream.writeInt(RegistryExpressions.MAGIC);
+            stream.writeInt(RegistryExpressions.FORMAT_VERSION);
+            stream.writeInt(MolangBundle.COMPILER_VERSION);
+            stream.writeInt(compilerFlags);
+            stream.writeInt(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                writeString(stream, sources.get(i));
+                writeString(stream, classNames[i]);
+                stream.writeInt(values[i]);
+                writeString(stream, classNames[i].isEmpty() ? "" : nodes.get(i).toString());
+            }
+        }
+        return classes.size();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static int readSources(Path path, Set<String> keys, Set<String> inputs) throws IOException {
+        if (Files.isDirectory(path)) {
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(path)) {
+                files = stream.filter(Files::isRegularFile).sorted().toList();
+            }
+
+            int skipped = 0;
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".molang") || name.endsWith(".json")) {
+                    skipped += readSources(file, keys, inputs);
+                }
+            }
+            return skipped;
+        }
+
+        String data = Files.readString(path);
+        if (!path.getFileName().toString().endsWith(".json")) {
+            inputs.add(data.strip());
+            return 0;
+        }
+
+        int skipped = 0;
+        for (String value : readJsonStrings(data, keys)) {
+            try {
+                MolangParser.parseTokens(MolangLexer.createTokens(value));
+                inputs.add(value);
+            } catch (MolangSyntaxException e) {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Finds the string values inside the specified keys in JSON data. Object keys themselves are never returned.
+     *
+     * @param json The JSON data
+     * @param keys The keys to read values inside of
+     * @return The string values in the order they appear
+     * @throws IOException If a string is not terminated
+     */
+    static List<String> readJsonStrings(String json, Set<String> keys) throws IOException {
+        List<String> values = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+        Deque<JsonScope> scopes = new ArrayDeque<>();
+        int i = 0;
+        while (i < json.length()) {
+            char start = json.charAt(i++);
+            if (start == '{' || start == '[') {
+                JsonScope parent = scopes.peek();
+                scopes.push(new JsonScope(start == '{', parent != null && parent.isExpression(keys)));
+                continue;
+            }
+            if (start == '}' || start == ']') {
+                scopes.poll();
+                continue;
+            }
+            if (start != '"') {
+                continue;
+            }
+
+            builder.setLength(0);
+            while (true) {
+                if (i >= json.length()) {
+                    throw new IOException("Unterminated JSON string");
+                }
+                char c = json.charAt(i++);
+                if (c == '"') {
+                    break;
+                }
+                if (c != '\\' || i >= json.length()) {
+                    builder.append(c);
+                    continue;
+                }
+
+                char escape = json.charAt(i++);
+                switch (escape) {
+                    case 'b' -> builder.append('\b');
+                    case 'f' -> builder.append('\f');
+                    case 'n' -> builder.append('\n');
+                    case 'r' -> builder.append('\r');
+                    case 't' -> builder.append('\t');
+                    case 'u' -> {
+                        if (i + 4 > json.length()) {
+                            throw new IOException("Invalid JSON escape");
+                        }
+                        builder.append((char) Integer.parseInt(json, i, i + 4, 16));
+                        i += 4;
+                    }
+                    default -> builder.append(escape);
+                }
+            }
+
+            int next = i;
+            while (next < json.length() && Character.isWhitespace(json.charAt(next))) {
+                next++;
+            }
+            JsonScope scope = scopes.peek();
+            if (next < json.length() && json.charAt(next) == ':') {
+                if (scope != null) {
+                    scope.key = builder.toString();
+                }
+            } else if (scope != null && scope.isExpression(keys)) {
+                values.add(builder.toString());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * An object or array while reading JSON.
+     */
+    private static final class JsonScope {
+
+        private final boolean object;
+        private final boolean expression;
+        private @Nullable String key;
+
+        private JsonScope(boolean object, boolean expression) {
+            this.object = object;
+            this.expression = expression;
+        }
+
+        /**
+         * @param keys The keys that hold expressions
+         * @return Whether the next value in this scope is inside one of the keys
+         */
+        private boolean isExpression(Set<String> keys) {
+            return this.expression || this.object && this.key != null && keys.contains(this.key);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package gg.moonflower.molangcompiler.impl.bundle;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Read-only view of a precompiled expression bundle written by {@link MolangBundleWriter}.</p>
+ * <p>The file is memory-mapped and nothing is read up front except the header.
+ * Expressions are found with a binary search over an index sorted by the hash of the normalized input,
+ * so opening a bundle costs the same no matter how many expressions it contains.</p>
+ *
+ * <p>Layout, all values are big-endian:</p>
+ * <pre>
+ * header:      int magic, int format version, int compiler version, int flags, int entry count, int class count, int index offset, int class table offset
+ * index:       entry count * (long hash, int input string, int source string, int class index or -1 for constants, int method index or float bits)
+ * class table: class count * (int name string, int data offset, int data length)
+ * data:        strings (int length, UTF-8 bytes) and class files
+ * </pre>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class MolangBundle {
+
+    public static final int MAGIC = 0x4D4C4E42; // MLNB
+    public static final int FORMAT_VERSION = 1;
+    /**
+     * The version of the generated bytecode. This must be incremented whenever generated classes start to depend on
+     * anything that older versions of the library don't have, so that stale bundles are compiled from source instead.
+     */
+    public static final int COMPILER_VERSION = 5;
+    /**
+     * The flags that change what compiled expressions return. The other flags only change how expressions are defined.
+     */
+    public static final int RESULT_FLAGS = MolangCompiler.OPTIMIZE_FLAG | MolangCompiler.FAST_MATH_FLAG;
+
+    static final int HEADER_SIZE = 32;
+    static final int INDEX_ENTRY_SIZE = 24;
+    static final int CLASS_ENTRY_SIZE = 12;
+
+    private final ByteBuffer buffer;
+    private final int flags;
+    private final int entryCount;
+    private final int classCount;
+    private final int indexOffset;
+    private final int classTableOffset;
+
+    private MolangBundle(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a Molang bundle");
+        }
+        int formatVersion = buffer.getInt(4);
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported Molang bundle format: " + formatVersion);
+        }
+
+        this.buffer = buffer;
+        this.flags = buffer.getInt(12);
+        // Bundles from other compiler versions are treated as empty so every expression is compiled from source
+        this.entryCount = buffer.getInt(8) == COMPILER_VERSION ? buffer.getInt(16) : 0;
+        this.classCount = buffer.getInt(20);
+        this.indexOffset = buffer.getInt(24);
+        this.classTableOffset = buffer.getInt(28);
+    }
+
+    /**
+     * Maps the specified bundle file into memory.
+     *
+     * @param path The file to open
+     * @return The opened bundle
+     * @throws IOException If the file could not be mapped or is not a valid bundle
+     */
+    public static MolangBundle open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Molang bundle is too large: " + size + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            return new MolangBundle(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Checks whether expressions compiled ahead of time can be used in place of ones compiled with the specified flags.
+     *
+     * @param precompiledFlags The flags the expressions were compiled ahead of time with
+     * @param flags            The flags of the compiler that would otherwise compile them
+     * @return Whether both sets of flags give the same results
+     */
+    public static boolean isCompatible(int precompiledFlags, int flags) {
+        return (precompiledFlags & RESULT_FLAGS) == (flags & RESULT_FLAGS);
+    }
+
+    /**
+     * Hashes a normalized input the same way it is stored in the index.
+     *
+     * @param input The normalized input
+     * @return The 64-bit FNV-1a hash of the input mixed with {@link #COMPILER_VERSION}
+     */
+    public static long hash(String input) {
+        long hash = 0xCBF29CE484222325L ^ COMPILER_VERSION;
+        for (int i = 0; i < input.length(); i++) {
+            hash ^= input.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finds the entry for the specified input.
+     *
+     * @param input The normalized input to find
+     * @return The index of the entry or <code>-1</code> if the bundle doesn't contain the input
+     */
+    public int find(String input) {
+        long hash = hash(input);
+        int low = 0;
+        int high = this.entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = this.getHash(middle);
+            if (value < hash) {
+                low = middle + 1;
+            } else if (value > hash) {
+                high = middle - 1;
+            } else {
+                // Walk back to the first entry with the same hash, then check every collision
+                int entry = middle;
+                while (entry > 0 && this.getHash(entry - 1) == hash) {
+                    entry--;
+                }
+                for (; entry < this.entryCount && this.getHash(entry) == hash; entry++) {
+                    if (input.equals(this.getString(this.buffer.getInt(this.indexOffset + entry * INDEX_ENTRY_SIZE + 8)))) {
+                        return entry;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private long getHash(int entry) {
+        return this.buffer.getLong(this.indexOffset + entry * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * @param entry The entry to get the source of
+     * @return The source of the compiled expression, or <code>null</code> if the entry is a constant
+     */
+    public @Nullable String getSource(int entry) {
+        int offset = this.buffer.getInt(this.indexOffset + entry * INDEX_ENTRY_SIZE + 12);
+        return offset < 0 ? null : this.getString(offset);
+    }
+
+    /**
+     * @param entry The entry to get the class of
+     * @return The index of the class the entry was compiled into, or <code>-1</code> if the entry is a constant
+     */
+    public int getClassIndex(int entry) {
+        return this.buffer.getInt(this.indexOffset + entry * INDEX_ENTRY_SIZE + 16);
+    }
+
+    /**
+     * @param entry The entry to get the value of
+     * @return The index of the expression in its class, or the raw bits of the constant value
+     */
+    public int getValue(int entry) {
+        return this.buffer.getInt(this.indexOffset + entry * INDEX_ENTRY_SIZE + 20);
+    }
+
+    /**
+     * @param index The index of the class
+     * @return The binary name of the class
+     */
+    public String getClassName(int index) {
+        return this.getString(this.buffer.getInt(this.classTableOffset + index * CLASS_ENTRY_SIZE)).replace('/', '.');
+    }
+
+    /**
+     * @param index The index of the class
+     * @return A copy of the class file data
+     */
+    public byte[] getClassData(int index) {
+        int offset = this.classTableOffset + index * CLASS_ENTRY_SIZE;
+        byte[] data = new byte[this.buffer.getInt(offset + 8)];
+        this.buffer.get(this.buffer.getInt(offset + 4), data);
+        return data;
+    }
+
+    private String getString(int offset) {
+        byte[] data = new byte[this.buffer.getInt(offset)];
+        this.buffer.get(offset + 4, data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The flags the expressions were compiled with
+     */
+    public int getFlags() {
+        return this.flags;
+    }
+
+    /**
+     * @return The number of expressions that can be loaded from this bundle
+     */
+    public int getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * @return The number of classes in this bundle
+     */
+    public int getClassCount() {
+        return this.classCount;
+    }
+}
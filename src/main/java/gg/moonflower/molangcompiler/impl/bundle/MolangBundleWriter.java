@@ -0,0 +1,123 @@
+package gg.moonflower.molangcompiler.impl.bundle;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import gg.moonflower.molangcompiler.impl.compiler.BytecodeCompiler;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compiles expressions and writes them into a bundle that can be loaded by {@link MolangBundle} without lexing, parsing, or generating any bytecode.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class MolangBundleWriter {
+
+    private MolangBundleWriter() {
+    }
+
+    /**
+     * Compiles all inputs and writes them to the specified file.
+     *
+     * @param inputs The expressions to compile
+     * @param path   The file to write the bundle to
+     * @param flags  The compiler flags to use. Classes in a bundle are never hidden and never use closures
+     * @throws IOException           If the file could not be written
+     * @throws MolangSyntaxException If any input fails to compile
+     */
+    public static void write(Collection<String> inputs, Path path, int flags) throws IOException, MolangSyntaxException {
+        // Inputs are stored normalized so lookups ignore insignificant whitespace
+        Set<String> keys = new LinkedHashSet<>();
+        for (String input : inputs) {
+            keys.add(MolangLexer.normalize(input));
+        }
+
+        List<String> sources = new ArrayList<>(keys);
+        List<Node> nodes = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            nodes.add(MolangParser.parseTokens(MolangLexer.createTokens(source)));
+        }
+
+        int compilerFlags = flags & ~(MolangCompiler.HIDDEN_CLASSES_FLAG | MolangCompiler.CLOSURE_FLAG);
+        Entry[] entries = new Entry[nodes.size()];
+        List<String> classNames = new ArrayList<>();
+        List<byte[]> classData = new ArrayList<>();
+        new BytecodeCompiler(compilerFlags).generateAll(nodes, new BytecodeCompiler.BatchConsumer() {
+            @Override
+            public void acceptConstant(int index, float value) {
+                entries[index] = new Entry(sources.get(index), null, -1, Float.floatToRawIntBits(value));
+            }
+
+            @Override
+            public void acceptClass(String name, byte[] data, List<Integer> indices) {
+                for (int i = 0; i < indices.size(); i++) {
+                    int index = indices.get(i);
+                    entries[index] = new Entry(sources.get(index), nodes.get(index).toString(), classNames.size(), i);
+                }
+                classNames.add(name);
+                classData.add(data);
+            }
+        });
+        Arrays.sort(entries, Comparator.comparingLong(Entry::hash));
+
+        int indexOffset = MolangBundle.HEADER_SIZE;
+        int classTableOffset = indexOffset + entries.length * MolangBundle.INDEX_ENTRY_SIZE;
+        int dataOffset = classTableOffset + classNames.size() * MolangBundle.CLASS_ENTRY_SIZE;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(data);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            output.writeInt(MolangBundle.MAGIC);
+            output.writeInt(MolangBundle.FORMAT_VERSION);
+            output.writeInt(MolangBundle.COMPILER_VERSION);
+            output.writeInt(compilerFlags);
+            output.writeInt(entries.length);
+            output.writeInt(classNames.size());
+            output.writeInt(indexOffset);
+            output.writeInt(classTableOffset);
+
+            for (Entry entry : entries) {
+                output.writeLong(entry.hash());
+                output.writeInt(dataOffset + writeString(dataOutput, entry.input()));
+                output.writeInt(entry.source() != null ? dataOffset + writeString(dataOutput, entry.source()) : -1);
+                output.writeInt(entry.classIndex());
+                output.writeInt(entry.value());
+            }
+
+            for (int i = 0; i < classNames.size(); i++) {
+                byte[] bytes = classData.get(i);
+                output.writeInt(dataOffset + writeString(dataOutput, classNames.get(i)));
+                output.writeInt(dataOffset + dataOutput.size());
+                output.writeInt(bytes.length);
+                dataOutput.write(bytes);
+            }
+
+            data.writeTo(output);
+        }
+    }
+
+    private static int writeString(DataOutputStream output, String value) throws IOException {
+        int offset = output.size();
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        return offset;
+    }
+
+    private record Entry(long hash, String input, @Nullable String source, int classIndex, int value) {
+
+        private Entry(String input, @Nullable String source, int classIndex, int value) {
+            this(MolangBundle.hash(input), input, source, classIndex, value);
+        }
+    }
+}
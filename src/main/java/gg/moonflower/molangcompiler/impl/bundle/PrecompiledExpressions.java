@@ -0,0 +1,75 @@
+package gg.moonflower.molangcompiler.impl.bundle;
+
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * A source of expressions that were compiled ahead of time.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public interface PrecompiledExpressions {
+
+    /**
+     * Has no expressions, so every input is compiled from source.
+     */
+    PrecompiledExpressions EMPTY = new PrecompiledExpressions() {
+        @Override
+        public int find(String normalized) {
+            return -1;
+        }
+
+        @Override
+        public MolangExpression load(int entry) {
+            throw new IndexOutOfBoundsException(entry);
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public int getLoadedClassCount() {
+            return 0;
+        }
+
+        @Override
+        public int getFlags() {
+            return 0;
+        }
+    };
+
+    /**
+     * Finds the entry for the specified input.
+     *
+     * @param normalized The {@linkplain gg.moonflower.molangcompiler.impl.compiler.MolangLexer#normalize(String) normalized} input
+     * @return The index of the entry or <code>-1</code> if the input was not compiled ahead of time
+     */
+    int find(String normalized);
+
+    /**
+     * Creates a new expression for the specified entry, loading its class if necessary.
+     *
+     * @param entry The index of the entry
+     * @return A new expression instance
+     * @throws ReflectiveOperationException If the class for the entry could not be loaded
+     */
+    MolangExpression load(int entry) throws ReflectiveOperationException;
+
+    /**
+     * @return The number of entries
+     */
+    int size();
+
+    /**
+     * @return The number of classes that have been loaded for entries so far
+     */
+    int getLoadedClassCount();
+
+    /**
+     * @return The compiler flags the expressions were compiled with
+     */
+    int getFlags();
+}
@@ -0,0 +1,154 @@
+package gg.moonflower.molangcompiler.impl.bundle;
+
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Loads expressions compiled ahead of time by {@link MolangAotCompiler} from ordinary classes on the classpath.</p>
+ * <p>Every registry resource visible to the class loader is read when created, so several jars can each ship their own expressions.
+ * If the same input is in more than one registry, the first one found is used.</p>
+ *
+ * <p>Registry layout, all values are big-endian:</p>
+ * <pre>
+ * header:  int magic, int format version, int compiler version, int flags, int entry count
+ * entries: entry count * (string input, string class name or empty for constants, int method index or float bits, string source)
+ * strings: int length, UTF-8 bytes
+ * </pre>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class RegistryExpressions implements PrecompiledExpressions {
+
+    public static final String PATH = "META-INF/molang/registry.bin";
+    public static final int MAGIC = 0x4D4C4E52; // MLNR
+    public static final int FORMAT_VERSION = 1;
+
+    private final ClassLoader classLoader;
+    private final int flags;
+    private final Map<String, Integer> entries;
+    private final List<String> classNames;
+    private final List<String> sources;
+    private final int[] values;
+    private final Map<String, Constructor<?>> constructors;
+
+    private RegistryExpressions(ClassLoader classLoader, int flags, Map<String, Integer> entries, List<String> classNames, List<String> sources, int[] values) {
+        this.classLoader = classLoader;
+        this.flags = flags;
+        this.entries = entries;
+        this.classNames = classNames;
+        this.sources = sources;
+        this.values = values;
+        this.constructors = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Reads every registry visible to the specified class loader that was compiled with {@linkplain MolangBundle#isCompatible(int, int) compatible} flags.
+     *
+     * @param classLoader The class loader to find registries and expression classes with
+     * @param flags       The flags of the compiler the expressions are used in place of
+     * @return The loaded registries
+     * @throws IOException If any registry could not be read or is not a valid registry
+     */
+    public static RegistryExpressions load(ClassLoader classLoader, int flags) throws IOException {
+        Map<String, Integer> entries = new HashMap<>();
+        List<String> classNames = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+
+        Enumeration<URL> resources = classLoader.getResources(PATH);
+        while (resources.hasMoreElements()) {
+            URL url = resources.nextElement();
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(url.openStream()))) {
+                if (input.readInt() != MAGIC) {
+                    throw new IOException("Not a Molang registry: " + url);
+                }
+                int formatVersion = input.readInt();
+                if (formatVersion != FORMAT_VERSION) {
+                    throw new IOException("Unsupported Molang registry format " + formatVersion + ": " + url);
+                }
+                // Registries from other compiler versions are skipped so every expression is compiled from source
+                if (input.readInt() != MolangBundle.COMPILER_VERSION) {
+                    continue;
+                }
+                // Registries compiled with other flags could give different results, so they are skipped as well
+                if (!MolangBundle.isCompatible(input.readInt(), flags)) {
+                    continue;
+                }
+
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    String key = readString(input);
+                    String className = readString(input);
+                    int value = input.readInt();
+                    String source = readString(input);
+                    if (entries.putIfAbsent(key, classNames.size()) == null) {
+                        classNames.add(className);
+                        sources.add(source);
+                        values.add(value);
+                    }
+                }
+            }
+        }
+
+        int[] valueArray = new int[values.size()];
+        for (int i = 0; i < valueArray.length; i++) {
+            valueArray[i] = values.get(i);
+        }
+        return new RegistryExpressions(classLoader, flags, entries, classNames, sources, valueArray);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Constructor<?> getConstructor(String className) throws ReflectiveOperationException {
+        Constructor<?> constructor = this.constructors.get(className);
+        if (constructor == null) {
+            constructor = Class.forName(className, true, this.classLoader).getConstructor(int.class, String.class);
+            this.constructors.put(className, constructor);
+        }
+        return constructor;
+    }
+
+    @Override
+    public int find(String normalized) {
+        Integer entry = this.entries.get(normalized);
+        return entry != null ? entry : -1;
+    }
+
+    @Override
+    public MolangExpression load(int entry) throws ReflectiveOperationException {
+        String className = this.classNames.get(entry);
+        if (className.isEmpty()) {
+            return MolangExpression.of(Float.intBitsToFloat(this.values[entry]));
+        }
+        return (MolangExpression) this.getConstructor(className).newInstance(this.values[entry], this.sources.get(entry));
+    }
+
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
+    @Override
+    public int getLoadedClassCount() {
+        return this.constructors.size();
+    }
+
+    @Override
+    public int getFlags() {
+        return this.flags;
+    }
+}
@@ -0,0 +1,470 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.impl.ast.*;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Rewrites expressions into cheaper equivalent forms before they are compiled.</p>
+ * <p>Constant subtrees are folded, and identities like <code>x * 1</code>, <code>x / 1</code>, <code>x + 0</code>, and <code>x - 0</code> are removed.
+ * <code>math.pow(x, 2)</code> and <code>math.pow(x, 3)</code> become multiplications, and division by a power of two becomes multiplication by its exact reciprocal.
+ * Constant factors of a product are gathered together when they are all powers of two at least one, since that never changes the result.
+ * The only observable difference is that <code>x + 0</code> keeps the sign of a negative zero.</p>
+ * <p>With fast math, division by any constant becomes multiplication by its reciprocal, all constant terms and factors are gathered together,
+ * and polynomials in a single value are evaluated with Horner's rule. These can change the result by a few units in the last place.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class AlgebraicSimplifier {
+
+    private static final int MAX_POLYNOMIAL_DEGREE = 8;
+
+    private final MolangBytecodeEnvironment environment;
+    private final boolean fastMath;
+
+    private AlgebraicSimplifier(MolangBytecodeEnvironment environment, boolean fastMath) {
+        this.environment = environment;
+        this.fastMath = fastMath;
+    }
+
+    /**
+     * Simplifies the specified expression.
+     *
+     * @param node        The root node of the expression
+     * @param environment The environment to evaluate constants in
+     * @param fastMath    Whether to allow rewrites that may slightly change the result
+     * @return The simplified expression or the same node if nothing could be simplified
+     * @throws MolangException If a constant could not be evaluated
+     */
+    public static Node simplify(Node node, MolangBytecodeEnvironment environment, boolean fastMath) throws MolangException {
+        return new AlgebraicSimplifier(environment, fastMath).simplify(node);
+    }
+
+    private Node simplify(Node node) throws MolangException {
+        return this.simplify(node, null);
+    }
+
+    private Node simplify(Node node, @Nullable BinaryOperation parentChain) throws MolangException {
+        if (node instanceof BinaryOperationNode operation) {
+            BinaryOperation chain = getChain(operation);
+            Node left = this.simplify(operation.left(), chain);
+            Node right = this.simplify(operation.right(), chain);
+            Node result = this.simplifyOperation(left == operation.left() && right == operation.right() ? operation : new BinaryOperationNode(operation.operator(), left, right));
+            // Chains are only rewritten once all of their operands are known
+            if (!(result instanceof BinaryOperationNode resultOperation) || getChain(resultOperation) == null || getChain(resultOperation) == parentChain) {
+                return result;
+            }
+            if (resultOperation.operator() == BinaryOperation.MULTIPLY) {
+                return this.reassociateProduct(resultOperation);
+            }
+            result = this.fastMath ? this.reassociateSum(resultOperation) : result;
+            return this.fastMath && result instanceof BinaryOperationNode sum && isSum(sum) ? this.horner(sum) : result;
+        }
+        if (node instanceof MathNode math) {
+            Node[] arguments = this.simplifyAll(math.arguments());
+            return this.simplifyMath(arguments == math.arguments() ? math : new MathNode(math.function(), arguments));
+        }
+        if (node instanceof NegateNode negate) {
+            Node value = this.simplify(negate.value());
+            NegateNode result = value == negate.value() ? negate : new NegateNode(value);
+            return value instanceof ConstNode ? this.fold(result) : result;
+        }
+        if (node instanceof CompoundNode compound) {
+            Node[] nodes = this.simplifyAll(compound.nodes());
+            return nodes == compound.nodes() ? compound : new CompoundNode(nodes);
+        }
+        if (node instanceof ScopeNode scope) {
+            Node value = this.simplify(scope.node());
+            return value == scope.node() ? scope : new ScopeNode(value);
+        }
+        if (node instanceof ReturnNode returnNode) {
+            Node value = this.simplify(returnNode.value());
+            return value == returnNode.value() ? returnNode : new ReturnNode(value);
+        }
+        if (node instanceof VariableSetNode set) {
+            Node value = this.simplify(set.value());
+            return value == set.value() ? set : new VariableSetNode(set.object(), set.name(), value, set.returnValue());
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            Node value = this.simplify(ternary.value());
+            Node left = this.simplify(ternary.left());
+            Node right = this.simplify(ternary.right());
+            return value == ternary.value() && left == ternary.left() && right == ternary.right() ? ternary : new TernaryOperationNode(value, left, right);
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            Node value = this.simplify(conditional.value());
+            Node branch = this.simplify(conditional.branch());
+            return value == conditional.value() && branch == conditional.branch() ? conditional : new BinaryConditionalNode(value, branch);
+        }
+        if (node instanceof LoopNode loop) {
+            Node iterations = this.simplify(loop.iterations());
+            Node body = this.simplify(loop.body());
+            return iterations == loop.iterations() && body == loop.body() ? loop : new LoopNode(iterations, body);
+        }
+        if (node instanceof FunctionNode function) {
+            Node[] arguments = this.simplifyAll(function.arguments());
+            FunctionNode result = arguments == function.arguments() ? function : function.withArguments(arguments);
+            return result.isConstant() ? this.fold(result) : result;
+        }
+        return node;
+    }
+
+    private Node[] simplifyAll(Node[] nodes) throws MolangException {
+        Node[] result = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = this.simplify(nodes[i]);
+            if (node != nodes[i]) {
+                if (result == nodes) {
+                    result = nodes.clone();
+                }
+                result[i] = node;
+            }
+        }
+        return result;
+    }
+
+    private Node simplifyOperation(BinaryOperationNode operation) throws MolangException {
+        Node left = operation.left();
+        Node right = operation.right();
+        if (left instanceof ConstNode && (right instanceof ConstNode || operation.operator() == BinaryOperation.NULL_COALESCING)) {
+            return this.fold(operation);
+        }
+
+        switch (operation.operator()) {
+            case ADD -> {
+                if (isConstant(right, 0.0F)) {
+                    return left;
+                }
+                if (isConstant(left, 0.0F)) {
+                    return right;
+                }
+            }
+            case SUBTRACT -> {
+                // x - 0 is exact, even for negative zero
+                if (isConstant(right, 0.0F)) {
+                    return left;
+                }
+            }
+            case MULTIPLY -> {
+                if (isConstant(right, 1.0F)) {
+                    return left;
+                }
+                if (isConstant(left, 1.0F)) {
+                    return right;
+                }
+            }
+            case DIVIDE -> {
+                if (right instanceof ConstNode constNode) {
+                    float value = constNode.value();
+                    if (value == 1.0F) {
+                        return left;
+                    }
+                    if (this.fastMath ? Float.isFinite(value) && value != 0.0F : isExactReciprocal(value)) {
+                        return new BinaryOperationNode(BinaryOperation.MULTIPLY, left, new ConstNode(1.0F / value));
+                    }
+                }
+            }
+        }
+        return operation;
+    }
+
+    private Node simplifyMath(MathNode math) throws MolangException {
+        if (!math.function().isDeterministic()) {
+            return math;
+        }
+
+        boolean constant = true;
+        for (Node argument : math.arguments()) {
+            if (!(argument instanceof ConstNode)) {
+                constant = false;
+                break;
+            }
+        }
+        if (constant) {
+            return this.fold(math);
+        }
+
+        if (math.function() == MathOperation.POW && math.arguments()[1] instanceof ConstNode exponent) {
+            Node base = math.arguments()[0];
+            float value = exponent.value();
+            if (value == 0.0F) {
+                return new ConstNode(1.0F);
+            }
+            if (value == 1.0F) {
+                return base;
+            }
+            // The base is evaluated more than once, so it must not have any side effects
+            if ((value == 2.0F || value == 3.0F) && isPure(base)) {
+                Node result = new BinaryOperationNode(BinaryOperation.MULTIPLY, base, base);
+                return value == 2.0F ? result : new BinaryOperationNode(BinaryOperation.MULTIPLY, result, base);
+            }
+        }
+        return math;
+    }
+
+    private Node fold(Node node) throws MolangException {
+        return new ConstNode(node.evaluate(this.environment));
+    }
+
+    /**
+     * Rewrites a sum of terms in a single value into Horner's form. For example <code>a*x*x + b*x + c</code> becomes <code>(a*x + b)*x + c</code>.
+     *
+     * @param node The sum to rewrite
+     * @return The rewritten sum or the same node if it is not a polynomial
+     */
+    private Node horner(Node node) {
+        List<Node> terms = new ArrayList<>();
+        List<Boolean> negated = new ArrayList<>();
+        collectTerms(node, false, terms, negated);
+        if (terms.size() < 2) {
+            return node;
+        }
+
+        float[] coefficients = new float[MAX_POLYNOMIAL_DEGREE + 1];
+        Node[] variable = new Node[1];
+        int degree = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            Monomial monomial = monomial(terms.get(i), variable);
+            if (monomial == null) {
+                return node;
+            }
+            coefficients[monomial.degree()] += negated.get(i) ? -monomial.coefficient() : monomial.coefficient();
+            degree = Math.max(degree, monomial.degree());
+        }
+        if (degree < 2) {
+            return node;
+        }
+
+        Node result = new ConstNode(coefficients[degree]);
+        for (int i = degree - 1; i >= 0; i--) {
+            result = isConstant(result, 1.0F) ? variable[0] : new BinaryOperationNode(BinaryOperation.MULTIPLY, result, variable[0]);
+            if (coefficients[i] != 0.0F) {
+                result = new BinaryOperationNode(BinaryOperation.ADD, result, new ConstNode(coefficients[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gathers the constant terms of a sum, so <code>2 + x + 3</code> becomes <code>x + 5</code>.
+     * This changes how intermediate results are rounded, so it is only done with fast math.
+     *
+     * @param operation The root of the sum
+     * @return The rewritten sum or the same node if there was nothing to gather
+     */
+    private Node reassociateSum(BinaryOperationNode operation) {
+        List<Node> terms = new ArrayList<>();
+        List<Boolean> negated = new ArrayList<>();
+        collectTerms(operation, false, terms, negated);
+
+        float constant = 0.0F;
+        int constants = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            if (terms.get(i) instanceof ConstNode constNode) {
+                constant += negated.get(i) ? -constNode.value() : constNode.value();
+                constants++;
+            }
+        }
+        if (constants < 2) {
+            return operation;
+        }
+
+        // Variables are still evaluated in their original order in case they have side effects
+        Node result = null;
+        for (int i = 0; i < terms.size(); i++) {
+            Node term = terms.get(i);
+            if (term instanceof ConstNode) {
+                continue;
+            }
+            if (result != null) {
+                result = new BinaryOperationNode(negated.get(i) ? BinaryOperation.SUBTRACT : BinaryOperation.ADD, result, term);
+            } else if (negated.get(i)) {
+                result = new BinaryOperationNode(BinaryOperation.SUBTRACT, new ConstNode(constant), term);
+                constant = 0.0F;
+            } else {
+                result = term;
+            }
+        }
+        if (result == null) {
+            return new ConstNode(constant);
+        }
+        if (constant == 0.0F) {
+            return result;
+        }
+        return constant < 0.0F ? new BinaryOperationNode(BinaryOperation.SUBTRACT, result, new ConstNode(-constant)) : new BinaryOperationNode(BinaryOperation.ADD, result, new ConstNode(constant));
+    }
+
+    /**
+     * Gathers the constant factors of a product, so <code>2 * x * 3</code> becomes <code>x * 6</code>.
+     * Without fast math, this is only done when every constant is a power of two at least one and there is at most one other factor.
+     * Scaling a single value by those is exact, but moving them past another factor can change where a product overflows.
+     *
+     * @param operation The root of the product
+     * @return The rewritten product or the same node if there was nothing to gather
+     */
+    private Node reassociateProduct(BinaryOperationNode operation) {
+        List<Node> factors = new ArrayList<>();
+        collectFactors(operation, factors);
+
+        float constant = 1.0F;
+        int constants = 0;
+        for (Node factor : factors) {
+            if (factor instanceof ConstNode constNode) {
+                if (!this.fastMath && !isExactScale(constNode.value())) {
+                    return operation;
+                }
+                constant *= constNode.value();
+                constants++;
+            }
+        }
+        if (constants < 2 || !this.fastMath && (factors.size() - constants > 1 || !isExactScale(constant))) {
+            return operation;
+        }
+
+        Node result = null;
+        for (Node factor : factors) {
+            if (!(factor instanceof ConstNode)) {
+                result = result != null ? new BinaryOperationNode(BinaryOperation.MULTIPLY, result, factor) : factor;
+            }
+        }
+        if (result == null) {
+            return new ConstNode(constant);
+        }
+        return constant == 1.0F ? result : new BinaryOperationNode(BinaryOperation.MULTIPLY, result, new ConstNode(constant));
+    }
+
+    private static @Nullable BinaryOperation getChain(BinaryOperationNode operation) {
+        if (isSum(operation)) {
+            return BinaryOperation.ADD;
+        }
+        return operation.operator() == BinaryOperation.MULTIPLY ? BinaryOperation.MULTIPLY : null;
+    }
+
+    private static boolean isSum(BinaryOperationNode operation) {
+        return operation.operator() == BinaryOperation.ADD || operation.operator() == BinaryOperation.SUBTRACT;
+    }
+
+    private static void collectTerms(Node node, boolean negate, List<Node> terms, List<Boolean> negated) {
+        if (node instanceof BinaryOperationNode operation && isSum(operation)) {
+            collectTerms(operation.left(), negate, terms, negated);
+            collectTerms(operation.right(), operation.operator() == BinaryOperation.SUBTRACT != negate, terms, negated);
+            return;
+        }
+        terms.add(node);
+        negated.add(negate);
+    }
+
+    private static void collectFactors(Node node, List<Node> factors) {
+        if (node instanceof BinaryOperationNode operation && operation.operator() == BinaryOperation.MULTIPLY) {
+            collectFactors(operation.left(), factors);
+            collectFactors(operation.right(), factors);
+            return;
+        }
+        factors.add(node);
+    }
+
+    /**
+     * Parses a product of constants and a single value.
+     *
+     * @param node     The term to parse
+     * @param variable The value the polynomial is in. This is set by the first term that isn't constant
+     * @return The parsed term or <code>null</code> if it is not a product of constants and the value
+     */
+    private static @Nullable Monomial monomial(Node node, Node[] variable) {
+        if (node instanceof ConstNode constNode) {
+            return new Monomial(constNode.value(), 0);
+        }
+        if (node instanceof BinaryOperationNode operation && operation.operator() == BinaryOperation.MULTIPLY) {
+            Monomial left = monomial(operation.left(), variable);
+            Monomial right = left != null ? monomial(operation.right(), variable) : null;
+            if (right == null || left.degree() + right.degree() > MAX_POLYNOMIAL_DEGREE) {
+                return null;
+            }
+            return new Monomial(left.coefficient() * right.coefficient(), left.degree() + right.degree());
+        }
+        if (node instanceof MathNode math && math.function() == MathOperation.POW && math.arguments()[1] instanceof ConstNode exponent) {
+            float value = exponent.value();
+            if (value >= 0 && value <= MAX_POLYNOMIAL_DEGREE && value == (int) value && isVariable(math.arguments()[0], variable)) {
+                return new Monomial(1.0F, (int) value);
+            }
+            return null;
+        }
+        return isVariable(node, variable) ? new Monomial(1.0F, 1) : null;
+    }
+
+    private static boolean isVariable(Node node, Node[] variable) {
+        if (variable[0] == null) {
+            if (!isPure(node)) {
+                return false;
+            }
+            variable[0] = node;
+            return true;
+        }
+        return variable[0] == node || variable[0].toString().equals(node.toString());
+    }
+
+    private static boolean isConstant(Node node, float value) {
+        return node instanceof ConstNode constNode && constNode.value() == value;
+    }
+
+    private static boolean isExactReciprocal(float value) {
+        // Powers of two have an exact reciprocal as long as it isn't subnormal
+        int exponent = Math.getExponent(value);
+        return exponent > Float.MIN_EXPONENT && exponent < Float.MAX_EXPONENT && Math.abs(value) == Math.scalb(1.0F, exponent);
+    }
+
+    private static boolean isExactScale(float value) {
+        // Scaling up by a power of two never rounds, and once a product overflows it stays infinite
+        return Math.abs(value) >= 1.0F && isExactReciprocal(value);
+    }
+
+    /**
+     * Checks whether the specified node always evaluates to the same value without side effects as long as no variables are changed.
+     *
+     * @param node The node to check
+     * @return Whether the node can be evaluated any number of times
+     */
+    public static boolean isPure(Node node) {
+        if (node instanceof ConstNode || node instanceof VariableGetNode) {
+            return true;
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            return operation.operator() != BinaryOperation.NULL_COALESCING && isPure(operation.left()) && isPure(operation.right());
+        }
+        if (node instanceof NegateNode negate) {
+            return isPure(negate.value());
+        }
+        if (node instanceof MathNode math) {
+            if (!math.function().isDeterministic()) {
+                return false;
+            }
+            for (Node argument : math.arguments()) {
+                if (!isPure(argument)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node instanceof FunctionNode function) {
+            if (function.linked() == null || function.linked().getPurity() != MolangJavaFunction.Purity.PURE) {
+                return false;
+            }
+            for (Node argument : function.arguments()) {
+                if (!isPure(argument)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private record Monomial(float coefficient, int degree) {
+    }
+}
@@ -2,18 +2,29 @@ package gg.moonflower.molangcompiler.impl.compiler;
 
 import gg.moonflower.molangcompiler.api.MolangCompiler;
 import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
 import gg.moonflower.molangcompiler.impl.ast.Node;
 import org.jetbrains.annotations.ApiStatus;
+import org.objectweb.asm.ClassTooLargeException;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.regex.Pattern;
@@ -22,7 +33,7 @@ import java.util.regex.Pattern;
  * @author Buddy, Ocelot
  */
 @ApiStatus.Internal
-public class BytecodeCompiler extends ClassLoader {
+public class BytecodeCompiler extends ClassLoader implements NodeCompiler {
 
     public static final int FLAG_OPTIMIZE = 1;
 
@@ -30,34 +41,58 @@ public class BytecodeCompiler extends ClassLoader {
     public static final int RUNTIME_INDEX = 1;
     public static final int VARIABLE_START = 2;
 
+    /**
+     * The maximum number of expressions to pack into a single class in {@link #buildAll(List)}.
+     */
+    public static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * The private static field that holds the handles of the linked functions a class calls directly.
+     */
+    public static final String FUNCTIONS_FIELD = "functions";
+
     private static final Pattern DASH = Pattern.compile("-");
+    private static final String HIDDEN_PACKAGE = BytecodeCompiler.class.getPackageName().replace('.', '/') + "/";
+
+    static {
+        // Expressions are compiled from many threads at once, so don't lock the whole loader while defining classes
+        ClassLoader.registerAsParallelCapable();
+    }
 
     private final ThreadLocal<MolangBytecodeEnvironment> environment;
     private final boolean writeClasses;
+    private final boolean hiddenClasses;
+    private final boolean fastMath;
 
     public BytecodeCompiler(int flags, ClassLoader parent) {
         super(parent);
         this.environment = ThreadLocal.withInitial(() -> new MolangBytecodeEnvironment(flags));
         this.writeClasses = (flags & MolangCompiler.WRITE_CLASSES_FLAG) > 0;
+        this.hiddenClasses = (flags & MolangCompiler.HIDDEN_CLASSES_FLAG) > 0;
+        this.fastMath = (flags & MolangCompiler.FAST_MATH_FLAG) > 0;
     }
 
     public BytecodeCompiler(int flags) {
         this(flags, getSystemClassLoader());
     }
 
+    @Override
+    public boolean canInline(Node node) {
+        return this.environment.get().optimize() && node.isConstant();
+    }
+
+    @Override
     public MolangExpression build(Node node) throws MolangSyntaxException {
         MolangBytecodeEnvironment environment = this.environment.get();
         environment.reset();
+        environment.functions().clear();
         try {
             if (environment.optimize() && node.isConstant()) {
                 return MolangExpression.of(node.evaluate(environment));
             }
+            Node root = this.prepare(environment, node);
 
-            ClassNode classNode = new ClassNode(Opcodes.ASM5);
-            classNode.version = Opcodes.V1_8;
-            classNode.superName = "java/lang/Object";
-            classNode.name = "Expression_" + DASH.matcher(UUID.randomUUID().toString()).replaceAll("");
-            classNode.access = Opcodes.ACC_PUBLIC;
+            ClassNode classNode = this.createClass("Expression_", "java/lang/Object");
             classNode.interfaces.add(MolangExpression.class.getName().replaceAll("\\.", "/"));
 
             MethodNode init = new MethodNode();
@@ -74,7 +109,7 @@ public class BytecodeCompiler extends ClassLoader {
             method.name = "get";
             method.desc = "(Lgg/moonflower/molangcompiler/api/MolangEnvironment;)F";
             method.exceptions = List.of("gg/moonflower/molangcompiler/api/exception/MolangRuntimeException");
-            node.writeBytecode(method, environment, null, null);
+            root.writeBytecode(method, environment, null, null);
             classNode.methods.add(method);
 
             String compiledSource = node.toString();
@@ -122,25 +157,246 @@ public class BytecodeCompiler extends ClassLoader {
             toString.visitLdcInsn(compiledSource);
             toString.visitInsn(Opcodes.ARETURN);
             classNode.methods.add(toString);
+            addFunctions(classNode, environment.functions());
+
+            return (MolangExpression) this.define(classNode.name, this.write(classNode), environment.functions()).getConstructor().newInstance();
+        } catch (Throwable t) {
+            throw new MolangSyntaxException("Failed to convert expression '" + node + "' to bytecode", t);
+        }
+    }
 
-            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-            classNode.accept(cw);
-            byte[] data = cw.toByteArray();
+    /**
+     * Compiles all specified nodes. Instead of defining a class for every expression,
+     * up to {@link #MAX_BATCH_SIZE} expressions share a single class with one static method each.
+     *
+     * @param nodes The nodes to compile
+     * @return The compiled expressions in the same order as the nodes
+     * @throws MolangSyntaxException If any node could not be compiled
+     */
+    @Override
+    public List<MolangExpression> buildAll(List<Node> nodes) throws MolangSyntaxException {
+        MolangExpression[] expressions = new MolangExpression[nodes.size()];
+        this.generateAll(nodes, new BatchConsumer() {
+            @Override
+            public void acceptConstant(int index, float value) {
+                expressions[index] = MolangExpression.of(value);
+            }
 
-            if (this.writeClasses) {
-                Path path = Paths.get(classNode.name + ".class");
-                if (!Files.exists(path)) {
-                    Files.createFile(path);
+            @Override
+            public void acceptClass(String name, byte[] data, List<Integer> indices) throws MolangSyntaxException {
+                try {
+                    // The class was just written, so the environment still has the functions it calls
+                    Class<?> batchClass = BytecodeCompiler.this.define(name, data, BytecodeCompiler.this.environment.get().functions());
+                    Constructor<?> constructor = batchClass.getConstructor(int.class, String.class);
+                    for (int i = 0; i < indices.size(); i++) {
+                        int index = indices.get(i);
+                        expressions[index] = (MolangExpression) constructor.newInstance(i, nodes.get(index).toString());
+                    }
+                } catch (Throwable t) {
+                    throw new MolangSyntaxException("Failed to define expression batch", t);
                 }
-                Files.write(path, data);
+            }
+        });
+        return Arrays.asList(expressions);
+    }
+
+    /**
+     * Generates the same classes as {@link #buildAll(List)} without defining them.
+     * Each batch class has a public <code>(int, String)</code> constructor taking the index of the expression in the batch and its source.
+     * Classes that call linked functions directly also need {@link #FUNCTIONS_FIELD} set before they run.
+     *
+     * @param nodes    The nodes to compile
+     * @param consumer The consumer for constant values and generated classes
+     * @throws MolangSyntaxException If any node could not be compiled
+     */
+    public void generateAll(List<Node> nodes, BatchConsumer consumer) throws MolangSyntaxException {
+        MolangBytecodeEnvironment environment = this.environment.get();
+        List<Integer> batch = new ArrayList<>(Math.min(nodes.size(), MAX_BATCH_SIZE));
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (environment.optimize() && node.isConstant()) {
+                environment.reset();
+                try {
+                    consumer.acceptConstant(i, node.evaluate(environment));
+                } catch (Throwable t) {
+                    throw new MolangSyntaxException("Failed to convert expression '" + node + "' to bytecode", t);
+                }
+                continue;
+            }
+
+            batch.add(i);
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                this.generateBatch(nodes, batch, consumer);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.generateBatch(nodes, batch, consumer);
+        }
+    }
+
+    private void generateBatch(List<Node> nodes, List<Integer> indices, BatchConsumer consumer) throws MolangSyntaxException {
+        MolangBytecodeEnvironment environment = this.environment.get();
+        environment.functions().clear();
+        ClassNode classNode = this.createClass("ExpressionBatch_", "gg/moonflower/molangcompiler/impl/compiler/MolangBatchExpression");
+
+        MethodNode init = new MethodNode();
+        init.access = Opcodes.ACC_PUBLIC;
+        init.name = "<init>";
+        init.desc = "(ILjava/lang/String;)V";
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ILOAD, 1);
+        init.visitVarInsn(Opcodes.ALOAD, 2);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, classNode.superName, "<init>", "(ILjava/lang/String;)V", false);
+        init.visitInsn(Opcodes.RETURN);
+        classNode.methods.add(init);
+
+        // Each expression is a static method taking the same locals as an instance get method, so nodes can be written unchanged.
+        // The descriptor can't reference the batch class itself since hidden classes can't be resolved by name
+        String getDesc = "(L" + classNode.superName + ";Lgg/moonflower/molangcompiler/api/MolangEnvironment;)F";
+        List<String> exceptions = List.of("gg/moonflower/molangcompiler/api/exception/MolangRuntimeException");
+        for (int i = 0; i < indices.size(); i++) {
+            Node node = nodes.get(indices.get(i));
+            environment.reset();
+
+            MethodNode method = new MethodNode();
+            method.access = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC;
+            method.name = "get" + i;
+            method.desc = getDesc;
+            method.exceptions = exceptions;
+            try {
+                this.prepare(environment, node).writeBytecode(method, environment, null, null);
+            } catch (Throwable t) {
+                throw new MolangSyntaxException("Failed to convert expression '" + node + "' to bytecode", t);
+            }
+            classNode.methods.add(method);
+        }
+
+        MethodNode get = new MethodNode();
+        get.access = Opcodes.ACC_PUBLIC;
+        get.name = "get";
+        get.desc = "(Lgg/moonflower/molangcompiler/api/MolangEnvironment;)F";
+        get.exceptions = exceptions;
+
+        Label[] labels = new Label[indices.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = new Label();
+        }
+        get.visitVarInsn(Opcodes.ALOAD, 0);
+        get.visitFieldInsn(Opcodes.GETFIELD, classNode.superName, "index", "I");
+        get.visitTableSwitchInsn(0, labels.length - 1, labels[labels.length - 1], labels);
+        for (int i = 0; i < labels.length; i++) {
+            get.visitLabel(labels[i]);
+            get.visitVarInsn(Opcodes.ALOAD, 0);
+            get.visitVarInsn(Opcodes.ALOAD, 1);
+            get.visitMethodInsn(Opcodes.INVOKESTATIC, classNode.name, "get" + i, getDesc, false);
+            get.visitInsn(Opcodes.FRETURN);
+        }
+        classNode.methods.add(get);
+        addFunctions(classNode, environment.functions());
+
+        byte[] data;
+        try {
+            data = this.write(classNode);
+        } catch (ClassTooLargeException | MethodTooLargeException e) {
+            if (indices.size() == 1) {
+                throw new MolangSyntaxException("Failed to convert expression '" + nodes.get(indices.get(0)) + "' to bytecode", e);
             }
 
-            return (MolangExpression) this.defineClass(classNode.name, data, 0, data.length).getConstructor().newInstance();
+            // Too many large expressions were packed together, so split the batch
+            int half = indices.size() / 2;
+            this.generateBatch(nodes, indices.subList(0, half), consumer);
+            this.generateBatch(nodes, indices.subList(half, indices.size()), consumer);
+            return;
         } catch (Throwable t) {
-            throw new MolangSyntaxException("Failed to convert expression '" + node + "' to bytecode", t);
+            throw new MolangSyntaxException("Failed to write expression batch", t);
+        }
+        consumer.acceptClass(classNode.name, data, indices);
+    }
+
+    /**
+     * Runs all optimization passes over the specified expression and prepares the environment to write it.
+     *
+     * @param environment The environment that will be used to write the expression
+     * @param node        The root node of the expression
+     * @return The node to write
+     * @throws MolangException If any pass fails
+     */
+    private Node prepare(MolangBytecodeEnvironment environment, Node node) throws MolangException {
+        Node root = environment.optimize() ? DeadCodeEliminator.eliminate(LoopInvariantHoister.hoist(AlgebraicSimplifier.simplify(node, environment, this.fastMath), environment)) : node;
+        environment.reset(root);
+        return root;
+    }
+
+    private static void addFunctions(ClassNode classNode, List<MethodHandle> functions) {
+        if (!functions.isEmpty()) {
+            classNode.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, FUNCTIONS_FIELD, "[Ljava/lang/invoke/MethodHandle;", null, null));
         }
     }
 
+    private ClassNode createClass(String prefix, String superName) {
+        ClassNode classNode = new ClassNode(Opcodes.ASM5);
+        // Hidden classes must be defined in the same package as the lookup that defines them
+        classNode.version = this.hiddenClasses ? Opcodes.V17 : Opcodes.V1_8;
+        classNode.superName = superName;
+        classNode.name = this.createClassName(prefix);
+        classNode.access = Opcodes.ACC_PUBLIC;
+        return classNode;
+    }
+
+    /**
+     * Creates a unique internal name for a new generated class.
+     *
+     * @param prefix The prefix of the simple class name
+     * @return The internal name of the class
+     */
+    protected String createClassName(String prefix) {
+        return (this.hiddenClasses ? HIDDEN_PACKAGE : "") + prefix + DASH.matcher(UUID.randomUUID().toString()).replaceAll("");
+    }
+
+    /**
+     * Writes the specified class to bytes. If enabled, the class is also written to disk for debugging.
+     *
+     * @param classNode The class to write
+     * @return The class file data
+     * @throws IOException If the class could not be written to disk for debugging
+     */
+    private byte[] write(ClassNode classNode) throws IOException {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classNode.accept(cw);
+        byte[] data = cw.toByteArray();
+
+        if (this.writeClasses) {
+            Path path = Paths.get(classNode.name.substring(classNode.name.lastIndexOf('/') + 1) + ".class");
+            if (!Files.exists(path)) {
+                Files.createFile(path);
+            }
+            Files.write(path, data);
+        }
+
+        return data;
+    }
+
+    /**
+     * Defines the specified class. Hidden classes are not strongly referenced by any class loader,
+     * so they can be unloaded as soon as the expression is no longer reachable.
+     *
+     * @param name      The internal name of the class
+     * @param data      The class file data
+     * @param functions The handles of the linked functions the class calls directly
+     * @return The defined class
+     * @throws ReflectiveOperationException If the class could not be defined as a hidden class or the functions could not be stored
+     */
+    private Class<?> define(String name, byte[] data, List<MethodHandle> functions) throws ReflectiveOperationException {
+        Class<?> definedClass = this.hiddenClasses ? MethodHandles.lookup().defineHiddenClass(data, true).lookupClass() : this.defineClass(name.replace('/', '.'), data, 0, data.length);
+        if (!functions.isEmpty()) {
+            Field field = definedClass.getDeclaredField(FUNCTIONS_FIELD);
+            field.setAccessible(true);
+            field.set(null, functions.toArray(MethodHandle[]::new));
+        }
+        return definedClass;
+    }
+
     public static void writeFloatConst(MethodNode method, float value) {
         if (value == 0.0F) {
             method.visitInsn(Opcodes.FCONST_0);
@@ -162,14 +418,40 @@ public class BytecodeCompiler extends ClassLoader {
             case 4 -> method.visitInsn(Opcodes.ICONST_4);
             case 5 -> method.visitInsn(Opcodes.ICONST_5);
             default -> {
-                if (value < Byte.MAX_VALUE) {
-                    method.visitIntInsn(Opcodes.BIPUSH, (byte) value);
-                } else if (value < Short.MAX_VALUE) {
-                    method.visitIntInsn(Opcodes.SIPUSH, (short) value);
+                if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                    method.visitIntInsn(Opcodes.BIPUSH, value);
+                } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                    method.visitIntInsn(Opcodes.SIPUSH, value);
                 } else {
                     method.visitLdcInsn(value);
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Receives the output of {@link #generateAll(List, BatchConsumer)}.
+     *
+     * @author Ocelot
+     */
+    public interface BatchConsumer {
+
+        /**
+         * Called for nodes that were reduced to a constant value instead of being compiled.
+         *
+         * @param index The index of the node
+         * @param value The constant value of the node
+         */
+        void acceptConstant(int index, float value);
+
+        /**
+         * Called for each generated batch class.
+         *
+         * @param name    The internal name of the class
+         * @param data    The class file data
+         * @param indices The index of the node compiled by each method in the class
+         * @throws MolangSyntaxException If the class could not be used
+         */
+        void acceptClass(String name, byte[] data, List<Integer> indices) throws MolangSyntaxException;
+    }
+}
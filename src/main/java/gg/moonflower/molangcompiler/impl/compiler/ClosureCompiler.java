@@ -0,0 +1,597 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangEnvironment;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.api.object.MolangObject;
+import gg.moonflower.molangcompiler.impl.MolangUtil;
+import gg.moonflower.molangcompiler.impl.ast.*;
+import gg.moonflower.molangcompiler.impl.node.MolangFunctionNode;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles nodes into a tree of pre-bound closures instead of generating classes.
+ * Constants are folded ahead of time and temporary variables and objects are resolved to array slots,
+ * so evaluating an expression never has to look anything up by name except for variables in objects.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ClosureCompiler implements NodeCompiler {
+
+    private static final int FLOW_NONE = 0;
+    private static final int FLOW_BREAK = 1;
+    private static final int FLOW_CONTINUE = 2;
+    private static final int FLOW_RETURN = 3;
+
+    private static final float[] NO_TEMPS = new float[0];
+    private static final boolean[] NO_SET = new boolean[0];
+    private static final MolangObject[] NO_OBJECTS = new MolangObject[0];
+
+    private final int flags;
+    private final boolean optimize;
+    private final boolean fastMath;
+
+    public ClosureCompiler(int flags) {
+        this.flags = flags;
+        this.optimize = (flags & MolangCompiler.OPTIMIZE_FLAG) > 0;
+        this.fastMath = (flags & MolangCompiler.FAST_MATH_FLAG) > 0;
+    }
+
+    @Override
+    public boolean canInline(Node node) {
+        return this.optimize && node.isConstant();
+    }
+
+    @Override
+    public MolangExpression build(Node node) throws MolangSyntaxException {
+        // Only used to statically evaluate constants
+        MolangBytecodeEnvironment environment = new MolangBytecodeEnvironment(this.flags);
+        try {
+            if (this.canInline(node)) {
+                return MolangExpression.of(node.evaluate(environment));
+            }
+
+            Scope scope = new Scope(environment);
+            Closure closure = this.compile(this.optimize ? DeadCodeEliminator.eliminate(LoopInvariantHoister.hoist(AlgebraicSimplifier.simplify(node, environment, this.fastMath), environment)) : node, scope);
+            return new ClosureExpression(closure, scope.tempCount, scope.objects.size(), node.toString());
+        } catch (Throwable t) {
+            throw new MolangSyntaxException("Failed to convert expression '" + node + "' to closures", t);
+        }
+    }
+
+    private Closure compile(Node node, Scope scope) throws MolangException {
+        if (node instanceof ConstNode constNode) {
+            float value = constNode.value();
+            return frame -> value;
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            return this.compileOperation(operation, scope);
+        }
+        if (node instanceof NegateNode negate) {
+            if (this.optimize && negate.isConstant()) {
+                return this.constant(negate, scope);
+            }
+            Closure value = this.compile(negate.value(), scope);
+            return frame -> value.get(frame) == 0.0F ? 1.0F : 0.0F;
+        }
+        if (node instanceof MathNode math) {
+            return this.compileMath(math, scope);
+        }
+        if (node instanceof VariableGetNode get) {
+            return this.compileGet(get.object(), get.name(), scope);
+        }
+        if (node instanceof VariableSetNode set) {
+            return this.compileSet(set, scope);
+        }
+        if (node instanceof ThisNode) {
+            return frame -> frame.environment.getThis();
+        }
+        if (node instanceof FunctionNode function) {
+            return this.compileFunction(function, scope);
+        }
+        if (node instanceof CompoundNode compound) {
+            Closure[] closures = new Closure[compound.nodes().length];
+            for (int i = 0; i < closures.length; i++) {
+                closures[i] = this.compile(compound.nodes()[i], scope);
+            }
+            return frame -> {
+                float value = 0.0F;
+                for (Closure closure : closures) {
+                    value = closure.get(frame);
+                    if (frame.flow != FLOW_NONE) {
+                        break;
+                    }
+                }
+                return value;
+            };
+        }
+        if (node instanceof ScopeNode scopeNode) {
+            return this.compile(scopeNode.node(), scope);
+        }
+        if (node instanceof ReturnNode returnNode) {
+            Closure value = this.compile(returnNode.value(), scope);
+            boolean hasValue = returnNode.value().hasValue();
+            return frame -> {
+                float result = value.get(frame);
+                if (frame.flow == FLOW_NONE) {
+                    frame.flow = FLOW_RETURN;
+                    frame.returnValue = hasValue ? result : 0.0F;
+                }
+                return result;
+            };
+        }
+        if (node instanceof BreakNode) {
+            if (scope.loopDepth == 0) {
+                throw new MolangSyntaxException("Cannot break outside of loop");
+            }
+            return frame -> {
+                frame.flow = FLOW_BREAK;
+                return 0.0F;
+            };
+        }
+        if (node instanceof ContinueNode) {
+            if (scope.loopDepth == 0) {
+                throw new MolangSyntaxException("Cannot continue outside of loop");
+            }
+            return frame -> {
+                frame.flow = FLOW_CONTINUE;
+                return 0.0F;
+            };
+        }
+        if (node instanceof LoopNode loop) {
+            Closure iterations = this.compile(loop.iterations(), scope);
+            // Temp variables the body sets can be used after the loop once they are set
+            for (String name : LoopNode.getTempWrites(loop.body())) {
+                scope.declare(name);
+            }
+            scope.loopDepth++;
+            Closure body = this.compileBranch(loop.body(), scope);
+            scope.loopDepth--;
+            return frame -> {
+                int count = (int) iterations.get(frame);
+                for (int i = 0; i < count; i++) {
+                    body.get(frame);
+                    if (frame.flow != FLOW_NONE) {
+                        if (frame.flow == FLOW_CONTINUE) {
+                            frame.flow = FLOW_NONE;
+                            continue;
+                        }
+                        if (frame.flow == FLOW_BREAK) {
+                            frame.flow = FLOW_NONE;
+                        }
+                        break;
+                    }
+                }
+                return 0.0F;
+            };
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            if (this.optimize && conditional.value().isConstant()) {
+                if (conditional.value().evaluate(scope.environment) == 0.0F) {
+                    return frame -> 0.0F;
+                }
+                Closure branch = this.compileBranch(conditional.branch(), scope);
+                return frame -> {
+                    branch.get(frame);
+                    return 0.0F;
+                };
+            }
+
+            Closure value = this.compile(conditional.value(), scope);
+            Closure branch = this.compileBranch(conditional.branch(), scope);
+            return frame -> {
+                if (value.get(frame) != 0.0F) {
+                    branch.get(frame);
+                }
+                return 0.0F;
+            };
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            if (this.optimize && ternary.value().isConstant()) {
+                return this.compileBranch(ternary.value().evaluate(scope.environment) != 0.0F ? ternary.left() : ternary.right(), scope);
+            }
+
+            Closure value = this.compile(ternary.value(), scope);
+            Closure left = this.compileBranch(ternary.left(), scope);
+            Closure right = this.compileBranch(ternary.right(), scope);
+            return frame -> value.get(frame) != 0.0F ? left.get(frame) : right.get(frame);
+        }
+
+        throw new MolangSyntaxException("Unsupported node: " + node.getClass().getSimpleName());
+    }
+
+    /**
+     * Compiles a node that may not run. Temp variables it creates can't be used after it, the same as in compiled classes.
+     */
+    private Closure compileBranch(Node node, Scope scope) throws MolangException {
+        Map<String, Integer> temps = scope.temps;
+        Set<String> unset = scope.unset;
+        scope.temps = new HashMap<>(temps);
+        scope.unset = new HashSet<>(unset);
+        try {
+            return this.compile(node, scope);
+        } finally {
+            scope.temps = temps;
+            scope.unset = unset;
+        }
+    }
+
+    private Closure constant(Node node, Scope scope) throws MolangException {
+        float value = node.evaluate(scope.environment);
+        return frame -> value;
+    }
+
+    private Closure compileOperation(BinaryOperationNode operation, Scope scope) throws MolangException {
+        if (this.optimize && operation.isConstant()) {
+            return this.constant(operation, scope);
+        }
+
+        if (operation.operator() == BinaryOperation.NULL_COALESCING) {
+            if (!(operation.left() instanceof VariableGetNode lookup)) {
+                throw new MolangSyntaxException("Expected variable lookup, got " + operation.left());
+            }
+
+            Closure right = this.compileBranch(operation.right(), scope);
+            if ("temp".equals(lookup.object())) {
+                // Temporary variables only exist if they were set earlier in the expression
+                Integer slot = scope.temps.get(lookup.name());
+                if (slot == null) {
+                    return right;
+                }
+
+                Closure left = this.compile(lookup, scope);
+                if (!scope.unset.contains(lookup.name())) {
+                    return left;
+                }
+                int index = slot;
+                return frame -> frame.set[index] ? left.get(frame) : right.get(frame);
+            }
+
+            Closure left = this.compile(lookup, scope);
+            int objectIndex = scope.object(lookup.object());
+            String objectName = lookup.object();
+            String name = lookup.name();
+            return frame -> frame.object(objectIndex, objectName).has(name) ? left.get(frame) : right.get(frame);
+        }
+
+        Closure left = this.compile(operation.left(), scope);
+        // Avoid evaluating another closure when the right side is a constant
+        if (this.optimize && operation.right().isConstant()) {
+            float right = operation.right().evaluate(scope.environment);
+            switch (operation.operator()) {
+                case ADD -> {
+                    return frame -> left.get(frame) + right;
+                }
+                case SUBTRACT -> {
+                    return frame -> left.get(frame) - right;
+                }
+                case MULTIPLY -> {
+                    return right == -1.0F ? frame -> -left.get(frame) : frame -> left.get(frame) * right;
+                }
+                case DIVIDE -> {
+                    return frame -> left.get(frame) / right;
+                }
+                default -> {
+                }
+            }
+        }
+
+        // The right side of logical operators may not run
+        boolean conditional = operation.operator() == BinaryOperation.AND || operation.operator() == BinaryOperation.OR;
+        Closure right = conditional ? this.compileBranch(operation.right(), scope) : this.compile(operation.right(), scope);
+        return switch (operation.operator()) {
+            case ADD -> frame -> left.get(frame) + right.get(frame);
+            case SUBTRACT -> frame -> left.get(frame) - right.get(frame);
+            case MULTIPLY -> frame -> left.get(frame) * right.get(frame);
+            case DIVIDE -> frame -> left.get(frame) / right.get(frame);
+            case AND -> frame -> left.get(frame) != 0.0F && right.get(frame) != 0.0F ? 1.0F : 0.0F;
+            case OR -> frame -> left.get(frame) != 0.0F || right.get(frame) != 0.0F ? 1.0F : 0.0F;
+            case EQUALS -> frame -> left.get(frame) == right.get(frame) ? 1.0F : 0.0F;
+            case NOT_EQUALS -> frame -> left.get(frame) != right.get(frame) ? 1.0F : 0.0F;
+            case LESS_EQUALS -> frame -> left.get(frame) <= right.get(frame) ? 1.0F : 0.0F;
+            case LESS -> frame -> left.get(frame) < right.get(frame) ? 1.0F : 0.0F;
+            case GREATER_EQUALS -> frame -> left.get(frame) >= right.get(frame) ? 1.0F : 0.0F;
+            case GREATER -> frame -> left.get(frame) > right.get(frame) ? 1.0F : 0.0F;
+            case NULL_COALESCING -> throw new AssertionError();
+        };
+    }
+
+    private Closure compileMath(MathNode math, Scope scope) throws MolangException {
+        if (this.optimize && math.isConstant()) {
+            return this.constant(math, scope);
+        }
+
+        Node[] arguments = math.arguments();
+        Closure[] closures = new Closure[arguments.length];
+        for (int i = 0; i < closures.length; i++) {
+            closures[i] = this.compile(arguments[i], scope);
+        }
+
+        // Specialize the most common functions so they don't need to allocate an argument array
+        switch (math.function()) {
+            case ABS -> {
+                Closure a = closures[0];
+                return frame -> Math.abs(a.get(frame));
+            }
+            case SIN -> {
+                Closure a = closures[0];
+                return frame -> (float) Math.sin(MathNode.DEGREES_TO_RADIANS * a.get(frame));
+            }
+            case COS -> {
+                Closure a = closures[0];
+                return frame -> (float) Math.cos(MathNode.DEGREES_TO_RADIANS * a.get(frame));
+            }
+            case FLOOR -> {
+                Closure a = closures[0];
+                return frame -> (float) Math.floor(a.get(frame));
+            }
+            case CEIL -> {
+                Closure a = closures[0];
+                return frame -> (float) Math.ceil(a.get(frame));
+            }
+            case SQRT -> {
+                Closure a = closures[0];
+                return frame -> (float) Math.sqrt(a.get(frame));
+            }
+            case MIN -> {
+                Closure a = closures[0];
+                Closure b = closures[1];
+                return frame -> Math.min(a.get(frame), b.get(frame));
+            }
+            case MAX -> {
+                Closure a = closures[0];
+                Closure b = closures[1];
+                return frame -> Math.max(a.get(frame), b.get(frame));
+            }
+            case MOD -> {
+                Closure a = closures[0];
+                Closure b = closures[1];
+                return frame -> a.get(frame) % b.get(frame);
+            }
+            case POW -> {
+                Closure a = closures[0];
+                Closure b = closures[1];
+                return frame -> (float) Math.pow(a.get(frame), b.get(frame));
+            }
+            case CLAMP -> {
+                Closure a = closures[0];
+                Closure b = closures[1];
+                Closure c = closures[2];
+                return frame -> MolangUtil.clamp(a.get(frame), b.get(frame), c.get(frame));
+            }
+            case LERP -> {
+                Closure a = closures[0];
+                Closure b = closures[1];
+                Closure c = closures[2];
+                return frame -> MolangUtil.lerp(a.get(frame), b.get(frame), c.get(frame));
+            }
+            default -> {
+                MathOperation function = math.function();
+                return frame -> {
+                    float[] values = new float[closures.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = closures[i].get(frame);
+                    }
+                    return MathNode.apply(function, values);
+                };
+            }
+        }
+    }
+
+    private Closure compileGet(String object, String name, Scope scope) {
+        if ("temp".equals(object)) {
+            Integer slot = scope.temps.get(name);
+            if (slot != null) {
+                int index = slot;
+                if (!scope.unset.contains(name)) {
+                    return frame -> frame.temps[index];
+                }
+
+                // Temp variables that were never set are looked up the same way as unknown temp variables
+                int objectIndex = scope.object(object);
+                return frame -> frame.set[index] ? frame.temps[index] : frame.environment.resolve(frame.object(objectIndex, object).get(name));
+            }
+        }
+
+        int objectIndex = scope.object(object);
+        return frame -> frame.environment.resolve(frame.object(objectIndex, object).get(name));
+    }
+
+    private Closure compileSet(VariableSetNode set, Scope scope) throws MolangException {
+        Closure value = this.compile(set.value(), scope);
+        String name = set.name();
+        if ("temp".equals(set.object())) {
+            Integer slot = scope.temps.get(name);
+            int index = slot != null ? slot : scope.allocate(name);
+            if (!scope.declared.contains(index)) {
+                return frame -> {
+                    float result = value.get(frame);
+                    frame.temps[index] = result;
+                    return result;
+                };
+            }
+
+            scope.unset.remove(name);
+            return frame -> {
+                float result = value.get(frame);
+                frame.temps[index] = result;
+                frame.set[index] = true;
+                return result;
+            };
+        }
+
+        String object = set.object();
+        int objectIndex = scope.object(object);
+        return frame -> {
+            float result = value.get(frame);
+            MolangUtil.setValue(frame.object(objectIndex, object), name, result);
+            return result;
+        };
+    }
+
+    private Closure compileFunction(FunctionNode function, Scope scope) throws MolangException {
+        Node[] arguments = function.arguments();
+        Closure[] closures = new Closure[arguments.length];
+        for (int i = 0; i < closures.length; i++) {
+            closures[i] = this.compile(arguments[i], scope);
+        }
+
+        MolangFunctionNode linked = function.linked();
+        if (this.optimize && linked != null) {
+            // The function is known, so there is no need to look it up
+            return frame -> {
+                int previous = frame.environment.beginCall();
+                try {
+                    for (Closure closure : closures) {
+                        frame.environment.loadParameter(closure.get(frame));
+                    }
+                    return frame.environment.resolve(linked);
+                } finally {
+                    frame.environment.endCall(previous);
+                }
+            };
+        }
+
+        String object = function.object();
+        String name = function.function();
+        String fullKey = name + "$" + closures.length;
+        int objectIndex = scope.object(object);
+        return frame -> {
+            // Nested function calls load their parameters after these and remove them when they end
+            int previous = frame.environment.beginCall();
+            try {
+                for (Closure closure : closures) {
+                    frame.environment.loadParameter(closure.get(frame));
+                }
+                return MolangUtil.invoke(frame.environment, frame.object(objectIndex, object), name, fullKey);
+            } finally {
+                frame.environment.endCall(previous);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface Closure {
+
+        float get(Frame frame) throws MolangRuntimeException;
+    }
+
+    /**
+     * The state of a single evaluation of a closure expression.
+     */
+    private static final class Frame {
+
+        private final MolangEnvironment environment;
+        private final float[] temps;
+        private final boolean[] set;
+        private final MolangObject[] objects;
+        private int flow;
+        private float returnValue;
+
+        private Frame(MolangEnvironment environment, float[] temps, boolean[] set, MolangObject[] objects) {
+            this.environment = environment;
+            this.temps = temps;
+            this.set = set;
+            this.objects = objects;
+        }
+
+        private MolangObject object(int index, String name) throws MolangRuntimeException {
+            MolangObject object = this.objects[index];
+            if (object == null) {
+                object = MolangUtil.getObject(this.environment, name);
+                this.objects[index] = object;
+            }
+            return object;
+        }
+    }
+
+    /**
+     * Tracks the slots allocated while compiling a single expression.
+     */
+    private static final class Scope {
+
+        private final MolangBytecodeEnvironment environment;
+        private final Set<Integer> declared;
+        private final Map<String, Integer> objects;
+        /**
+         * The temp variables that can be used at the current point in the expression
+         */
+        private Map<String, Integer> temps;
+        /**
+         * The temp variables declared by a loop that may not have been set yet
+         */
+        private Set<String> unset;
+        private int tempCount;
+        private int loopDepth;
+
+        private Scope(MolangBytecodeEnvironment environment) {
+            this.environment = environment;
+            this.declared = new HashSet<>();
+            this.objects = new HashMap<>();
+            this.temps = new HashMap<>();
+            this.unset = new HashSet<>();
+        }
+
+        private int allocate(String name) {
+            int index = this.tempCount++;
+            this.temps.put(name, index);
+            return index;
+        }
+
+        private void declare(String name) {
+            if (!this.temps.containsKey(name)) {
+                this.declared.add(this.allocate(name));
+                this.unset.add(name);
+            }
+        }
+
+        private int object(String name) {
+            String key = switch (name.toLowerCase(Locale.ROOT)) {
+                case "c", "context" -> "context";
+                case "q", "query" -> "query";
+                case "v", "variable" -> "variable";
+                case "global" -> "global";
+                default -> name;
+            };
+            return this.objects.computeIfAbsent(key, unused -> this.objects.size());
+        }
+    }
+
+    private record ClosureExpression(Closure closure, int temps, int objects, String source) implements MolangExpression {
+
+        @Override
+        public float get(MolangEnvironment environment) throws MolangRuntimeException {
+            Frame frame = new Frame(environment,
+                    this.temps == 0 ? NO_TEMPS : new float[this.temps],
+                    this.temps == 0 ? NO_SET : new boolean[this.temps],
+                    this.objects == 0 ? NO_OBJECTS : new MolangObject[this.objects]);
+            float value = this.closure.get(frame);
+            return frame.flow == FLOW_RETURN ? frame.returnValue : value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof MolangExpression && this.source.equals(obj.toString());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.source.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.source;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
+import gg.moonflower.molangcompiler.impl.ast.*;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.*;
+
+/**
+ * <p>Finds pure subtrees that appear more than once in an expression, so each one can be computed once into a local.</p>
+ * <p>Every distinct structure is given an id by hashing its kind and the ids of its children,
+ * so finding repeats takes a single pass no matter how deep the expression is.
+ * Only math functions, operators, and negations whose inputs are constants, variables, or other pure subtrees are considered.
+ * Java functions are only considered if they were linked when compiling and declared pure or idempotent, since they may otherwise depend on anything.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class CommonSubexpressions {
+
+    private final Map<List<Object>, Integer> structures;
+    private final Map<Node, Integer> ids;
+    private final List<Integer> counts;
+    private final Map<Node, Integer> repeated;
+    private int generation;
+
+    public CommonSubexpressions() {
+        this.structures = new HashMap<>();
+        this.ids = new IdentityHashMap<>();
+        this.counts = new ArrayList<>();
+        this.repeated = new IdentityHashMap<>();
+    }
+
+    /**
+     * Finds all repeated subtrees in the specified expression, replacing the results of the previous expression.
+     *
+     * @param root The root node of the expression
+     */
+    public void analyze(Node root) {
+        this.clear();
+        this.visit(root);
+        for (Map.Entry<Node, Integer> entry : this.ids.entrySet()) {
+            int id = entry.getValue();
+            if (this.counts.get(id) > 1 && !entry.getKey().isConstant() && isComputation(entry.getKey())) {
+                this.repeated.put(entry.getKey(), id);
+            }
+        }
+        // Only the repeated nodes are needed while writing bytecode
+        this.structures.clear();
+        this.ids.clear();
+        this.counts.clear();
+    }
+
+    /**
+     * Forgets the results of the last analysis.
+     */
+    public void clear() {
+        this.structures.clear();
+        this.ids.clear();
+        this.counts.clear();
+        this.repeated.clear();
+        this.generation = 0;
+    }
+
+    /**
+     * @param node The node to check
+     * @return The id shared by all nodes with the same structure or <code>-1</code> if the node is not repeated
+     */
+    public int getId(Node node) {
+        if (this.repeated.isEmpty()) {
+            return -1;
+        }
+        Integer id = this.repeated.get(node);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Marks every previously computed value as out of date. This must be called whenever a variable could change.
+     */
+    public void invalidate() {
+        this.generation++;
+    }
+
+    /**
+     * @return The number of times values have been invalidated. Values computed in an older generation can't be reused
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    private static boolean isComputation(Node node) {
+        return node instanceof MathNode || node instanceof BinaryOperationNode || node instanceof NegateNode || node instanceof FunctionNode;
+    }
+
+    /**
+     * Visits all children of the specified node.
+     *
+     * @param node The node to visit
+     * @return The structure id of the node or <code>-1</code> if the node is not pure
+     */
+    private int visit(Node node) {
+        List<Object> key;
+        if (node instanceof ConstNode constNode) {
+            key = List.of("const", Float.floatToIntBits(constNode.value()));
+        } else if (node instanceof VariableGetNode get) {
+            key = List.of("get", get.object(), get.name());
+        } else if (node instanceof MathNode math) {
+            boolean pure = math.function().isDeterministic();
+            List<Object> parts = new ArrayList<>(math.arguments().length + 1);
+            parts.add(math.function());
+            for (Node argument : math.arguments()) {
+                int id = this.visit(argument);
+                pure &= id != -1;
+                parts.add(id);
+            }
+            if (!pure) {
+                return -1;
+            }
+            key = parts;
+        } else if (node instanceof FunctionNode function && function.linked() != null && function.linked().getPurity() != MolangJavaFunction.Purity.IMPURE) {
+            boolean pure = true;
+            List<Object> parts = new ArrayList<>(function.arguments().length + 1);
+            parts.add(function.linked());
+            for (Node argument : function.arguments()) {
+                int id = this.visit(argument);
+                pure &= id != -1;
+                parts.add(id);
+            }
+            if (!pure) {
+                return -1;
+            }
+            key = parts;
+        } else if (node instanceof BinaryOperationNode operation) {
+            int left = this.visit(operation.left());
+            int right = this.visit(operation.right());
+            if (left == -1 || right == -1 || operation.operator() == BinaryOperation.NULL_COALESCING) {
+                return -1;
+            }
+            key = List.of(operation.operator(), left, right);
+        } else if (node instanceof NegateNode negate) {
+            int value = this.visit(negate.value());
+            if (value == -1) {
+                return -1;
+            }
+            key = List.of("!", value);
+        } else {
+            this.visitChildren(node);
+            return -1;
+        }
+
+        Integer id = this.structures.get(key);
+        if (id == null) {
+            id = this.counts.size();
+            this.structures.put(key, id);
+            this.counts.add(0);
+        }
+        this.counts.set(id, this.counts.get(id) + 1);
+        this.ids.put(node, id);
+        return id;
+    }
+
+    private void visitChildren(Node node) {
+        if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                this.visit(child);
+            }
+        } else if (node instanceof FunctionNode function) {
+            for (Node argument : function.arguments()) {
+                this.visit(argument);
+            }
+        } else if (node instanceof ScopeNode scope) {
+            this.visit(scope.node());
+        } else if (node instanceof ReturnNode returnNode) {
+            this.visit(returnNode.value());
+        } else if (node instanceof VariableSetNode set) {
+            this.visit(set.value());
+        } else if (node instanceof TernaryOperationNode ternary) {
+            this.visit(ternary.value());
+            this.visit(ternary.left());
+            this.visit(ternary.right());
+        } else if (node instanceof BinaryConditionalNode conditional) {
+            this.visit(conditional.value());
+            this.visit(conditional.branch());
+        } else if (node instanceof LoopNode loop) {
+            this.visit(loop.iterations());
+            this.visit(loop.body());
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.impl.ast.*;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Removes statements that can never run or have no effect before an expression is compiled.</p>
+ * <p>Statements after a <code>return</code>, <code>break</code>, or <code>continue</code> are removed,
+ * and branches with constant conditions are replaced with the branch that is taken.
+ * Temp variables that are never read are not stored, as long as computing their value has no side effects.</p>
+ * <p>Scopes that are statements of another scope or the body of a branch are merged into their parent,
+ * so modified variables are only written back once by the parent.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class DeadCodeEliminator {
+
+    private final Set<String> reads;
+
+    private DeadCodeEliminator(Set<String> reads) {
+        this.reads = reads;
+    }
+
+    /**
+     * Removes all dead code from the specified expression.
+     *
+     * @param node The root node of the expression
+     * @return The new expression or the same node if nothing could be removed
+     */
+    public static Node eliminate(Node node) {
+        // Removing a store can make the variables it read unused, so repeat until nothing changes
+        while (true) {
+            Set<String> reads = new HashSet<>();
+            collectReads(node, reads);
+            Node result = new DeadCodeEliminator(reads).visit(node);
+            if (result == node) {
+                return node;
+            }
+            node = result;
+        }
+    }
+
+    private Node visit(Node node) {
+        if (node instanceof CompoundNode compound) {
+            return this.visitCompound(compound);
+        }
+        if (node instanceof ScopeNode scope) {
+            Node value = this.visit(scope.node());
+            if (value instanceof ScopeNode) {
+                return value;
+            }
+            return value == scope.node() ? scope : new ScopeNode(value);
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            Node value = this.visit(ternary.value());
+            Node left = this.visitBranch(ternary.left());
+            Node right = this.visitBranch(ternary.right());
+            if (value instanceof ConstNode constNode) {
+                Node branch = constNode.value() != 0.0F ? left : right;
+                // The value of the branch is only kept if both branches have one
+                if (branch.hasValue() == ternary.hasValue() && canInline(branch)) {
+                    return branch;
+                }
+            }
+            return value == ternary.value() && left == ternary.left() && right == ternary.right() ? ternary : new TernaryOperationNode(value, left, right);
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            Node value = this.visit(conditional.value());
+            Node branch = this.visitBranch(conditional.branch());
+            if (value instanceof ConstNode constNode && constNode.value() != 0.0F && !branch.hasValue() && canInline(branch)) {
+                return branch;
+            }
+            return value == conditional.value() && branch == conditional.branch() ? conditional : new BinaryConditionalNode(value, branch);
+        }
+        if (node instanceof LoopNode loop) {
+            Node iterations = this.visit(loop.iterations());
+            Node body = this.visit(loop.body());
+            return iterations == loop.iterations() && body == loop.body() ? loop : new LoopNode(iterations, body);
+        }
+        if (node instanceof VariableSetNode set) {
+            Node value = this.visit(set.value());
+            if (set.returnValue() && this.isDeadStore(set)) {
+                return value;
+            }
+            return value == set.value() ? set : new VariableSetNode(set.object(), set.name(), value, set.returnValue());
+        }
+        if (node instanceof ReturnNode returnNode) {
+            Node value = this.visit(returnNode.value());
+            return value == returnNode.value() ? returnNode : new ReturnNode(value);
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            Node left = this.visit(operation.left());
+            Node right = this.visit(operation.right());
+            return left == operation.left() && right == operation.right() ? operation : new BinaryOperationNode(operation.operator(), left, right);
+        }
+        if (node instanceof NegateNode negate) {
+            Node value = this.visit(negate.value());
+            return value == negate.value() ? negate : new NegateNode(value);
+        }
+        if (node instanceof MathNode math) {
+            Node[] arguments = this.visitAll(math.arguments());
+            return arguments == math.arguments() ? math : new MathNode(math.function(), arguments);
+        }
+        if (node instanceof FunctionNode function) {
+            Node[] arguments = this.visitAll(function.arguments());
+            return arguments == function.arguments() ? function : function.withArguments(arguments);
+        }
+        return node;
+    }
+
+    private Node[] visitAll(Node[] nodes) {
+        Node[] result = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = this.visit(nodes[i]);
+            if (node != nodes[i]) {
+                if (result == nodes) {
+                    result = nodes.clone();
+                }
+                result[i] = node;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Visits a node that is already compiled in its own scope, so a scope around it can be removed.
+     */
+    private Node visitBranch(Node node) {
+        Node result = this.visit(node);
+        return result instanceof ScopeNode scope ? scope.node() : result;
+    }
+
+    /**
+     * Checks whether a branch that always runs can replace its condition. Temp variables created in a branch can't be used after it,
+     * so branches that create any are kept.
+     */
+    private static boolean canInline(Node branch) {
+        return LoopNode.getTempWrites(branch).isEmpty();
+    }
+
+    private Node visitCompound(CompoundNode compound) {
+        Node[] nodes = compound.nodes();
+        List<Node> result = new ArrayList<>(nodes.length);
+        boolean changed = false;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = this.visit(nodes[i]);
+            changed |= node != nodes[i];
+
+            // The last statement may be the value of the compound, so it is always kept
+            boolean last = i == nodes.length - 1;
+            if (!last && this.isDeadStatement(node)) {
+                changed = true;
+                continue;
+            }
+
+            if (node instanceof ScopeNode scope) {
+                // A scope that always runs doesn't need to write back variables separately from its parent
+                changed = true;
+                node = scope.node();
+            }
+            if (node instanceof CompoundNode inner) {
+                changed = true;
+                result.addAll(List.of(inner.nodes()));
+            } else {
+                result.add(node);
+            }
+
+            if (!last && isTerminal(result.get(result.size() - 1))) {
+                changed = true;
+                break;
+            }
+        }
+
+        if (!changed) {
+            return compound;
+        }
+        return result.size() == 1 ? result.get(0) : new CompoundNode(result.toArray(Node[]::new));
+    }
+
+    private boolean isDeadStatement(Node node) {
+        if (node instanceof VariableSetNode set) {
+            return this.isDeadStore(set) && AlgebraicSimplifier.isPure(set.value());
+        }
+        return node instanceof BinaryConditionalNode conditional && conditional.value() instanceof ConstNode constNode && constNode.value() == 0.0F;
+    }
+
+    private boolean isDeadStore(VariableSetNode set) {
+        // Other variables may be read by the environment or other expressions after this one finishes
+        return "temp".equals(set.object()) && !this.reads.contains(set.name());
+    }
+
+    private static boolean isTerminal(Node node) {
+        return node instanceof ReturnNode || node instanceof BreakNode || node instanceof ContinueNode;
+    }
+
+    private static void collectReads(Node node, Set<String> reads) {
+        if (node instanceof VariableGetNode get) {
+            if ("temp".equals(get.object())) {
+                reads.add(get.name());
+            }
+        } else if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                collectReads(child, reads);
+            }
+        } else if (node instanceof ScopeNode scope) {
+            collectReads(scope.node(), reads);
+        } else if (node instanceof ReturnNode returnNode) {
+            collectReads(returnNode.value(), reads);
+        } else if (node instanceof VariableSetNode set) {
+            collectReads(set.value(), reads);
+        } else if (node instanceof TernaryOperationNode ternary) {
+            collectReads(ternary.value(), reads);
+            collectReads(ternary.left(), reads);
+            collectReads(ternary.right(), reads);
+        } else if (node instanceof BinaryConditionalNode conditional) {
+            collectReads(conditional.value(), reads);
+            collectReads(conditional.branch(), reads);
+        } else if (node instanceof LoopNode loop) {
+            collectReads(loop.iterations(), reads);
+            collectReads(loop.body(), reads);
+        } else if (node instanceof BinaryOperationNode operation) {
+            collectReads(operation.left(), reads);
+            collectReads(operation.right(), reads);
+        } else if (node instanceof NegateNode negate) {
+            collectReads(negate.value(), reads);
+        } else if (node instanceof MathNode math) {
+            for (Node argument : math.arguments()) {
+                collectReads(argument, reads);
+            }
+        } else if (node instanceof FunctionNode function) {
+            for (Node argument : function.arguments()) {
+                collectReads(argument, reads);
+            }
+        }
+    }
+}
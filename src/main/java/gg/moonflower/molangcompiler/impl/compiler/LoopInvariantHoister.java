@@ -0,0 +1,405 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.impl.ast.*;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>Moves values that are the same in every iteration of a loop in front of the loop, so they are only computed once.</p>
+ * <p>A value is moved if it has no side effects and reads no variables that are set anywhere in the loop body.
+ * Each one is stored into a temp variable that can't be named in MoLang, and the body reads that instead.
+ * Only values that are computed every time the body runs are moved, since values in branches may depend on the branch condition.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class LoopInvariantHoister {
+
+    private final MolangBytecodeEnvironment environment;
+    private int nextId;
+
+    private LoopInvariantHoister(MolangBytecodeEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Moves all loop invariant values in the specified expression out of their loops.
+     *
+     * @param node        The root node of the expression
+     * @param environment The environment to evaluate constants in
+     * @return The new expression or the same node if nothing could be moved
+     * @throws MolangException If a constant iteration count could not be evaluated
+     */
+    public static Node hoist(Node node, MolangBytecodeEnvironment environment) throws MolangException {
+        return new LoopInvariantHoister(environment).visit(node);
+    }
+
+    private Node visit(Node node) throws MolangException {
+        if (node instanceof LoopNode loop) {
+            // Inner loops are handled first so their values can move out of every loop they don't change in
+            Node iterations = this.visit(loop.iterations());
+            Node body = this.visit(loop.body());
+            return this.hoistLoop(iterations == loop.iterations() && body == loop.body() ? loop : new LoopNode(iterations, body));
+        }
+        if (node instanceof CompoundNode compound) {
+            Node[] nodes = this.visitAll(compound.nodes());
+            return nodes == compound.nodes() ? compound : new CompoundNode(nodes);
+        }
+        if (node instanceof ScopeNode scope) {
+            Node value = this.visit(scope.node());
+            return value == scope.node() ? scope : new ScopeNode(value);
+        }
+        if (node instanceof ReturnNode returnNode) {
+            Node value = this.visit(returnNode.value());
+            return value == returnNode.value() ? returnNode : new ReturnNode(value);
+        }
+        if (node instanceof VariableSetNode set) {
+            Node value = this.visit(set.value());
+            return value == set.value() ? set : new VariableSetNode(set.object(), set.name(), value, set.returnValue());
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            Node value = this.visit(ternary.value());
+            Node left = this.visit(ternary.left());
+            Node right = this.visit(ternary.right());
+            return value == ternary.value() && left == ternary.left() && right == ternary.right() ? ternary : new TernaryOperationNode(value, left, right);
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            Node value = this.visit(conditional.value());
+            Node branch = this.visit(conditional.branch());
+            return value == conditional.value() && branch == conditional.branch() ? conditional : new BinaryConditionalNode(value, branch);
+        }
+        if (node instanceof FunctionNode function) {
+            Node[] arguments = this.visitAll(function.arguments());
+            return arguments == function.arguments() ? function : function.withArguments(arguments);
+        }
+        // Loops can't be inside of any other nodes
+        return node;
+    }
+
+    private Node[] visitAll(Node[] nodes) throws MolangException {
+        Node[] result = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = this.visit(nodes[i]);
+            if (node != nodes[i]) {
+                if (result == nodes) {
+                    result = nodes.clone();
+                }
+                result[i] = node;
+            }
+        }
+        return result;
+    }
+
+    private Node hoistLoop(LoopNode loop) throws MolangException {
+        // Nothing should be computed for a loop that never runs. Only folded counts are known, since a constant ternary may pick a value that isn't
+        boolean constant = loop.iterations() instanceof ConstNode;
+        if (constant && (int) loop.iterations().evaluate(this.environment) <= 0) {
+            return loop;
+        }
+
+        Set<String> writes = new HashSet<>();
+        collectWrites(loop.body(), writes);
+        Map<String, Invariant> invariants = new LinkedHashMap<>();
+        Node body = this.replace(loop.body(), writes, invariants);
+        if (invariants.isEmpty()) {
+            return loop;
+        }
+
+        if (constant) {
+            Node[] nodes = new Node[invariants.size() + 1];
+            int i = 0;
+            for (Invariant invariant : invariants.values()) {
+                nodes[i++] = new VariableSetNode("temp", invariant.name(), invariant.value());
+            }
+            nodes[i] = new LoopNode(loop.iterations(), body);
+            return new CompoundNode(nodes);
+        }
+
+        // Reading a variable that doesn't exist is an error, so nothing can be computed if the loop might not run
+        Node[] nodes = new Node[invariants.size() + 2];
+        String countName = "$iterations" + this.nextId++;
+        Node count = new VariableGetNode("temp", countName);
+        Node runs = new BinaryOperationNode(BinaryOperation.GREATER_EQUALS, count, new ConstNode(1.0F));
+        nodes[0] = new VariableSetNode("temp", countName, loop.iterations());
+        int i = 1;
+        for (Invariant invariant : invariants.values()) {
+            nodes[i++] = new VariableSetNode("temp", invariant.name(), new TernaryOperationNode(runs, invariant.value(), new ConstNode(0.0F)));
+        }
+        nodes[i] = new LoopNode(count, body);
+        return new CompoundNode(nodes);
+    }
+
+    /**
+     * Replaces all invariant values that are computed every time the specified node is.
+     *
+     * @param node       The node to replace values in
+     * @param writes     All variables set in the loop
+     * @param invariants The values that were replaced, by their source
+     * @return The new node
+     */
+    private Node replace(Node node, Set<String> writes, Map<String, Invariant> invariants) {
+        if (isInvariant(node, writes)) {
+            Invariant invariant = invariants.computeIfAbsent(node.toString(), unused -> new Invariant("$invariant" + this.nextId++, node));
+            return new VariableGetNode("temp", invariant.name());
+        }
+
+        if (node instanceof CompoundNode compound) {
+            Node[] nodes = compound.nodes();
+            Node[] result = nodes;
+            boolean lifted = false;
+            for (int i = 0; i < nodes.length; i++) {
+                // Values already moved in front of an inner loop can be moved out of this one too instead of being copied
+                if (isHidden(nodes[i]) && isInvariant(((VariableSetNode) nodes[i]).value(), writes)) {
+                    VariableSetNode set = (VariableSetNode) nodes[i];
+                    if (invariants.putIfAbsent(set.value().toString(), new Invariant(set.name(), set.value())) == null) {
+                        if (result == nodes) {
+                            result = nodes.clone();
+                        }
+                        result[i] = null;
+                        lifted = true;
+                        continue;
+                    }
+                }
+
+                Node replaced = this.replace(nodes[i], writes, invariants);
+                if (replaced != nodes[i]) {
+                    if (result == nodes) {
+                        result = nodes.clone();
+                    }
+                    result[i] = replaced;
+                }
+                // Anything after this may not run
+                if (hasJump(nodes[i])) {
+                    break;
+                }
+            }
+            if (lifted) {
+                result = Arrays.stream(result).filter(Objects::nonNull).toArray(Node[]::new);
+            }
+            return result == nodes ? compound : new CompoundNode(result);
+        }
+        if (node instanceof ScopeNode scope) {
+            Node value = this.replace(scope.node(), writes, invariants);
+            return value == scope.node() ? scope : new ScopeNode(value);
+        }
+        if (node instanceof VariableSetNode set) {
+            Node value = this.replace(set.value(), writes, invariants);
+            return value == set.value() ? set : new VariableSetNode(set.object(), set.name(), value, set.returnValue());
+        }
+        if (node instanceof ReturnNode returnNode) {
+            Node value = this.replace(returnNode.value(), writes, invariants);
+            return value == returnNode.value() ? returnNode : new ReturnNode(value);
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            // Null coalescing needs to check the variable on the left itself, and reading it in front of the loop would throw
+            if (operation.operator() == BinaryOperation.NULL_COALESCING) {
+                return operation;
+            }
+            // The right side of logical operators may not run
+            Node left = this.replace(operation.left(), writes, invariants);
+            Node right = isConditional(operation.operator()) ? operation.right() : this.replace(operation.right(), writes, invariants);
+            return left == operation.left() && right == operation.right() ? operation : new BinaryOperationNode(operation.operator(), left, right);
+        }
+        if (node instanceof NegateNode negate) {
+            Node value = this.replace(negate.value(), writes, invariants);
+            return value == negate.value() ? negate : new NegateNode(value);
+        }
+        if (node instanceof MathNode math) {
+            Node[] arguments = this.replaceAll(math.arguments(), writes, invariants);
+            return arguments == math.arguments() ? math : new MathNode(math.function(), arguments);
+        }
+        if (node instanceof FunctionNode function) {
+            Node[] arguments = this.replaceAll(function.arguments(), writes, invariants);
+            return arguments == function.arguments() ? function : function.withArguments(arguments);
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            Node value = this.replace(ternary.value(), writes, invariants);
+            return value == ternary.value() ? ternary : new TernaryOperationNode(value, ternary.left(), ternary.right());
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            Node value = this.replace(conditional.value(), writes, invariants);
+            return value == conditional.value() ? conditional : new BinaryConditionalNode(value, conditional.branch());
+        }
+        if (node instanceof LoopNode loop) {
+            Node iterations = this.replace(loop.iterations(), writes, invariants);
+            return iterations == loop.iterations() ? loop : new LoopNode(iterations, loop.body());
+        }
+        return node;
+    }
+
+    private Node[] replaceAll(Node[] nodes, Set<String> writes, Map<String, Invariant> invariants) {
+        Node[] result = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = this.replace(nodes[i], writes, invariants);
+            if (node != nodes[i]) {
+                if (result == nodes) {
+                    result = nodes.clone();
+                }
+                result[i] = node;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isInvariant(Node node, Set<String> writes) {
+        if (node instanceof VariableGetNode get) {
+            // Temp variables are already stored in locals
+            return !"temp".equals(get.object()) && !writes.contains(getKey(get.object(), get.name()));
+        }
+        if (!(node instanceof MathNode || node instanceof BinaryOperationNode || node instanceof NegateNode) || node.isConstant()) {
+            return false;
+        }
+        return AlgebraicSimplifier.isPure(node) && !readsAny(node, writes);
+    }
+
+    private static boolean isHidden(Node node) {
+        return node instanceof VariableSetNode set && "temp".equals(set.object()) && set.name().startsWith("$") && !set.returnValue();
+    }
+
+    private static boolean readsAny(Node node, Set<String> writes) {
+        if (node instanceof VariableGetNode get) {
+            return writes.contains(getKey(get.object(), get.name()));
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            return readsAny(operation.left(), writes) || readsAny(operation.right(), writes);
+        }
+        if (node instanceof NegateNode negate) {
+            return readsAny(negate.value(), writes);
+        }
+        if (node instanceof MathNode math) {
+            return readsAny(math.arguments(), writes);
+        }
+        if (node instanceof FunctionNode function) {
+            return readsAny(function.arguments(), writes);
+        }
+        return false;
+    }
+
+    private static boolean readsAny(Node[] nodes, Set<String> writes) {
+        for (Node node : nodes) {
+            if (readsAny(node, writes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isConditional(BinaryOperation operator) {
+        return operator == BinaryOperation.AND || operator == BinaryOperation.OR || operator == BinaryOperation.NULL_COALESCING;
+    }
+
+    private static boolean hasJump(Node node) {
+        if (node instanceof BreakNode || node instanceof ContinueNode || node instanceof ReturnNode) {
+            return true;
+        }
+        if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                if (hasJump(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (node instanceof ScopeNode scope) {
+            return hasJump(scope.node());
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            return hasJump(conditional.branch());
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            return hasJump(ternary.left()) || hasJump(ternary.right());
+        }
+        if (node instanceof LoopNode loop) {
+            // Only a return can leave the outer loop
+            return hasReturn(loop.body());
+        }
+        return false;
+    }
+
+    private static boolean hasReturn(Node node) {
+        if (node instanceof ReturnNode) {
+            return true;
+        }
+        if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                if (hasReturn(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (node instanceof ScopeNode scope) {
+            return hasReturn(scope.node());
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            return hasReturn(conditional.branch());
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            return hasReturn(ternary.left()) || hasReturn(ternary.right());
+        }
+        if (node instanceof LoopNode loop) {
+            return hasReturn(loop.body());
+        }
+        return false;
+    }
+
+    private static void collectWrites(Node node, Set<String> writes) {
+        if (node instanceof VariableSetNode set) {
+            writes.add(getKey(set.object(), set.name()));
+            collectWrites(set.value(), writes);
+        } else if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                collectWrites(child, writes);
+            }
+        } else if (node instanceof ScopeNode scope) {
+            collectWrites(scope.node(), writes);
+        } else if (node instanceof ReturnNode returnNode) {
+            collectWrites(returnNode.value(), writes);
+        } else if (node instanceof TernaryOperationNode ternary) {
+            collectWrites(ternary.value(), writes);
+            collectWrites(ternary.left(), writes);
+            collectWrites(ternary.right(), writes);
+        } else if (node instanceof BinaryConditionalNode conditional) {
+            collectWrites(conditional.value(), writes);
+            collectWrites(conditional.branch(), writes);
+        } else if (node instanceof LoopNode loop) {
+            collectWrites(loop.iterations(), writes);
+            collectWrites(loop.body(), writes);
+        } else if (node instanceof BinaryOperationNode operation) {
+            collectWrites(operation.left(), writes);
+            collectWrites(operation.right(), writes);
+        } else if (node instanceof NegateNode negate) {
+            collectWrites(negate.value(), writes);
+        } else if (node instanceof MathNode math) {
+            for (Node argument : math.arguments()) {
+                collectWrites(argument, writes);
+            }
+        } else if (node instanceof FunctionNode function) {
+            for (Node argument : function.arguments()) {
+                collectWrites(argument, writes);
+            }
+        }
+    }
+
+    // Objects have a short and long name that refer to the same values
+    private static String getKey(String object, String name) {
+        String key = switch (object.toLowerCase(Locale.ROOT)) {
+            case "v" -> "variable";
+            case "q" -> "query";
+            case "c" -> "context";
+            default -> object.toLowerCase(Locale.ROOT);
+        };
+        return key + "." + name;
+    }
+
+    private record Invariant(String name, Node value) {
+    }
+}
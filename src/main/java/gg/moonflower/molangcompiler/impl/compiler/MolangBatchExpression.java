@@ -0,0 +1,37 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Base class for expressions compiled together by {@link BytecodeCompiler#buildAll(java.util.List)}.
+ * Each generated batch class holds the code of many expressions as static methods and selects one using {@link #index}.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public abstract class MolangBatchExpression implements MolangExpression {
+
+    protected final int index;
+    private final String source;
+
+    protected MolangBatchExpression(int index, String source) {
+        this.index = index;
+        this.source = source;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof MolangExpression && this.source.equals(obj.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+}
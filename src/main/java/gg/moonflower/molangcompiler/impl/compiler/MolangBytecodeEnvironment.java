@@ -1,29 +1,60 @@
 package gg.moonflower.molangcompiler.impl.compiler;
 
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.*;
+import gg.moonflower.molangcompiler.impl.node.MolangFunctionNode;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
+ * <p>Tracks the local variables of an expression while it is written.</p>
+ * <p>Each branch of an expression is written in a child of the environment it is in.
+ * Modified variables are written back into their objects once when the expression returns.
+ * A child only writes back the variables its parent doesn't know about when it ends,
+ * since the parent can't read those locals after a branch that may not have run.
+ * Loop bodies are treated the same way, since a loop may be left before the body sets a variable.</p>
+ *
  * @author Ocelot
  */
 @ApiStatus.Internal
 public record MolangBytecodeEnvironment(Map<String, Integer> variables,
                                         Set<String> modifiedVariables,
+                                        Map<Integer, Subexpression> subexpressions,
+                                        CommonSubexpressions commonSubexpressions,
+                                        Set<String> writtenVariables,
+                                        List<MethodHandle> functions,
+                                        @Nullable MolangBytecodeEnvironment parent,
+                                        boolean loop,
                                         boolean optimize) {
 
     public MolangBytecodeEnvironment(MolangBytecodeEnvironment environment) {
-        this(new HashMap<>(environment.variables), new LinkedHashSet<>(), environment.optimize);
+        this(environment, false);
+    }
+
+    /**
+     * Creates a child of the specified environment.
+     *
+     * @param environment The environment to copy the variables of
+     * @param loop        Whether the child is the body of a loop. Breaking out of the loop leaves every child between the break and the body
+     */
+    public MolangBytecodeEnvironment(MolangBytecodeEnvironment environment, boolean loop) {
+        this(new HashMap<>(environment.variables), new LinkedHashSet<>(), new HashMap<>(environment.subexpressions), environment.commonSubexpressions, environment.writtenVariables, environment.functions, environment, loop, environment.optimize);
     }
 
     public MolangBytecodeEnvironment(int flags) {
-        this(new HashMap<>(), new LinkedHashSet<>(), (flags & BytecodeCompiler.FLAG_OPTIMIZE) > 0);
+        this(new HashMap<>(), new LinkedHashSet<>(), new HashMap<>(), new CommonSubexpressions(), new HashSet<>(), new ArrayList<>(), null, false, (flags & BytecodeCompiler.FLAG_OPTIMIZE) > 0);
     }
 
     /**
@@ -32,6 +63,103 @@ public record MolangBytecodeEnvironment(Map<String, Integer> variables,
     public void reset() {
         this.variables.clear();
         this.modifiedVariables.clear();
+        this.subexpressions.clear();
+        this.commonSubexpressions.clear();
+        this.writtenVariables.clear();
+    }
+
+    /**
+     * Fully resets the environment and prepares to write the specified expression.
+     * If optimizing, repeated subexpressions are found so they can be computed once.
+     *
+     * @param root The root node of the expression that will be written next
+     */
+    public void reset(Node root) {
+        this.reset();
+        if (this.optimize) {
+            this.commonSubexpressions.analyze(root);
+            collectWrites(root, this.writtenVariables);
+        }
+    }
+
+    /**
+     * Adds the handle of the specified function to the class being written. The handles are only cleared by the compiler
+     * when it starts a new class, since a class can hold many expressions.
+     *
+     * @param function The linked function to call
+     * @return The index of the handle in the class
+     */
+    public int getFunctionIndex(MolangFunctionNode function) {
+        MethodHandle handle = function.getHandle();
+        for (int i = 0; i < this.functions.size(); i++) {
+            // Loops may write their body more than once, so the same function can be called from several places
+            if (this.functions.get(i) == handle) {
+                return i;
+            }
+        }
+        this.functions.add(handle);
+        return this.functions.size() - 1;
+    }
+
+    /**
+     * Adds all variables of the child environment to this one after the child has finished.
+     * This is used for unrolled loop bodies, which always run completely at least once.
+     *
+     * @param child The child environment to merge
+     */
+    public void merge(MolangBytecodeEnvironment child) {
+        this.variables.putAll(child.variables);
+        this.modifiedVariables.addAll(child.modifiedVariables);
+        child.modifiedVariables.clear();
+    }
+
+    /**
+     * Loads the value of the specified node if an identical node was already computed and nothing it depends on could have changed.
+     *
+     * @param method The method to insert code into
+     * @param node   The node to load
+     * @return Whether the value was loaded onto the stack
+     */
+    public boolean loadSubexpression(MethodNode method, Node node) {
+        int id = this.commonSubexpressions.getId(node);
+        if (id == -1) {
+            return false;
+        }
+
+        Subexpression subexpression = this.subexpressions.get(id);
+        if (subexpression == null || subexpression.generation() != this.commonSubexpressions.getGeneration()) {
+            return false;
+        }
+
+        method.visitVarInsn(Opcodes.FLOAD, subexpression.index());
+        return true;
+    }
+
+    /**
+     * Stores the value of the specified node on top of the stack if the node is repeated later in the expression.
+     * The value is left on the stack.
+     *
+     * @param method The method to insert code into
+     * @param node   The node that was just written
+     */
+    public void storeSubexpression(MethodNode method, Node node) {
+        int id = this.commonSubexpressions.getId(node);
+        if (id == -1) {
+            return;
+        }
+
+        int index = this.allocateVariable("$subexpression" + id);
+        method.visitInsn(Opcodes.DUP);
+        method.visitVarInsn(Opcodes.FSTORE, index);
+        this.subexpressions.put(id, new Subexpression(index, this.commonSubexpressions.getGeneration()));
+    }
+
+    /**
+     * Marks all computed subexpressions as out of date. This is called whenever a variable is set and before loops,
+     * since values computed before a loop may be changed by later iterations.
+     */
+    public void invalidateSubexpressions() {
+        this.commonSubexpressions.invalidate();
     }
 
     /**
@@ -46,6 +174,9 @@ public record MolangBytecodeEnvironment(Map<String, Integer> variables,
         String key = object + "." + name;
         Integer index = this.variables.get(key);
         if (index != null) {
+            if ("temp".equals(object)) {
+                this.checkTempSet(method, name, index);
+            }
             return index;
         }
 
@@ -72,12 +203,96 @@ public record MolangBytecodeEnvironment(Map<String, Integer> variables,
                 true
         );
 
+        // Remember the value that was loaded, so it doesn't need to be written back if it was set to the same value
+        if (this.writtenVariables.contains(key)) {
+            method.visitInsn(Opcodes.DUP);
+            method.visitVarInsn(Opcodes.FSTORE, this.allocateVariable(key + "$original"));
+        }
+
         // Store result
         index = this.allocateVariable(key);
         method.visitVarInsn(Opcodes.FSTORE, index);
         return index;
     }
 
+    /**
+     * Declares a temp variable that may not have been set yet, such as one set by a loop that may not run.
+     * Whether the variable was set is stored separately, so reading or checking it before it is set behaves the same as an unknown temp variable.
+     *
+     * @param method The method to insert code into
+     * @param name   The name of the temp variable
+     */
+    public void declareTemp(MethodNode method, String name) {
+        String key = "temp." + name;
+        if (this.variables.containsKey(key)) {
+            return;
+        }
+
+        // The value is only read after checking the variable was set, but it must have a value to pass verification
+        method.visitInsn(Opcodes.FCONST_0);
+        method.visitVarInsn(Opcodes.FSTORE, this.allocateVariable(key));
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, this.allocateVariable(key + "$set"));
+    }
+
+    /**
+     * Marks the specified temp variable as set. Temp variables declared with {@link #declareTemp(MethodNode, String)} remember that they were set,
+     * and are known to be set for the rest of this environment.
+     *
+     * @param method The method to insert code into
+     * @param name   The name of the temp variable
+     */
+    public void markTempSet(MethodNode method, String name) {
+        String key = "temp." + name + "$set";
+        Integer index = this.variables.get(key);
+        if (index == null || index < 0) {
+            return;
+        }
+
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitVarInsn(Opcodes.ISTORE, index);
+        // Replacing the index keeps the size of the variables the same, so no other variable can take its slot
+        this.variables.put(key, -1);
+    }
+
+    private void checkTempSet(MethodNode method, String name, int index) {
+        Integer set = this.variables.get("temp." + name + "$set");
+        if (set == null || set < 0) {
+            return;
+        }
+
+        // Temp variables that were never set are looked up in the environment the same way as unknown temp variables
+        Label label_set = new Label();
+        method.visitVarInsn(Opcodes.ILOAD, set);
+        method.visitJumpInsn(Opcodes.IFNE, label_set);
+        method.visitVarInsn(Opcodes.ALOAD, BytecodeCompiler.RUNTIME_INDEX);
+        method.visitVarInsn(Opcodes.ALOAD, BytecodeCompiler.RUNTIME_INDEX);
+        method.visitLdcInsn("temp");
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                "gg/moonflower/molangcompiler/api/MolangEnvironment",
+                "get",
+                "(Ljava/lang/String;)Lgg/moonflower/molangcompiler/api/object/MolangObject;",
+                true);
+        method.visitLdcInsn(name);
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                "gg/moonflower/molangcompiler/api/object/MolangObject",
+                "get",
+                "(Ljava/lang/String;)Lgg/moonflower/molangcompiler/api/MolangExpression;",
+                true
+        );
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                "gg/moonflower/molangcompiler/api/MolangEnvironment",
+                "resolve",
+                "(Lgg/moonflower/molangcompiler/api/MolangExpression;)F",
+                true
+        );
+        method.visitVarInsn(Opcodes.FSTORE, index);
+        method.visitLabel(label_set);
+    }
+
     /**
      * Allocates a space for a new variable, but doesn't initialize it.
      *
@@ -162,7 +377,12 @@ public record MolangBytecodeEnvironment(Map<String, Integer> variables,
      */
     public void loadObjectHas(MethodNode method, String object, String name) {
         if ("temp".equals(object)) {
-            method.visitLdcInsn(this.variables.containsKey("temp." + name));
+            Integer set = this.variables.get("temp." + name + "$set");
+            if (set != null && set >= 0) {
+                method.visitVarInsn(Opcodes.ILOAD, set);
+            } else {
+                method.visitLdcInsn(this.variables.containsKey("temp." + name));
+            }
             return;
         }
 
@@ -211,29 +431,191 @@ public record MolangBytecodeEnvironment(Map<String, Integer> variables,
      */
     public void writeModifiedVariables(MethodNode method) throws MolangSyntaxException {
         for (String name : this.modifiedVariables) {
-            Integer index = this.variables.get(name);
-            if (index == null) {
-                throw new MolangSyntaxException("Unknown variable index: " + name);
+            this.writeVariable(method, name);
+        }
+        this.modifiedVariables.clear();
+    }
+
+    /**
+     * Finishes writing a branch that is a child of another environment. Modified variables the parent already has a local for
+     * are written back by the parent instead, so they are only written once. The rest are written back immediately.
+     *
+     * @param method The method to write values back into
+     * @throws MolangSyntaxException If any error occurs with the format of the variables
+     */
+    public void mergeModifiedVariables(MethodNode method) throws MolangSyntaxException {
+        if (this.parent == null || !this.optimize) {
+            this.writeModifiedVariables(method);
+            return;
+        }
+        this.mergeInto(method, this.modifiedVariables, this.parent);
+        this.modifiedVariables.clear();
+    }
+
+    /**
+     * Writes back all variables modified by this environment and every parent. This is used when returning from the expression.
+     *
+     * @param method The method to write values back into
+     * @throws MolangSyntaxException If any error occurs with the format of the variables
+     */
+    public void writeAllModifiedVariables(MethodNode method) throws MolangSyntaxException {
+        Set<String> modified = new LinkedHashSet<>();
+        for (MolangBytecodeEnvironment environment = this; environment != null; environment = environment.parent) {
+            modified.addAll(environment.modifiedVariables);
+        }
+        for (String name : modified) {
+            this.writeVariable(method, name);
+        }
+    }
+
+    /**
+     * Writes back the variables modified between this environment and the loop it is in, including the loop body. This is used when breaking or continuing.
+     * Variables that already had a local before the loop started are written back by the environment around the loop instead.
+     *
+     * @param method The method to write values back into
+     * @throws MolangSyntaxException If any error occurs with the format of the variables
+     */
+    public void writeLoopModifiedVariables(MethodNode method) throws MolangSyntaxException {
+        Set<String> modified = new LinkedHashSet<>();
+        MolangBytecodeEnvironment loop = this.collectLoopModifiedVariables(modified);
+        if (loop == null || !this.optimize) {
+            // Not in a loop or nothing can be deferred
+            for (String name : modified) {
+                this.writeVariable(method, name);
             }
+            return;
+        }
+        this.mergeInto(method, modified, loop);
+    }
 
-            String[] parts = name.split("\\.", 2);
-            if (parts.length != 2) {
-                throw new MolangSyntaxException("Expected 2 variable parts for " + name + ", got " + parts.length);
+    /**
+     * @return Whether {@link #writeLoopModifiedVariables(MethodNode)} has to write any variables back instead of leaving them to the loop
+     */
+    public boolean hasLoopWriteBack() {
+        Set<String> modified = new LinkedHashSet<>();
+        MolangBytecodeEnvironment loop = this.collectLoopModifiedVariables(modified);
+        if (loop == null || !this.optimize) {
+            return !modified.isEmpty();
+        }
+        for (String name : modified) {
+            Integer index = loop.variables.get(name);
+            if (index == null || !index.equals(this.variables.get(name))) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            int objectIndex = this.getObjectIndex(method, parts[0]);
+    private @Nullable MolangBytecodeEnvironment collectLoopModifiedVariables(Set<String> modified) {
+        // Every environment up to and including the loop body is left
+        for (MolangBytecodeEnvironment environment = this; environment != null; environment = environment.parent) {
+            modified.addAll(environment.modifiedVariables);
+            if (environment.loop) {
+                return environment.parent;
+            }
+        }
+        return null;
+    }
 
-            method.visitVarInsn(Opcodes.ALOAD, objectIndex);
-            method.visitLdcInsn(parts[1]);
+    private void mergeInto(MethodNode method, Set<String> modified, MolangBytecodeEnvironment target) throws MolangSyntaxException {
+        for (String name : modified) {
+            // The local is only valid after the branch if it was set before the branch started
+            Integer index = target.variables.get(name);
+            if (index != null && index.equals(this.variables.get(name))) {
+                target.modifiedVariables.add(name);
+            } else {
+                this.writeVariable(method, name);
+            }
+        }
+    }
+
+    private void writeVariable(MethodNode method, String name) throws MolangSyntaxException {
+        Integer index = this.variables.get(name);
+        if (index == null) {
+            throw new MolangSyntaxException("Unknown variable index: " + name);
+        }
+
+        String[] parts = name.split("\\.", 2);
+        if (parts.length != 2) {
+            throw new MolangSyntaxException("Expected 2 variable parts for " + name + ", got " + parts.length);
+        }
+
+        Label label_skip = null;
+        Integer original = this.variables.get(name + "$original");
+        if (original != null) {
+            // Nothing needs to be written if the value is exactly the same as when it was loaded
+            label_skip = new Label();
             method.visitVarInsn(Opcodes.FLOAD, index);
-            method.visitMethodInsn(
-                    Opcodes.INVOKESTATIC,
-                    "gg/moonflower/molangcompiler/impl/MolangUtil",
-                    "setValue",
-                    "(Lgg/moonflower/molangcompiler/api/object/MolangObject;Ljava/lang/String;F)V",
-                    false
-            );
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false);
+            method.visitVarInsn(Opcodes.FLOAD, original);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false);
+            method.visitJumpInsn(Opcodes.IF_ICMPEQ, label_skip);
         }
-        this.modifiedVariables.clear();
+
+        int objectIndex = this.getObjectIndex(method, parts[0]);
+
+        method.visitVarInsn(Opcodes.ALOAD, objectIndex);
+        method.visitLdcInsn(parts[1]);
+        method.visitVarInsn(Opcodes.FLOAD, index);
+        method.visitMethodInsn(
+                Opcodes.INVOKESTATIC,
+                "gg/moonflower/molangcompiler/impl/MolangUtil",
+                "setValue",
+                "(Lgg/moonflower/molangcompiler/api/object/MolangObject;Ljava/lang/String;F)V",
+                false
+        );
+
+        if (label_skip != null) {
+            method.visitLabel(label_skip);
+        }
+    }
+
+    private static void collectWrites(Node node, Set<String> writes) {
+        if (node instanceof VariableSetNode set) {
+            if (!"temp".equals(set.object())) {
+                writes.add(set.object() + "." + set.name());
+            }
+            collectWrites(set.value(), writes);
+        } else if (node instanceof CompoundNode compound) {
+            for (Node child : compound.nodes()) {
+                collectWrites(child, writes);
+            }
+        } else if (node instanceof ScopeNode scope) {
+            collectWrites(scope.node(), writes);
+        } else if (node instanceof ReturnNode returnNode) {
+            collectWrites(returnNode.value(), writes);
+        } else if (node instanceof TernaryOperationNode ternary) {
+            collectWrites(ternary.value(), writes);
+            collectWrites(ternary.left(), writes);
+            collectWrites(ternary.right(), writes);
+        } else if (node instanceof BinaryConditionalNode conditional) {
+            collectWrites(conditional.value(), writes);
+            collectWrites(conditional.branch(), writes);
+        } else if (node instanceof LoopNode loop) {
+            collectWrites(loop.iterations(), writes);
+            collectWrites(loop.body(), writes);
+        } else if (node instanceof BinaryOperationNode operation) {
+            collectWrites(operation.left(), writes);
+            collectWrites(operation.right(), writes);
+        } else if (node instanceof NegateNode negate) {
+            collectWrites(negate.value(), writes);
+        } else if (node instanceof MathNode math) {
+            for (Node argument : math.arguments()) {
+                collectWrites(argument, writes);
+            }
+        } else if (node instanceof FunctionNode function) {
+            for (Node argument : function.arguments()) {
+                collectWrites(argument, writes);
+            }
+        }
+    }
+
+    /**
+     * A value computed into a local variable.
+     *
+     * @param index      The local variable the value is stored in
+     * @param generation The generation of {@link CommonSubexpressions} the value was computed in
+     */
+    public record Subexpression(int index, int generation) {
     }
 }
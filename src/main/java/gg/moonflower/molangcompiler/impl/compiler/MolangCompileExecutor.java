@@ -0,0 +1,105 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles expressions in the background. The number of queued tasks is bounded and submitting never blocks,
+ * so callers must be prepared to try again later if the queue is full.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class MolangCompileExecutor {
+
+    /**
+     * The maximum number of expressions that can be waiting to compile at once.
+     */
+    public static final int MAX_QUEUED = 1024;
+
+    private static final MolangCompileExecutor INSTANCE = new MolangCompileExecutor(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), MAX_QUEUED);
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+    private final int capacity;
+    private final AtomicLong order;
+
+    public MolangCompileExecutor(int threads, int capacity) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "Molang Compiler #" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.permits = new Semaphore(capacity);
+        this.capacity = capacity;
+        this.order = new AtomicLong();
+    }
+
+    /**
+     * @return The executor shared by all compilers
+     */
+    public static MolangCompileExecutor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Attempts to schedule the specified task without blocking.
+     *
+     * @param priority The priority of the task. Higher priority tasks run before any lower priority tasks that are still queued
+     * @param task     The task to run
+     * @return Whether the task was scheduled. If <code>false</code> the queue is full and the task should be submitted again later
+     */
+    public boolean trySubmit(MolangCompiler.Priority priority, Runnable task) {
+        if (!this.permits.tryAcquire()) {
+            return false;
+        }
+        this.executor.execute(new Task(priority, this.order.getAndIncrement(), task));
+        return true;
+    }
+
+    /**
+     * @return The number of tasks waiting to run or currently running
+     */
+    public int getPending() {
+        return this.capacity - this.permits.availablePermits();
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+
+        private final MolangCompiler.Priority priority;
+        private final long order;
+        private final Runnable task;
+
+        private Task(MolangCompiler.Priority priority, long order, Runnable task) {
+            this.priority = priority;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                MolangCompileExecutor.this.permits.release();
+            }
+        }
+
+        @Override
+        public int compareTo(@NotNull Task o) {
+            int compare = o.priority.compareTo(this.priority);
+            return compare != 0 ? compare : Long.compare(this.order, o.order);
+        }
+    }
+}
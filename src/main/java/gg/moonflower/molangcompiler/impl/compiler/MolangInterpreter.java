@@ -0,0 +1,241 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.MolangEnvironment;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.api.object.MolangObject;
+import gg.moonflower.molangcompiler.impl.MolangUtil;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evaluates nodes directly without generating any bytecode. This is much slower than a compiled expression,
+ * but can be used immediately while the expression is compiled in the background.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class MolangInterpreter {
+
+    private final MolangEnvironment environment;
+    /**
+     * Temp variables in the order they were created. Variables declared by a loop that haven't been set yet have no value.
+     */
+    private LinkedHashMap<String, Float> temp;
+    private Flow flow;
+    private float returnValue;
+
+    private MolangInterpreter(MolangEnvironment environment) {
+        this.environment = environment;
+        this.flow = Flow.NONE;
+    }
+
+    /**
+     * Evaluates the specified node.
+     *
+     * @param node        The root node of the expression
+     * @param environment The environment to evaluate in
+     * @return The value returned by the expression
+     * @throws MolangRuntimeException If any error occurs when evaluating the expression
+     */
+    public static float interpret(Node node, MolangEnvironment environment) throws MolangRuntimeException {
+        MolangInterpreter interpreter = new MolangInterpreter(environment);
+        float value = node.interpret(interpreter);
+        return interpreter.flow == Flow.RETURN ? interpreter.returnValue : value;
+    }
+
+    /**
+     * @return The environment the expression is being evaluated in
+     */
+    public MolangEnvironment environment() {
+        return this.environment;
+    }
+
+    /**
+     * Retrieves the object with the specified name. Aliases are resolved the same way as in compiled expressions.
+     *
+     * @param object The name of the object
+     * @return The object
+     * @throws MolangRuntimeException If the object does not exist
+     */
+    public MolangObject getObject(String object) throws MolangRuntimeException {
+        return MolangUtil.getObject(this.environment, object);
+    }
+
+    /**
+     * Retrieves the value of the specified variable.
+     *
+     * @param object The name of the object the variable is in
+     * @param name   The name of the variable
+     * @return The current value
+     * @throws MolangRuntimeException If the variable does not exist
+     */
+    public float getValue(String object, String name) throws MolangRuntimeException {
+        // Temp variables that were never set are looked up the same way as in compiled expressions
+        if ("temp".equals(object) && this.temp != null) {
+            Float value = this.temp.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return this.environment.resolve(this.getObject(object).get(name));
+    }
+
+    /**
+     * Sets the value of the specified variable. Temporary variables are only stored for this evaluation.
+     *
+     * @param object The name of the object the variable is in
+     * @param name   The name of the variable
+     * @param value  The new value
+     * @throws MolangRuntimeException If the variable could not be set
+     */
+    public void setValue(String object, String name, float value) throws MolangRuntimeException {
+        if ("temp".equals(object)) {
+            if (this.temp == null) {
+                this.temp = new LinkedHashMap<>();
+            }
+            this.temp.put(name, value);
+            return;
+        }
+        MolangUtil.setValue(this.getObject(object), name, value);
+    }
+
+    /**
+     * Checks whether the specified variable exists.
+     *
+     * @param object The name of the object the variable is in
+     * @param name   The name of the variable
+     * @return Whether the variable has a value
+     * @throws MolangRuntimeException If the object does not exist
+     */
+    public boolean hasValue(String object, String name) throws MolangRuntimeException {
+        if ("temp".equals(object)) {
+            return this.temp != null && this.temp.get(name) != null;
+        }
+        return this.getObject(object).has(name);
+    }
+
+    /**
+     * Evaluates a node that may not run, such as a branch. Temp variables created by the node can't be used after it,
+     * the same as in compiled expressions.
+     *
+     * @param node The node to evaluate
+     * @return The value of the node
+     * @throws MolangRuntimeException If any error occurs when evaluating the node
+     */
+    public float interpretBranch(Node node) throws MolangRuntimeException {
+        int scope = this.temp != null ? this.temp.size() : 0;
+        float value = node.interpret(this);
+        if (this.temp != null && this.temp.size() > scope) {
+            // Variables created in the branch were added after all variables that existed before it
+            Iterator<Float> iterator = this.temp.values().iterator();
+            for (int i = 0; i < scope; i++) {
+                iterator.next();
+            }
+            while (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Declares a temp variable set by a loop body, so it can be used after the loop once the body sets it.
+     *
+     * @param name The name of the temp variable
+     */
+    public void declareTemp(String name) {
+        if (this.temp == null) {
+            this.temp = new LinkedHashMap<>();
+        }
+        if (!this.temp.containsKey(name)) {
+            this.temp.put(name, null);
+        }
+    }
+
+    /**
+     * Loads the next parameter for a function call.
+     *
+     * @param value The value of the parameter
+     * @throws MolangRuntimeException If the parameter could not be loaded
+     */
+    public void loadParameter(float value) throws MolangRuntimeException {
+        this.environment.loadParameter(value);
+    }
+
+    /**
+     * Starts a function call. Parameters loaded until {@link #endCall(int)} belong to the call.
+     *
+     * @return The previous call to restore with {@link #endCall(int)}
+     */
+    public int beginCall() {
+        return this.environment.beginCall();
+    }
+
+    /**
+     * Finishes a function call by removing its parameters and restoring the previous call.
+     *
+     * @param previous The value returned by {@link #beginCall()}
+     */
+    public void endCall(int previous) {
+        this.environment.endCall(previous);
+    }
+
+    /**
+     * Invokes the specified function with the parameters loaded for the current call.
+     *
+     * @param object     The name of the object the function is in
+     * @param function   The name of the function
+     * @param parameters The number of parameters loaded for the function
+     * @return The value returned by the function
+     * @throws MolangRuntimeException If the function does not exist or throws an error
+     */
+    public float invoke(String object, String function, int parameters) throws MolangRuntimeException {
+        return MolangUtil.invoke(this.environment, this.getObject(object), function, function + "$" + parameters);
+    }
+
+    /**
+     * Stops execution of the current loop iteration, loop, or the entire expression.
+     *
+     * @param flow  The kind of interruption
+     * @param value The value to return if the entire expression is interrupted
+     */
+    public void interrupt(Flow flow, float value) {
+        this.flow = flow;
+        this.returnValue = value;
+    }
+
+    /**
+     * @return Whether the remaining nodes in the current block should be skipped
+     */
+    public boolean isInterrupted() {
+        return this.flow != Flow.NONE;
+    }
+
+    /**
+     * Consumes the current interruption if it matches the specified flow.
+     *
+     * @param flow The flow to consume
+     * @return Whether the current interruption was consumed
+     */
+    public boolean consume(Flow flow) {
+        if (this.flow == flow) {
+            this.flow = Flow.NONE;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ways the normal execution of nodes can be interrupted.
+     */
+    public enum Flow {
+        NONE,
+        BREAK,
+        CONTINUE,
+        RETURN
+    }
+}
@@ -3,58 +3,223 @@ package gg.moonflower.molangcompiler.impl.compiler;
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
 import org.jetbrains.annotations.ApiStatus;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 /**
+ * Splits an input string into tokens in a single pass. Each character is only looked at once,
+ * and only identifiers and numbers allocate a new string.
+ *
  * @author Ocelot
  */
 @ApiStatus.Internal
 public final class MolangLexer {
 
-    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[\n\t]");
-
     public static Token[] createTokens(String input) throws MolangSyntaxException {
-        StringReader reader = new StringReader(WHITESPACE_PATTERN.matcher(input).replaceAll(""));
-        List<Token> tokens = new ArrayList<>();
-
-        while (reader.canRead()) {
-            reader.skipWhitespace();
-            Token token = getToken(reader);
-            if (token != null) {
-                if (!tokens.isEmpty()) {
-                    Token lastToken = tokens.get(tokens.size() - 1);
-                    // Insert semicolon after scopes
-                    if (lastToken.type == TokenType.RIGHT_BRACE && token.type != TokenType.SEMICOLON) {
-                        tokens.add(new Token(TokenType.SEMICOLON, ";"));
+        int length = input.length();
+        Token[] tokens = new Token[Math.max(4, length / 2)];
+        int count = 0;
+        int cursor = 0;
+
+        while (true) {
+            while (cursor < length && Character.isWhitespace(input.charAt(cursor))) {
+                cursor++;
+            }
+            if (cursor >= length) {
+                break;
+            }
+
+            int start = cursor;
+            char c = input.charAt(cursor++);
+            TokenType type;
+            String value;
+            switch (c) {
+                case '?' -> {
+                    if (cursor < length && input.charAt(cursor) == '?') {
+                        cursor++;
+                        type = TokenType.NULL_COALESCING;
+                        value = "??";
+                    } else {
+                        type = TokenType.SPECIAL;
+                        value = "?";
+                    }
+                }
+                case '+' -> {
+                    if (cursor < length && input.charAt(cursor) == '+') {
+                        cursor++;
+                        type = TokenType.INCREMENT;
+                        value = "++";
+                    } else {
+                        type = TokenType.BINARY_OPERATION;
+                        value = "+";
+                    }
+                }
+                case '-' -> {
+                    if (cursor < length && input.charAt(cursor) == '-') {
+                        cursor++;
+                        type = TokenType.DECREMENT;
+                        value = "--";
+                    } else {
+                        type = TokenType.BINARY_OPERATION;
+                        value = "-";
+                    }
+                }
+                case '*' -> {
+                    type = TokenType.BINARY_OPERATION;
+                    value = "*";
+                }
+                case '/' -> {
+                    type = TokenType.BINARY_OPERATION;
+                    value = "/";
+                }
+                case '<' -> {
+                    type = TokenType.SPECIAL;
+                    value = "<";
+                }
+                case '>' -> {
+                    type = TokenType.SPECIAL;
+                    value = ">";
+                }
+                case '&' -> {
+                    type = TokenType.SPECIAL;
+                    value = "&";
+                }
+                case '|' -> {
+                    type = TokenType.SPECIAL;
+                    value = "|";
+                }
+                case '!' -> {
+                    type = TokenType.SPECIAL;
+                    value = "!";
+                }
+                case ':' -> {
+                    type = TokenType.SPECIAL;
+                    value = ":";
+                }
+                case '(' -> {
+                    type = TokenType.LEFT_PARENTHESIS;
+                    value = "(";
+                }
+                case ')' -> {
+                    type = TokenType.RIGHT_PARENTHESIS;
+                    value = ")";
+                }
+                case '{' -> {
+                    type = TokenType.LEFT_BRACE;
+                    value = "{";
+                }
+                case '}' -> {
+                    type = TokenType.RIGHT_BRACE;
+                    value = "}";
+                }
+                case '.' -> {
+                    type = TokenType.DOT;
+                    value = ".";
+                }
+                case ',' -> {
+                    type = TokenType.COMMA;
+                    value = ",";
+                }
+                case '=' -> {
+                    type = TokenType.EQUAL;
+                    value = "=";
+                }
+                case ';' -> {
+                    type = TokenType.SEMICOLON;
+                    value = ";";
+                }
+                default -> {
+                    if (isDigit(c)) {
+                        while (cursor < length && isDigit(input.charAt(cursor))) {
+                            cursor++;
+                        }
+                        type = TokenType.NUMERAL;
+                        value = input.substring(start, cursor);
+                    } else if (isIdentifierStart(c)) {
+                        while (cursor < length && isIdentifierPart(input.charAt(cursor))) {
+                            cursor++;
+                        }
+                        value = input.substring(start, cursor);
+                        type = getKeyword(value);
+                    } else {
+                        throw new MolangSyntaxException("Unknown Token", input, start);
                     }
                 }
-                tokens.add(token);
-                continue;
             }
 
-            throw new MolangSyntaxException("Unknown Token", reader.getString(), reader.getCursor());
+            // Two extra slots so a semicolon can always be inserted
+            if (count + 2 > tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            // Insert semicolon after scopes
+            if (count > 0 && tokens[count - 1].type == TokenType.RIGHT_BRACE && type != TokenType.SEMICOLON) {
+                tokens[count++] = new Token(TokenType.SEMICOLON, ";", start, start);
+            }
+            tokens[count++] = new Token(type, value, start, cursor);
         }
 
-        return tokens.toArray(Token[]::new);
+        return count == tokens.length ? tokens : Arrays.copyOf(tokens, count);
     }
 
-    private static Token getToken(StringReader reader) {
-        String word = reader.getString().substring(reader.getCursor());
-        for (TokenType type : TokenType.values()) {
-            Matcher matcher = type.pattern.matcher(word);
-            if (matcher.find() && matcher.start() == 0) {
-                reader.skip(matcher.end());
-                return new Token(type, word.substring(0, matcher.end()));
+    /**
+     * Normalizes the specified input so that inputs producing the same tokens are equal.
+     *
+     * @param input The input to normalize
+     * @return The input without any insignificant whitespace
+     */
+    public static String normalize(String input) {
+        StringBuilder builder = new StringBuilder(input.length());
+        boolean whitespace = false;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (Character.isWhitespace(c)) {
+                whitespace = true;
+                continue;
+            }
+            if (whitespace && !builder.isEmpty()) {
+                builder.append(' ');
             }
+            whitespace = false;
+            builder.append(c);
         }
+        return builder.toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-        return null;
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
     }
 
-    public record Token(TokenType type, String value) {
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static TokenType getKeyword(String word) {
+        return switch (word) {
+            case "return" -> TokenType.RETURN;
+            case "loop" -> TokenType.LOOP;
+            case "continue" -> TokenType.CONTINUE;
+            case "break" -> TokenType.BREAK;
+            case "if" -> TokenType.IF;
+            case "else" -> TokenType.ELSE;
+            case "this" -> TokenType.THIS;
+            case "true" -> TokenType.TRUE;
+            case "false" -> TokenType.FALSE;
+            default -> TokenType.ALPHANUMERIC;
+        };
+    }
+
+    /**
+     * A single token in the input.
+     *
+     * @param type  The type of token
+     * @param value The characters that make up the token
+     * @param start The index of the first character of the token in the input
+     * @param end   The index after the last character of the token in the input
+     */
+    public record Token(TokenType type, String value, int start, int end) {
         @Override
         public String toString() {
             return this.type + "[" + this.value + "]";
@@ -62,36 +227,30 @@ public final class MolangLexer {
     }
 
     public enum TokenType {
-        RETURN("return"),
-        LOOP("loop"),
-        CONTINUE("continue"),
-        BREAK("break"),
-        IF("if"),
-        ELSE("else"),
-        THIS("this"),
-        TRUE("true"),
-        FALSE("false"),
-        NUMERAL("\\d+"),
-        ALPHANUMERIC("[A-Za-z_][A-Za-z0-9_]*"),
-        NULL_COALESCING("\\?\\?"),
-        INCREMENT("\\+\\+"),
-        DECREMENT("\\-\\-"),
-        SPECIAL("[<>&|!?:]"),
-        BINARY_OPERATION("[-+*/]"),
-        LEFT_PARENTHESIS("\\("),
-        RIGHT_PARENTHESIS("\\)"),
-        LEFT_BRACE("\\{"),
-        RIGHT_BRACE("\\}"),
-        DOT("\\."),
-        COMMA("\\,"),
-        EQUAL("="),
-        SEMICOLON(";");
-
-        private final Pattern pattern;
-
-        TokenType(String regex) {
-            this.pattern = Pattern.compile(regex);
-        }
+        RETURN,
+        LOOP,
+        CONTINUE,
+        BREAK,
+        IF,
+        ELSE,
+        THIS,
+        TRUE,
+        FALSE,
+        NUMERAL,
+        ALPHANUMERIC,
+        NULL_COALESCING,
+        INCREMENT,
+        DECREMENT,
+        SPECIAL,
+        BINARY_OPERATION,
+        LEFT_PARENTHESIS,
+        RIGHT_PARENTHESIS,
+        LEFT_BRACE,
+        RIGHT_BRACE,
+        DOT,
+        COMMA,
+        EQUAL,
+        SEMICOLON;
 
         public boolean validVariableName() {
             return this == NUMERAL || this == ALPHANUMERIC || this == DOT;
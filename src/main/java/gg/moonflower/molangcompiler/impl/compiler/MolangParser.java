@@ -3,28 +3,44 @@ package gg.moonflower.molangcompiler.impl.compiler;
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
 import gg.moonflower.molangcompiler.impl.ast.*;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Predicate;
 
 /**
+ * <p>Parses tokens into a tree of nodes in a single pass without backtracking.</p>
+ * <p>Binary operators are parsed with precedence climbing, so each operator is visited once
+ * and long chains of operators are parsed in a loop instead of through recursion.</p>
+ *
  * @author Ocelot
  */
 @ApiStatus.Internal
 public final class MolangParser {
 
+    // Binding power of each operator. Higher values bind tighter
+    private static final int LOWEST = 0;
+    private static final int CONDITIONAL = 1;
+    private static final int OR = 2;
+    private static final int AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int ADDITIVE = 6;
+    private static final int MULTIPLICATIVE = 7;
+    private static final int NULL_COALESCING = 8;
+    private static final int UNARY = 9;
+
     public static Node parseTokens(MolangLexer.Token[] tokens) throws MolangSyntaxException {
         if (tokens.length == 0) {
             throw new MolangSyntaxException("Expected token");
         }
-        return parseTokensUntil(new TokenReader(tokens), true, token -> false);
+        return parseTokensUntil(new TokenReader(tokens), true, null);
     }
 
-    private static Node parseTokensUntil(TokenReader reader, boolean insertReturn, Predicate<MolangLexer.Token> filter) throws MolangSyntaxException {
+    private static Node parseTokensUntil(TokenReader reader, boolean insertReturn, @Nullable MolangLexer.TokenType end) throws MolangSyntaxException {
         List<Node> nodes = new ArrayList<>(2);
 
-        while (reader.canRead() && !filter.test(reader.peek())) {
+        while (reader.canRead() && reader.peek().type() != end) {
             Node node = parseExpression(reader);
             nodes.add(node);
 
@@ -34,7 +50,7 @@ public final class MolangParser {
                     reader.skip();
                     continue;
                 }
-                if (filter.test(token)) {
+                if (token.type() == end) {
                     break;
                 }
                 throw error("Trailing statement", reader);
@@ -59,7 +75,7 @@ public final class MolangParser {
         return new CompoundNode(nodes.toArray(Node[]::new));
     }
 
-    // Parses a single token statement. Eg temp.a=4 or variable.test from variable.test * 2;
+    // Parses a single operand with any prefix operators. Eg temp.a=4 or variable.test from variable.test * 2;
     private static Node parseNode(TokenReader reader) throws MolangSyntaxException {
         expectLength(reader, 1);
 
@@ -88,11 +104,11 @@ public final class MolangParser {
                 expect(reader, MolangLexer.TokenType.LEFT_PARENTHESIS);
                 reader.skip();
 
-                Node iterations = parseTokensUntil(reader, false, t -> t.type() == MolangLexer.TokenType.COMMA);
+                Node iterations = parseTokensUntil(reader, false, MolangLexer.TokenType.COMMA);
                 expect(reader, MolangLexer.TokenType.COMMA);
                 reader.skip();
 
-                Node body = parseTokensUntil(reader, false, t -> t.type() == MolangLexer.TokenType.RIGHT_PARENTHESIS);
+                Node body = parseTokensUntil(reader, false, MolangLexer.TokenType.RIGHT_PARENTHESIS);
                 expect(reader, MolangLexer.TokenType.RIGHT_PARENTHESIS);
                 reader.skip();
 
@@ -113,7 +129,7 @@ public final class MolangParser {
                 reader.skip();
 
                 // if(condition)
-                Node condition = parseExpression(reader);
+                Node condition = value(parseExpression(reader));
 
                 expect(reader, MolangLexer.TokenType.RIGHT_PARENTHESIS);
                 reader.skip();
@@ -139,52 +155,31 @@ public final class MolangParser {
                 reader.skip();
                 yield new ConstNode(0.0F);
             }
-            case NUMERAL -> {
-                try {
-                    // 3
-                    float value = Integer.parseInt(reader.peek().value());
-                    reader.skip();
-
-                    // 3.14
-                    if (reader.canRead() && reader.peek().type() == MolangLexer.TokenType.DOT) {
-                        reader.skip();
-                        expect(reader, MolangLexer.TokenType.NUMERAL);
-
-                        String decimalString = reader.peek().value();
-                        float decimal = Integer.parseInt(decimalString);
-                        reader.skip();
-
-                        if (decimal > 0) {
-                            value += (float) (decimal / Math.pow(10, decimalString.length()));
-                        }
-                    }
-
-                    yield new ConstNode(value);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw error("Error parsing numeral", reader);
-                }
-            }
+            case NUMERAL -> new ConstNode(parseNumeral(reader));
             case ALPHANUMERIC -> parseAlphanumeric(reader);
             case BINARY_OPERATION -> {
                 switch (token.value()) {
+                    // -value
                     case "-" -> {
-                        if (!reader.canRead(2) || !reader.peekAfter(1).type().canNegate()) {
-                            throw error("Cannot negate " + reader.peekAfter(1), reader);
-                        }
                         reader.skip();
-                        yield new BinaryOperationNode(BinaryOperation.MULTIPLY, new ConstNode(-1.0F), parseNode(reader));
+                        yield new BinaryOperationNode(BinaryOperation.MULTIPLY, new ConstNode(-1.0F), value(parseExpression(reader, UNARY)));
                     }
+                    // +value
                     case "+" -> {
-                        if (!reader.canRead(2) || !reader.peekAfter(1).type().canNegate()) {
-                            throw error("Cannot assign + to " + reader.peekAfter(1), reader);
-                        }
                         reader.skip();
-                        yield parseNode(reader);
+                        yield value(parseExpression(reader, UNARY));
                     }
                     default -> throw error("Expected +num or -num", reader);
                 }
             }
+            case SPECIAL -> {
+                // !value
+                if ("!".equals(token.value())) {
+                    reader.skip();
+                    yield new NegateNode(value(parseExpression(reader, UNARY)));
+                }
+                throw error("Unexpected token", reader);
+            }
             case LEFT_PARENTHESIS -> {
                 reader.skip();
                 Node node = parseExpression(reader);
@@ -194,7 +189,7 @@ public final class MolangParser {
             }
             case LEFT_BRACE -> {
                 reader.skip();
-                Node node = parseTokensUntil(reader, false, t -> t.type() == MolangLexer.TokenType.RIGHT_BRACE);
+                Node node = parseTokensUntil(reader, false, MolangLexer.TokenType.RIGHT_BRACE);
                 expect(reader, MolangLexer.TokenType.RIGHT_BRACE);
                 reader.skip();
                 yield new ScopeNode(node);
@@ -203,118 +198,130 @@ public final class MolangParser {
         };
     }
 
-    // Parses a full expression by parsing each node inside
+    // Parses a full expression until the next token that can't continue it. Eg ; ) } , or :
     public static Node parseExpression(TokenReader reader) throws MolangSyntaxException {
-        Node result = parseNode(reader);
+        return parseExpression(reader, LOWEST);
+    }
+
+    // Parses an expression containing only operators that bind at least as tight as the specified precedence
+    private static Node parseExpression(TokenReader reader, int precedence) throws MolangSyntaxException {
+        Node left = parseNode(reader);
         while (reader.canRead()) {
             MolangLexer.Token token = reader.peek();
-            if (token.type() == MolangLexer.TokenType.SEMICOLON || token.type().isOutOfScope()) {
-                return result;
-            }
-
-            if (result instanceof OptionalValueNode setNode) {
-                result = setNode.withReturnValue();
-            }
 
-            switch (token.type()) {
-                case NUMERAL, ALPHANUMERIC, LEFT_PARENTHESIS, LEFT_BRACE -> {
-                    if (result != null) {
-                        throw error("Unexpected token", reader);
-                    }
-                    result = parseNode(reader);
+            // value ? left : right or value ? left
+            if (token.type() == MolangLexer.TokenType.SPECIAL && token.value().charAt(0) == '?') {
+                if (precedence > CONDITIONAL) {
+                    return left;
                 }
-                case NULL_COALESCING -> {
+
+                reader.skip();
+                Node condition = value(left);
+                Node branch = parseExpression(reader, LOWEST);
+                if (reader.canRead() && reader.peek().type() == MolangLexer.TokenType.SPECIAL && reader.peek().value().charAt(0) == ':') {
                     reader.skip();
-                    result = new BinaryOperationNode(BinaryOperation.NULL_COALESCING, result, parseNode(reader));
+                    // Right associative, so a ? b : c ? d : e is a ? b : (c ? d : e)
+                    left = new TernaryOperationNode(condition, branch, parseExpression(reader, CONDITIONAL));
+                } else {
+                    left = new BinaryConditionalNode(condition, branch);
                 }
-                case EQUAL -> {
-                    reader.skip();
-                    expect(reader, MolangLexer.TokenType.EQUAL);
-                    reader.skip();
-                    result = new BinaryOperationNode(BinaryOperation.EQUALS, result, parseNode(reader));
+                continue;
+            }
+
+            BinaryOperation operation = peekOperation(reader, token);
+            if (operation == null) {
+                return left;
+            }
+
+            int next = getPrecedence(operation);
+            if (next < precedence) {
+                return left;
+            }
+
+            // Every operator is one token per character except ??
+            reader.skip(operation == BinaryOperation.NULL_COALESCING ? 1 : operation.getValue().length());
+            // Left associative, so a - b - c is (a - b) - c
+            left = new BinaryOperationNode(operation, value(left), value(parseExpression(reader, next + 1)));
+        }
+        return left;
+    }
+
+    // Finds the binary operator at the cursor without consuming it, or null if the token ends the expression
+    private static @Nullable BinaryOperation peekOperation(TokenReader reader, MolangLexer.Token token) throws MolangSyntaxException {
+        return switch (token.type()) {
+            case NULL_COALESCING -> BinaryOperation.NULL_COALESCING;
+            case EQUAL -> {
+                expectSecond(reader, MolangLexer.TokenType.EQUAL, "=");
+                yield BinaryOperation.EQUALS;
+            }
+            case BINARY_OPERATION -> switch (token.value().charAt(0)) {
+                case '+' -> BinaryOperation.ADD;
+                case '-' -> BinaryOperation.SUBTRACT;
+                case '*' -> BinaryOperation.MULTIPLY;
+                default -> BinaryOperation.DIVIDE;
+            };
+            case SPECIAL -> switch (token.value().charAt(0)) {
+                case '&' -> {
+                    expectSecond(reader, MolangLexer.TokenType.SPECIAL, "&");
+                    yield BinaryOperation.AND;
                 }
-                case SPECIAL -> {
-                    switch (token.value()) {
-                        // obj.name&&...
-                        case "&" -> {
-                            expect(reader, MolangLexer.TokenType.SPECIAL, "&");
-                            reader.skip(2);
-                            result = new BinaryOperationNode(BinaryOperation.AND, result, parseNode(reader));
-                        }
-                        // obj.name||...
-                        case "|" -> {
-                            expect(reader, MolangLexer.TokenType.SPECIAL, "|");
-                            reader.skip(2);
-                            result = new BinaryOperationNode(BinaryOperation.OR, result, parseNode(reader));
-                        }
-                        // obj.name??... or obj.name?b...
-                        case "?" -> {
-                            reader.skip();
-
-                            // value ? left : right
-                            Node left = parseExpression(reader);
-                            if (reader.canRead() && !reader.peek().type().isTerminating()) {
-                                expect(reader, MolangLexer.TokenType.SPECIAL, ":");
-                                reader.skip();
-                                result = new TernaryOperationNode(result, left, parseExpression(reader));
-                                break;
-                            }
-
-                            // value ? left
-                            result = new BinaryConditionalNode(result, left);
-                        }
-                        case "!" -> {
-                            reader.skip();
-
-                            if (reader.peek().type() == MolangLexer.TokenType.EQUAL) {
-                                reader.skip();
-                                result = new BinaryOperationNode(BinaryOperation.NOT_EQUALS, result, parseNode(reader));
-                                break;
-                            }
-
-                            if (result != null) {
-                                throw error("Unexpected token", reader);
-                            }
-                            result = new NegateNode(parseNode(reader));
-                        }
-                        case ">" -> {
-                            reader.skip();
-
-                            if (reader.peek().type() == MolangLexer.TokenType.EQUAL) {
-                                reader.skip();
-                                result = new BinaryOperationNode(BinaryOperation.GREATER_EQUALS, result, parseNode(reader));
-                                break;
-                            }
-
-                            result = new BinaryOperationNode(BinaryOperation.GREATER, result, parseNode(reader));
-                        }
-                        case "<" -> {
-                            reader.skip();
-
-                            if (reader.peek().type() == MolangLexer.TokenType.EQUAL) {
-                                reader.skip();
-                                result = new BinaryOperationNode(BinaryOperation.LESS_EQUALS, result, parseNode(reader));
-                                break;
-                            }
-
-                            result = new BinaryOperationNode(BinaryOperation.LESS, result, parseNode(reader));
-                        }
-                        default -> {
-                            return result;
-                        }
-                    }
+                case '|' -> {
+                    expectSecond(reader, MolangLexer.TokenType.SPECIAL, "|");
+                    yield BinaryOperation.OR;
                 }
-                case BINARY_OPERATION -> {
-                    if (result == null) {
-                        throw error("Unexpected token", reader);
-                    }
-                    result = parseBinaryExpression(result, reader);
+                case '!' -> {
+                    expectSecond(reader, MolangLexer.TokenType.EQUAL, "=");
+                    yield BinaryOperation.NOT_EQUALS;
                 }
-                default -> throw error("Unexpected token: " + token, reader);
-            }
+                case '>' -> isSecond(reader, MolangLexer.TokenType.EQUAL) ? BinaryOperation.GREATER_EQUALS : BinaryOperation.GREATER;
+                case '<' -> isSecond(reader, MolangLexer.TokenType.EQUAL) ? BinaryOperation.LESS_EQUALS : BinaryOperation.LESS;
+                default -> null;
+            };
+            default -> null;
+        };
+    }
+
+    private static int getPrecedence(BinaryOperation operation) {
+        return switch (operation) {
+            case OR -> OR;
+            case AND -> AND;
+            case EQUALS, NOT_EQUALS -> EQUALITY;
+            case LESS, LESS_EQUALS, GREATER, GREATER_EQUALS -> COMPARISON;
+            case ADD, SUBTRACT -> ADDITIVE;
+            case MULTIPLY, DIVIDE -> MULTIPLICATIVE;
+            case NULL_COALESCING -> NULL_COALESCING;
+        };
+    }
+
+    // Parses numbers in the form 3 or 3.14
+    private static float parseNumeral(TokenReader reader) throws MolangSyntaxException {
+        double value = parseDigits(reader.peek().value());
+        reader.skip();
+
+        if (reader.canRead() && reader.peek().type() == MolangLexer.TokenType.DOT) {
+            reader.skip();
+            expect(reader, MolangLexer.TokenType.NUMERAL);
+
+            String decimal = reader.peek().value();
+            value += parseDigits(decimal) / Math.pow(10, decimal.length());
+            reader.skip();
+        }
+
+        return (float) value;
+    }
+
+    private static double parseDigits(String digits) {
+        double value = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            value = value * 10 + (digits.charAt(i) - '0');
         }
+        return value;
+    }
 
-        return result;
+    // Sets must produce a value when they are used as an operand.
+    // hasValue is checked first since instanceof on an interface is slow when the node type keeps changing
+    private static Node value(Node node) {
+        return !node.hasValue() && node instanceof OptionalValueNode setNode ? setNode.withReturnValue() : node;
     }
 
     private static Node parseAlphanumeric(TokenReader reader) throws MolangSyntaxException {
@@ -371,7 +378,7 @@ public final class MolangParser {
                 throw error("Cannot set value of a math function", reader);
             }
             reader.skip();
-            return new VariableSetNode(object, name, parseExpression(reader));
+            return new VariableSetNode(object, name, value(parseExpression(reader)));
         }
         // obj.name++
         if (operand.type() == MolangLexer.TokenType.INCREMENT) {
@@ -396,10 +403,10 @@ public final class MolangParser {
             if (secondOperand.type() == MolangLexer.TokenType.EQUAL) {
                 reader.skip(2);
                 Node value = switch (operand.value()) {
-                    case "-" -> new BinaryOperationNode(BinaryOperation.SUBTRACT, left, parseExpression(reader));
-                    case "+" -> new BinaryOperationNode(BinaryOperation.ADD, left, parseExpression(reader));
-                    case "*" -> new BinaryOperationNode(BinaryOperation.MULTIPLY, left, parseExpression(reader));
-                    case "/" -> new BinaryOperationNode(BinaryOperation.DIVIDE, left, parseExpression(reader));
+                    case "-" -> new BinaryOperationNode(BinaryOperation.SUBTRACT, left, value(parseExpression(reader)));
+                    case "+" -> new BinaryOperationNode(BinaryOperation.ADD, left, value(parseExpression(reader)));
+                    case "*" -> new BinaryOperationNode(BinaryOperation.MULTIPLY, left, value(parseExpression(reader)));
+                    case "/" -> new BinaryOperationNode(BinaryOperation.DIVIDE, left, value(parseExpression(reader)));
                     default -> throw error("Unexpected token", reader);
                 };
                 return new VariableSetNode(object, name, value);
@@ -457,51 +464,6 @@ public final class MolangParser {
         throw error("Unknown math function: " + name, reader);
     }
 
-    private static Node parseBinaryExpression(Node left, TokenReader reader) throws MolangSyntaxException {
-        MolangLexer.Token token = reader.peek();
-        switch (token.value()) {
-            case "+" -> {
-                reader.skip();
-                return new BinaryOperationNode(BinaryOperation.ADD, left, parseTerm(reader));
-            }
-            case "-" -> {
-                reader.skip();
-                return new BinaryOperationNode(BinaryOperation.SUBTRACT, left, parseTerm(reader));
-            }
-            case "*" -> {
-                reader.skip();
-                return new BinaryOperationNode(BinaryOperation.MULTIPLY, left, parseNode(reader));
-            }
-            case "/" -> {
-                reader.skip();
-                return new BinaryOperationNode(BinaryOperation.DIVIDE, left, parseNode(reader));
-            }
-        }
-        return left;
-    }
-
-    private static Node parseTerm(TokenReader reader) throws MolangSyntaxException {
-        Node left = parseNode(reader);
-        if (!reader.canRead()) {
-            return left;
-        }
-
-        MolangLexer.Token token = reader.peek();
-        if (token.type() == MolangLexer.TokenType.BINARY_OPERATION) {
-            switch (token.value()) {
-                case "*" -> {
-                    reader.skip();
-                    return new BinaryOperationNode(BinaryOperation.MULTIPLY, left, parseNode(reader));
-                }
-                case "/" -> {
-                    reader.skip();
-                    return new BinaryOperationNode(BinaryOperation.DIVIDE, left, parseNode(reader));
-                }
-            }
-        }
-        return left;
-    }
-
     public static void expect(TokenReader reader, MolangLexer.TokenType token) throws MolangSyntaxException {
         if (!reader.canRead() || reader.peek().type() != token) {
             throw error("Expected " + token, reader);
@@ -515,12 +477,22 @@ public final class MolangParser {
         }
     }
 
+    private static void expectSecond(TokenReader reader, MolangLexer.TokenType token, String value) throws MolangSyntaxException {
+        if (!reader.canRead(2) || reader.peekAfter(1).type() != token || !value.equals(reader.peekAfter(1).value())) {
+            throw error("Expected " + value, reader);
+        }
+    }
+
     public static void expectLength(TokenReader reader, int amount) throws MolangSyntaxException {
         if (!reader.canRead(amount)) {
             throw new MolangSyntaxException("Trailing statement", reader.getString(), reader.getString().length());
         }
     }
 
+    private static boolean isSecond(TokenReader reader, MolangLexer.TokenType token) {
+        return reader.canRead(2) && reader.peekAfter(1).type() == token;
+    }
+
     public static MolangSyntaxException error(String error, TokenReader reader) {
         return new MolangSyntaxException(error, reader.getString(), reader.getCursorOffset());
     }
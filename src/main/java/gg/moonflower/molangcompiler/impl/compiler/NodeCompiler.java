@@ -0,0 +1,63 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts parsed nodes into executable expressions.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public interface NodeCompiler {
+
+    /**
+     * Creates the compiler backend selected by the specified flags.
+     *
+     * @param flags  The compiler flags to use
+     * @param parent The classloader to use as the parent if classes are generated
+     * @return A new compiler
+     */
+    static NodeCompiler create(int flags, ClassLoader parent) {
+        if ((flags & MolangCompiler.CLOSURE_FLAG) > 0) {
+            return new ClosureCompiler(flags);
+        }
+        return new BytecodeCompiler(flags, parent);
+    }
+
+    /**
+     * @param node The node to check
+     * @return Whether the node can be converted into an expression without doing any real compilation
+     */
+    boolean canInline(Node node);
+
+    /**
+     * Compiles the specified node.
+     *
+     * @param node The node to compile
+     * @return The compiled expression
+     * @throws MolangSyntaxException If the node could not be compiled
+     */
+    MolangExpression build(Node node) throws MolangSyntaxException;
+
+    /**
+     * Compiles all specified nodes.
+     *
+     * @param nodes The nodes to compile
+     * @return The compiled expressions in the same order as the nodes
+     * @throws MolangSyntaxException If any node could not be compiled
+     */
+    default List<MolangExpression> buildAll(List<Node> nodes) throws MolangSyntaxException {
+        List<MolangExpression> expressions = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            expressions.add(this.build(node));
+        }
+        return expressions;
+    }
+}
@@ -0,0 +1,200 @@
+package gg.moonflower.molangcompiler.impl.compiler;
+
+import gg.moonflower.molangcompiler.impl.ast.*;
+import gg.moonflower.molangcompiler.impl.node.MolangFunctionNode;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>Replaces reads of linked queries with the tree of the expression they hold, and marks calls to linked Java functions with the function they run.</p>
+ * <p>This runs before any optimization, so the inlined tree is simplified together with the expression reading it.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class QueryLinker {
+
+    private final Map<String, Node> links;
+    private final Map<String, MolangFunctionNode> functions;
+
+    private QueryLinker(Map<String, Node> links, Map<String, MolangFunctionNode> functions) {
+        this.links = links;
+        this.functions = functions;
+    }
+
+    /**
+     * Inlines every linked query read by the specified expression.
+     *
+     * @param node      The root node of the expression
+     * @param links     The tree of each linked query by name
+     * @param functions Each linked function by object and name, for example <code>query.foo</code>.
+     *                  Functions that only accept a specific number of parameters can also be linked as <code>query.foo$2</code>
+     * @return The new expression or the same node if no linked queries are read
+     */
+    public static Node link(Node node, Map<String, Node> links, Map<String, MolangFunctionNode> functions) {
+        if (links.isEmpty() && functions.isEmpty()) {
+            return node;
+        }
+        return new QueryLinker(links, functions).visit(node);
+    }
+
+    /**
+     * Checks whether the specified tree can replace a query read. Inlined trees run in the middle of another expression,
+     * so they must produce a single value and can't touch temp variables or leave early.
+     *
+     * @param node The root node of the expression
+     * @return Whether the tree can be inlined
+     */
+    public static boolean isLinkable(Node node) {
+        if (node instanceof ConstNode || node instanceof ThisNode) {
+            return true;
+        }
+        if (node instanceof VariableGetNode get) {
+            return !"temp".equals(get.object());
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            return isLinkable(operation.left()) && isLinkable(operation.right());
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            return ternary.hasValue() && isLinkable(ternary.value()) && isLinkable(ternary.left()) && isLinkable(ternary.right());
+        }
+        if (node instanceof NegateNode negate) {
+            return isLinkable(negate.value());
+        }
+        if (node instanceof MathNode math) {
+            return areLinkable(math.arguments());
+        }
+        if (node instanceof FunctionNode function) {
+            return areLinkable(function.arguments());
+        }
+        return false;
+    }
+
+    private static boolean areLinkable(Node[] nodes) {
+        for (Node node : nodes) {
+            if (!isLinkable(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Node visit(Node node) {
+        if (node instanceof VariableGetNode get) {
+            Node link = this.getLink(get);
+            return link != null ? link : get;
+        }
+        if (node instanceof BinaryOperationNode operation) {
+            if (operation.operator() == BinaryOperation.NULL_COALESCING) {
+                // Linked queries always exist, so the fallback is never used
+                if (operation.left() instanceof VariableGetNode get) {
+                    Node link = this.getLink(get);
+                    if (link != null) {
+                        return link;
+                    }
+                }
+                Node right = this.visit(operation.right());
+                return right == operation.right() ? operation : new BinaryOperationNode(operation.operator(), operation.left(), right);
+            }
+            Node left = this.visit(operation.left());
+            Node right = this.visit(operation.right());
+            return left == operation.left() && right == operation.right() ? operation : new BinaryOperationNode(operation.operator(), left, right);
+        }
+        if (node instanceof CompoundNode compound) {
+            Node[] nodes = this.visitAll(compound.nodes());
+            return nodes == compound.nodes() ? compound : new CompoundNode(nodes);
+        }
+        if (node instanceof ScopeNode scope) {
+            Node value = this.visit(scope.node());
+            return value == scope.node() ? scope : new ScopeNode(value);
+        }
+        if (node instanceof TernaryOperationNode ternary) {
+            Node value = this.visit(ternary.value());
+            Node left = this.visit(ternary.left());
+            Node right = this.visit(ternary.right());
+            return value == ternary.value() && left == ternary.left() && right == ternary.right() ? ternary : new TernaryOperationNode(value, left, right);
+        }
+        if (node instanceof BinaryConditionalNode conditional) {
+            Node value = this.visit(conditional.value());
+            Node branch = this.visit(conditional.branch());
+            return value == conditional.value() && branch == conditional.branch() ? conditional : new BinaryConditionalNode(value, branch);
+        }
+        if (node instanceof LoopNode loop) {
+            Node iterations = this.visit(loop.iterations());
+            Node body = this.visit(loop.body());
+            return iterations == loop.iterations() && body == loop.body() ? loop : new LoopNode(iterations, body);
+        }
+        if (node instanceof VariableSetNode set) {
+            Node value = this.visit(set.value());
+            return value == set.value() ? set : new VariableSetNode(set.object(), set.name(), value, set.returnValue());
+        }
+        if (node instanceof ReturnNode returnNode) {
+            Node value = this.visit(returnNode.value());
+            return value == returnNode.value() ? returnNode : new ReturnNode(value);
+        }
+        if (node instanceof NegateNode negate) {
+            Node value = this.visit(negate.value());
+            return value == negate.value() ? negate : new NegateNode(value);
+        }
+        if (node instanceof MathNode math) {
+            Node[] arguments = this.visitAll(math.arguments());
+            return arguments == math.arguments() ? math : new MathNode(math.function(), arguments);
+        }
+        if (node instanceof FunctionNode function) {
+            Node[] arguments = this.visitAll(function.arguments());
+            MolangFunctionNode linked = this.getFunction(function.object(), function.function(), arguments.length);
+            if (linked != null) {
+                return new FunctionNode(function.object(), function.function(), linked, arguments);
+            }
+            return arguments == function.arguments() ? function : function.withArguments(arguments);
+        }
+        return node;
+    }
+
+    private Node[] visitAll(Node[] nodes) {
+        Node[] result = nodes;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = this.visit(nodes[i]);
+            if (node != nodes[i]) {
+                if (result == nodes) {
+                    result = nodes.clone();
+                }
+                result[i] = node;
+            }
+        }
+        return result;
+    }
+
+    private @Nullable Node getLink(VariableGetNode get) {
+        if (!"query".equals(getObject(get.object()))) {
+            return null;
+        }
+        return this.links.get(get.name());
+    }
+
+    private @Nullable MolangFunctionNode getFunction(String object, String name, int arguments) {
+        // Functions are looked up the same way as when the expression runs
+        String key = getObject(object) + "." + name;
+        MolangFunctionNode function = this.functions.get(key + "$" + arguments);
+        if (function == null) {
+            function = this.functions.get(key);
+        }
+        return function != null && function.accepts(arguments) ? function : null;
+    }
+
+    /**
+     * @param object The name of an object
+     * @return The full name of the object if it is an alias
+     */
+    public static String getObject(String object) {
+        return switch (object.toLowerCase(Locale.ROOT)) {
+            case "q" -> "query";
+            case "c" -> "context";
+            case "v" -> "variable";
+            default -> object.toLowerCase(Locale.ROOT);
+        };
+    }
+}
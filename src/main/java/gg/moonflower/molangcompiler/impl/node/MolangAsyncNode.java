@@ -0,0 +1,131 @@
+package gg.moonflower.molangcompiler.impl.node;
+
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangEnvironment;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import gg.moonflower.molangcompiler.impl.compiler.MolangCompileExecutor;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
+import gg.moonflower.molangcompiler.impl.compiler.NodeCompiler;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An expression that is interpreted until it finishes compiling in the background.
+ * Compilation can optionally be delayed until the expression has been evaluated enough times to be worth compiling.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class MolangAsyncNode implements MolangExpression {
+
+    private final Node node;
+    private final String source;
+    private final NodeCompiler compiler;
+    private final MolangCompiler.Priority priority;
+    private final int threshold;
+    private final Runnable onCompiled;
+    private final AtomicBoolean scheduled;
+    private volatile MolangExpression compiled;
+    private volatile MolangSyntaxException error;
+    private int invocations;
+
+    public MolangAsyncNode(Node node, NodeCompiler compiler, MolangCompiler.Priority priority) {
+        this(node, compiler, priority, 0, () -> {
+        });
+    }
+
+    /**
+     * @param node       The expression to interpret and compile
+     * @param compiler   The compiler to generate bytecode with
+     * @param priority   The priority to compile with
+     * @param threshold  The number of times the expression must be interpreted before it is compiled
+     * @param onCompiled Called after the expression has been compiled
+     */
+    public MolangAsyncNode(Node node, NodeCompiler compiler, MolangCompiler.Priority priority, int threshold, Runnable onCompiled) {
+        this.node = node;
+        this.source = node.toString();
+        this.compiler = compiler;
+        this.priority = priority;
+        this.threshold = threshold;
+        this.onCompiled = onCompiled;
+        this.scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Schedules this expression to be compiled if it isn't already.
+     * If the compile queue is full, this will be attempted again the next time the expression is evaluated.
+     */
+    public void schedule() {
+        if (this.scheduled.compareAndSet(false, true) && !MolangCompileExecutor.get().trySubmit(this.priority, this::compile)) {
+            this.scheduled.set(false);
+        }
+    }
+
+    private void compile() {
+        try {
+            this.compiled = this.compiler.build(this.node);
+            this.onCompiled.run();
+        } catch (MolangSyntaxException e) {
+            // The interpreter can still evaluate the expression, so keep using it instead
+            this.error = e;
+        }
+    }
+
+    /**
+     * @return The reason the expression could not be compiled or <code>null</code> if it hasn't failed
+     */
+    public @Nullable MolangSyntaxException getError() {
+        return this.error;
+    }
+
+    /**
+     * @return Whether the compiled expression is being used instead of the interpreter
+     */
+    public boolean isCompiled() {
+        return this.compiled != null;
+    }
+
+    @Override
+    public float get(MolangEnvironment environment) throws MolangRuntimeException {
+        MolangExpression compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.get(environment);
+        }
+
+        // The counter is intentionally not atomic. Losing a few increments between threads only delays compiling slightly
+        if (this.invocations < this.threshold) {
+            this.invocations++;
+        } else {
+            this.schedule();
+        }
+        try {
+            return MolangInterpreter.interpret(this.node, environment);
+        } catch (MolangRuntimeException e) {
+            MolangSyntaxException error = this.error;
+            if (error != null) {
+                e.addSuppressed(error);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MolangExpression && this.source.equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.source.hashCode();
+    }
+}
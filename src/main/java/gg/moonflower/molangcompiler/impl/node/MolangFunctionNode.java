@@ -5,6 +5,13 @@ import gg.moonflower.molangcompiler.api.MolangExpression;
 import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
 import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collections;
 
 /**
  * @author Ocelot
@@ -12,31 +19,169 @@ import org.jetbrains.annotations.ApiStatus;
 @ApiStatus.Internal
 public class MolangFunctionNode implements MolangExpression {
 
+    private static final MethodHandle GET_PARAMETER;
+    private static final MethodHandle RETHROW;
+
+    static {
+        try {
+            GET_PARAMETER = MethodHandles.publicLookup().findVirtual(MolangEnvironment.class, "getParameter", MethodType.methodType(float.class, int.class));
+            RETHROW = MethodHandles.lookup().findStatic(MolangFunctionNode.class, "rethrow", MethodType.methodType(float.class, Throwable.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final int params;
+    private final MolangJavaFunction.Purity purity;
     private final MolangJavaFunction consumer;
+    private final @Nullable MethodHandle handle;
+    private final @Nullable MethodHandle invoker;
+    private final @Nullable MethodHandle spreader;
 
     public MolangFunctionNode(int params, MolangJavaFunction consumer) {
+        this(params, MolangJavaFunction.Purity.IMPURE, consumer);
+    }
+
+    public MolangFunctionNode(int params, MolangJavaFunction.Purity purity, MolangJavaFunction consumer) {
         this.params = params;
+        this.purity = purity;
         this.consumer = consumer;
+        this.handle = null;
+        this.invoker = null;
+        this.spreader = null;
+    }
+
+    /**
+     * Creates a function that calls the specified handle with each parameter as a float.
+     *
+     * @param handle The handle to call. Every parameter and the result must be a <code>float</code>, <code>double</code>, <code>int</code>, or <code>long</code>
+     * @param purity What the optimizer can assume about the function
+     * @throws IllegalArgumentException If the handle can't be called with floats
+     */
+    public MolangFunctionNode(MethodHandle handle, MolangJavaFunction.Purity purity) {
+        MethodType type = handle.type();
+        if (!isNumber(type.returnType()) || !type.parameterList().stream().allMatch(MolangFunctionNode::isNumber)) {
+            throw new IllegalArgumentException("Function must accept and return numbers: " + type);
+        }
+        this.params = type.parameterCount();
+        this.purity = purity;
+        // Numbers are converted the same way as casting them. Compiled code calls the handle directly, so it has to wrap errors itself
+        MethodHandle cast = MethodHandles.explicitCastArguments(handle, MethodType.methodType(float.class, Collections.nCopies(this.params, float.class)));
+        this.handle = MethodHandles.catchException(cast, Throwable.class, RETHROW);
+        // Each parameter is read straight from the current call of the environment, so calls don't need to copy the parameters into an array
+        MethodHandle invoker = this.handle;
+        for (int i = 0; i < this.params; i++) {
+            invoker = MethodHandles.filterArguments(invoker, i, MethodHandles.insertArguments(GET_PARAMETER, 1, i));
+        }
+        this.invoker = MethodHandles.permuteArguments(invoker, MethodType.methodType(float.class, MolangEnvironment.class), new int[this.params]);
+        this.spreader = this.handle.asSpreader(float[].class, this.params);
+        this.consumer = context -> this.invoke(context.parameters());
+    }
+
+    private static boolean isNumber(Class<?> type) {
+        return type == float.class || type == double.class || type == int.class || type == long.class;
+    }
+
+    private static float rethrow(Throwable t) throws MolangRuntimeException {
+        if (t instanceof MolangRuntimeException e) {
+            throw e;
+        }
+        throw new MolangRuntimeException(t);
+    }
+
+    private float invoke(MolangEnvironment environment) throws MolangRuntimeException {
+        try {
+            return (float) this.invoker.invokeExact(environment);
+        } catch (MolangRuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new MolangRuntimeException(t);
+        }
+    }
+
+    private float invoke(float[] parameters) throws MolangRuntimeException {
+        try {
+            return (float) this.spreader.invokeExact(parameters);
+        } catch (MolangRuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new MolangRuntimeException(t);
+        }
     }
 
     @Override
     public float get(MolangEnvironment environment) throws MolangRuntimeException {
-        float[] parameters;
-        if (this.params < 0) {
-            parameters = new float[environment.getParameters()];
-            for (int i = 0; i < parameters.length; i++) {
-                parameters[i] = environment.getParameter(i);
+        if (this.params > 0 && !environment.hasParameter(this.params - 1)) {
+            throw new MolangRuntimeException("Function requires " + this.params + " parameters");
+        }
+        if (this.invoker != null) {
+            return this.invoke(environment);
+        }
+
+        // Java functions may keep their context, so each call gets its own copy of the parameters
+        float[] parameters = new float[this.params < 0 ? environment.getParameters() : this.params];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = environment.getParameter(i);
+        }
+        return this.consumer.resolve(new MolangJavaFunction.Context(parameters));
+    }
+
+    /**
+     * Calls the function directly with the specified arguments. Any arguments past the number of parameters are ignored.
+     *
+     * @param arguments The values to pass in
+     * @return The result of the function
+     * @throws MolangRuntimeException If there are not enough arguments or the function fails
+     */
+    public float call(float... arguments) throws MolangRuntimeException {
+        if (this.params >= 0) {
+            if (arguments.length < this.params) {
+                throw new MolangRuntimeException("Function requires " + this.params + " parameters");
             }
-        } else {
-            parameters = new float[this.params];
-            for (int i = 0; i < parameters.length; i++) {
-                if (!environment.hasParameter(i)) {
-                    throw new MolangRuntimeException("Function requires " + parameters.length + " parameters");
-                }
-                parameters[i] = environment.getParameter(i);
+            if (arguments.length > this.params) {
+                arguments = Arrays.copyOf(arguments, this.params);
             }
         }
-        return this.consumer.resolve(new MolangJavaFunction.Context(parameters));
+        return this.consumer.resolve(new MolangJavaFunction.Context(arguments));
+    }
+
+    /**
+     * @param arguments The number of arguments a call passes in
+     * @return Whether a call with that many arguments can run
+     */
+    public boolean accepts(int arguments) {
+        return this.params < 0 || arguments >= this.params;
+    }
+
+    /**
+     * @return What the optimizer can assume about this function
+     */
+    public MolangJavaFunction.Purity getPurity() {
+        return this.purity;
+    }
+
+    /**
+     * @return The number of parameters or <code>-1</code> if any number are accepted
+     */
+    public int getParameters() {
+        return this.params;
+    }
+
+    /**
+     * @return Whether compiled code can call the handle of this function directly with each parameter on the stack
+     */
+    public boolean hasHandle() {
+        return this.handle != null;
+    }
+
+    /**
+     * @return The handle compiled classes call with each parameter as a <code>float</code>. Any error it throws is wrapped in a {@link MolangRuntimeException}
+     * @throws IllegalStateException If this function has no handle
+     */
+    public MethodHandle getHandle() {
+        if (this.handle == null) {
+            throw new IllegalStateException("Function has no handle");
+        }
+        return this.handle;
     }
 }
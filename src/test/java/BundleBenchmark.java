@@ -0,0 +1,47 @@
+import gg.moonflower.molangcompiler.api.BundledMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares loading a large pack from source against loading it from a precompiled bundle.
+ */
+public class BundleBenchmark {
+
+    private static final int COUNT = 40_000;
+
+    @Test
+    public void main() throws MolangException, IOException {
+        List<String> inputs = MolangBatchTest.createInputs(COUNT);
+        Path path = Files.createTempFile("molang", ".bundle");
+        try {
+            long start = System.nanoTime();
+            BundledMolangCompiler.write(inputs, path, MolangCompiler.DEFAULT_FLAGS);
+            System.out.printf("Write bundle:           %8.2fms (%d bytes)%n", (System.nanoTime() - start) / 1_000_000.0, Files.size(path));
+
+            start = System.nanoTime();
+            Map<String, MolangExpression> expressions = MolangCompiler.create().compileAll(inputs);
+            System.out.printf("compileAll from source: %8.2fms (%d)%n", (System.nanoTime() - start) / 1_000_000.0, expressions.size());
+
+            start = System.nanoTime();
+            BundledMolangCompiler compiler = MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS);
+            compiler.compile(inputs.get(0));
+            System.out.printf("Open and load one:      %8.2fms%n", (System.nanoTime() - start) / 1_000_000.0);
+
+            compiler = MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS);
+
+            start = System.nanoTime();
+            expressions = compiler.compileAll(inputs);
+            System.out.printf("Load all from bundle:   %8.2fms (%s)%n", (System.nanoTime() - start) / 1_000_000.0, compiler.getStats());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
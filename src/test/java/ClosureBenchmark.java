@@ -0,0 +1,57 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares compile time and evaluation throughput of the bytecode and closure backends.
+ */
+public class ClosureBenchmark {
+
+    private static final int COMPILE_COUNT = 5_000;
+    private static final int EVALUATE_COUNT = 5_000_000;
+    private static final String[] EXPRESSIONS = {
+            "q.a * q.b * q.c + 4",
+            "math.sin(q.a * 80) * 5 + math.cos(q.b * 40) * 2",
+            "temp.x = 0; loop(8, {temp.x = temp.x + q.a;}); return temp.x;",
+            "q.a > 2 ? math.clamp(q.b * 2, 0, 1) : q.c",
+    };
+
+    @Test
+    public void main() throws MolangException {
+        MolangRuntime runtime = MolangRuntime.runtime()
+                .setQuery("a", 3)
+                .setQuery("b", 0.5F)
+                .setQuery("c", 2)
+                .create();
+
+        for (String input : EXPRESSIONS) {
+            System.out.println(input);
+            run("  ASM    ", MolangCompiler.DEFAULT_FLAGS, input, runtime);
+            run("  Closure", MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG, input, runtime);
+        }
+    }
+
+    private static void run(String name, int flags, String input, MolangRuntime runtime) throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create(flags);
+        MolangExpression expression = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < COMPILE_COUNT; i++) {
+            expression = compiler.compile(input);
+        }
+        long compileTime = System.nanoTime() - start;
+
+        float sum = 0;
+        for (int i = 0; i < EVALUATE_COUNT; i++) {
+            sum += runtime.resolve(expression);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < EVALUATE_COUNT; i++) {
+            sum += runtime.resolve(expression);
+        }
+        long evaluateTime = System.nanoTime() - start;
+
+        System.out.printf("%s compile: %6.2fus/op, evaluate: %6.2fns/op (%s)%n", name, compileTime / 1000.0 / COMPILE_COUNT, (double) evaluateTime / EVALUATE_COUNT, sum);
+    }
+}
@@ -0,0 +1,49 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how bulk compilation scales with the number of cores.
+ */
+public class CompileScalingBenchmark {
+
+    private static final int EXPRESSION_COUNT = 50_000;
+    private static final int WARMUP_COUNT = 3;
+
+    @Test
+    public void main() throws MolangException {
+        List<String> inputs = MolangBatchTest.createInputs(EXPRESSION_COUNT);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < WARMUP_COUNT; i++) {
+            MolangCompiler.create().compileAll(inputs, ForkJoinPool.commonPool());
+        }
+
+        long sequential = time(() -> MolangCompiler.create().compileAll(inputs));
+        System.out.printf("Sequential: %dms%n", sequential / 1_000_000);
+        for (int parallelism = 1; parallelism <= cores; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                long elapsed = time(() -> MolangCompiler.create().compileAll(inputs, pool));
+                System.out.printf("%d core(s): %dms (%.2fx)%n", parallelism, elapsed / 1_000_000, (double) sequential / elapsed);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static long time(Compile compile) throws MolangException {
+        long start = System.nanoTime();
+        compile.run();
+        return System.nanoTime() - start;
+    }
+
+    @FunctionalInterface
+    private interface Compile {
+
+        void run() throws MolangException;
+    }
+}
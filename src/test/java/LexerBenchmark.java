@@ -0,0 +1,111 @@
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the single-pass lexer against the previous regex lexer on small and very large inputs.
+ */
+public class LexerBenchmark {
+
+    private static final String SMALL = "math.sin(query.anim_time * 80) * 5 + variable.test";
+    private static final int SMALL_COUNT = 200_000;
+    private static final int LARGE_STATEMENTS = 500;
+    private static final int LARGE_COUNT = 5;
+
+    @Test
+    public void main() throws MolangSyntaxException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < LARGE_STATEMENTS; i++) {
+            builder.append("temp.x").append(i).append(" = math.clamp(q.a * ").append(i).append(".5, 0, 1) + (v.b ?? 2);\n");
+        }
+        String large = builder.toString();
+
+        System.out.println("Small input (" + SMALL.length() + " chars)");
+        run("  Regex      ", SMALL, SMALL_COUNT, true);
+        run("  Single-pass", SMALL, SMALL_COUNT, false);
+        System.out.println("Large input (" + large.length() + " chars)");
+        run("  Regex      ", large, LARGE_COUNT, true);
+        run("  Single-pass", large, LARGE_COUNT, false);
+    }
+
+    private static void run(String name, String input, int count, boolean legacy) throws MolangSyntaxException {
+        int tokens = 0;
+        for (int i = 0; i < count; i++) {
+            tokens += legacy ? LegacyLexer.createTokens(input).length : MolangLexer.createTokens(input).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            tokens += legacy ? LegacyLexer.createTokens(input).length : MolangLexer.createTokens(input).length;
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("%s %10.2fus/op, %6.2fns/char (%d tokens)%n", name, time / 1000.0 / count, (double) time / count / input.length(), tokens / count / 2);
+    }
+
+    /**
+     * The lexer before it was replaced, kept here as a baseline.
+     */
+    private static final class LegacyLexer {
+
+        private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[\n\t]");
+        private static final Pattern[] PATTERNS = {
+                Pattern.compile("return"),
+                Pattern.compile("loop"),
+                Pattern.compile("continue"),
+                Pattern.compile("break"),
+                Pattern.compile("if"),
+                Pattern.compile("else"),
+                Pattern.compile("this"),
+                Pattern.compile("true"),
+                Pattern.compile("false"),
+                Pattern.compile("\\d+"),
+                Pattern.compile("[A-Za-z_][A-Za-z0-9_]*"),
+                Pattern.compile("\\?\\?"),
+                Pattern.compile("\\+\\+"),
+                Pattern.compile("\\-\\-"),
+                Pattern.compile("[<>&|!?:]"),
+                Pattern.compile("[-+*/]"),
+                Pattern.compile("\\("),
+                Pattern.compile("\\)"),
+                Pattern.compile("\\{"),
+                Pattern.compile("\\}"),
+                Pattern.compile("\\."),
+                Pattern.compile("\\,"),
+                Pattern.compile("="),
+                Pattern.compile(";"),
+        };
+
+        static MolangLexer.Token[] createTokens(String input) throws MolangSyntaxException {
+            String string = WHITESPACE_PATTERN.matcher(input).replaceAll("");
+            MolangLexer.TokenType[] types = MolangLexer.TokenType.values();
+            List<MolangLexer.Token> tokens = new ArrayList<>();
+            int cursor = 0;
+
+            outer:
+            while (cursor < string.length()) {
+                while (cursor < string.length() && Character.isWhitespace(string.charAt(cursor))) {
+                    cursor++;
+                }
+                String word = string.substring(cursor);
+                for (int i = 0; i < PATTERNS.length; i++) {
+                    Matcher matcher = PATTERNS[i].matcher(word);
+                    if (matcher.find() && matcher.start() == 0) {
+                        if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).type() == MolangLexer.TokenType.RIGHT_BRACE && types[i] != MolangLexer.TokenType.SEMICOLON) {
+                            tokens.add(new MolangLexer.Token(MolangLexer.TokenType.SEMICOLON, ";", cursor, cursor));
+                        }
+                        tokens.add(new MolangLexer.Token(types[i], word.substring(0, matcher.end()), cursor, cursor + matcher.end()));
+                        cursor += matcher.end();
+                        continue outer;
+                    }
+                }
+                throw new MolangSyntaxException("Unknown Token", string, cursor);
+            }
+
+            return tokens.toArray(MolangLexer.Token[]::new);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares evaluation throughput of loop heavy expressions with and without optimizations.
+ */
+public class LoopBenchmark {
+
+    private static final int EVALUATE_COUNT = 1_000_000;
+    private static final String[] EXPRESSIONS = {
+            "temp.x = 0; loop(16, {temp.x = temp.x + math.cos(q.a * 20) * q.b;}); return temp.x;",
+            "temp.x = 0; loop(q.c * 8, {temp.x = temp.x + math.sin(q.a * 45) + math.cos(q.b * 90);}); return temp.x;",
+            "temp.x = 0; loop(4, {loop(q.c * 4, {temp.x = temp.x + math.sqrt(q.a * q.a + q.b * q.b);});}); return temp.x;",
+            "temp.x = 0; temp.i = 0; loop(32, {temp.i = temp.i + 1; temp.x = temp.x + math.lerp(q.a, q.b, temp.i / 32) * math.cos(q.c);}); return temp.x;",
+    };
+
+    @Test
+    public void main() throws MolangException {
+        MolangRuntime runtime = MolangRuntime.runtime()
+                .setQuery("a", 3)
+                .setQuery("b", 0.5F)
+                .setQuery("c", 2)
+                .create();
+
+        for (String input : EXPRESSIONS) {
+            System.out.println(input);
+            run("  ASM             ", 0, input, runtime);
+            run("  ASM Optimized   ", MolangCompiler.OPTIMIZE_FLAG, input, runtime);
+            run("  Closure Optimized", MolangCompiler.OPTIMIZE_FLAG | MolangCompiler.CLOSURE_FLAG, input, runtime);
+        }
+    }
+
+    private static void run(String name, int flags, String input, MolangRuntime runtime) throws MolangException {
+        MolangExpression expression = MolangCompiler.create(flags).compile(input);
+
+        float sum = 0;
+        for (int i = 0; i < EVALUATE_COUNT; i++) {
+            sum += runtime.resolve(expression);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < EVALUATE_COUNT; i++) {
+            sum += runtime.resolve(expression);
+        }
+        long evaluateTime = System.nanoTime() - start;
+
+        System.out.printf("%s evaluate: %8.2fns/op (%s)%n", name, (double) evaluateTime / EVALUATE_COUNT, sum);
+    }
+}
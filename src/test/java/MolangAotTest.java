@@ -0,0 +1,159 @@
+import gg.moonflower.molangcompiler.api.BundledMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.impl.bundle.MolangAotCompiler;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class MolangAotTest {
+
+    @Test
+    void testPrecompiled() throws MolangException, IOException {
+        List<String> inputs = new ArrayList<>(MolangBatchTest.createInputs(1000));
+        inputs.add("math.pi * 2");
+        Path output = Files.createTempDirectory("molang");
+        try {
+            int classCount = MolangAotCompiler.compile(inputs, output, "test.molang", MolangCompiler.DEFAULT_FLAGS);
+            Assertions.assertTrue(Files.exists(output.resolve("test/molang/ExpressionBatch_0.class")));
+
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, MolangAotTest.class.getClassLoader())) {
+                BundledMolangCompiler precompiled = MolangCompiler.precompiled(MolangCompiler.DEFAULT_FLAGS, classLoader);
+                MolangCompiler compiler = MolangCompiler.create();
+                MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).setQuery("b", 2).create();
+
+                for (String input : inputs) {
+                    Assertions.assertTrue(precompiled.contains(input), input);
+                    MolangExpression expected = compiler.compile(input);
+                    MolangExpression actual = precompiled.compile(input);
+                    Assertions.assertEquals(runtime.resolve(expected), runtime.resolve(actual), input);
+                    Assertions.assertEquals(expected.toString(), actual.toString());
+                }
+
+                BundledMolangCompiler.Stats stats = precompiled.getStats();
+                Assertions.assertEquals(0, stats.missCount());
+                Assertions.assertEquals(inputs.size(), stats.size());
+                Assertions.assertEquals(classCount, stats.loadedClassCount());
+                Assertions.assertEquals(6, runtime.resolve(precompiled.compile("q.a * 2 + 0")));
+                Assertions.assertEquals(1, precompiled.getStats().missCount());
+
+                // Registries compiled with flags that change results are ignored
+                Assertions.assertFalse(MolangCompiler.precompiled(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.FAST_MATH_FLAG, classLoader).contains("math.pi * 2"));
+            }
+        } finally {
+            delete(output);
+        }
+    }
+
+    @Test
+    void testSources() throws MolangException, IOException {
+        Path sources = Files.createTempDirectory("molang");
+        Path output = Files.createTempDirectory("molang");
+        try {
+            Files.writeString(sources.resolve("speed.molang"), "q.a *\n\t2\n");
+            Files.writeString(sources.resolve("animation.json"), """
+                    {
+                      "format_version": "1.8.0",
+                      "animations": {
+                        "animation.test.walk": {
+                          "loop": true,
+                          "bones": {
+                            "leg": {"rotation": ["math.cos(q.a * 38.17) * 80", 0, "q.b \\u002b 1"]}
+                          }
+                        }
+                      }
+                    }
+                    """);
+            MolangAotCompiler.main(new String[]{"--package", "test.sources", output.toString(), sources.toString()});
+
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, MolangAotTest.class.getClassLoader())) {
+                BundledMolangCompiler precompiled = MolangCompiler.precompiled(MolangCompiler.DEFAULT_FLAGS, classLoader);
+                MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).setQuery("b", 2).create();
+
+                Assertions.assertTrue(precompiled.contains("q.a * 2"));
+                Assertions.assertTrue(precompiled.contains("math.cos(q.a * 38.17) * 80"));
+                Assertions.assertTrue(precompiled.contains("q.b + 1"));
+                Assertions.assertFalse(precompiled.contains("1.8.0"));
+                Assertions.assertFalse(precompiled.contains("animation.test.walk"));
+                Assertions.assertEquals(6, runtime.resolve(precompiled.compile("q.a * 2")));
+                Assertions.assertEquals(3, runtime.resolve(precompiled.compile("q.b + 1")));
+                Assertions.assertEquals(0, precompiled.getStats().missCount());
+            }
+        } finally {
+            delete(sources);
+            delete(output);
+        }
+    }
+
+    @Test
+    void testJsonKeys() throws IOException {
+        Path sources = Files.createTempDirectory("molang");
+        Path output = Files.createTempDirectory("molang");
+        try {
+            Files.writeString(sources.resolve("entity.json"), """
+                    {
+                      "format_version": "1.10.0",
+                      "minecraft:client_entity": {
+                        "description": {
+                          "identifier": "test:entity",
+                          "geometry": {"default": "geometry.test"},
+                          "textures": {"default": "textures/entity/test"},
+                          "animations": {"walk": "animation.test.walk"},
+                          "scripts": {"pre_animation": ["v.speed = q.a * 2;"], "animate": ["walk"]}
+                        }
+                      },
+                      "animations": {
+                        "animation.test.walk": {
+                          "bones": {"leg": {"rotation": {"0.0": ["q.a + 1", 0, 0], "1.0": {"post": ["q.b * 3", 0, 0]}}}},
+                          "custom": "q.c"
+                        }
+                      }
+                    }
+                    """);
+
+            // Names, paths, and identifiers are valid expressions too, so only known expression keys are read
+            MolangAotCompiler.main(new String[]{"--package", "test.keys", output.toString(), sources.toString()});
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, MolangAotTest.class.getClassLoader())) {
+                BundledMolangCompiler precompiled = MolangCompiler.precompiled(MolangCompiler.DEFAULT_FLAGS, classLoader);
+                Assertions.assertTrue(precompiled.contains("v.speed = q.a * 2;"));
+                Assertions.assertTrue(precompiled.contains("q.a + 1"));
+                Assertions.assertTrue(precompiled.contains("q.b * 3"));
+                for (String value : new String[]{"1.10.0", "test:entity", "geometry.test", "textures/entity/test", "animation.test.walk", "walk", "q.c"}) {
+                    Assertions.assertFalse(precompiled.contains(value), value);
+                }
+                Assertions.assertEquals(3, precompiled.getStats().size());
+            }
+            delete(output);
+
+            // Other formats can name their own keys
+            MolangAotCompiler.main(new String[]{"--package", "test.keys", "--keys", "custom", output.toString(), sources.toString()});
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, MolangAotTest.class.getClassLoader())) {
+                BundledMolangCompiler precompiled = MolangCompiler.precompiled(MolangCompiler.DEFAULT_FLAGS, classLoader);
+                Assertions.assertTrue(precompiled.contains("q.c"));
+                Assertions.assertEquals(1, precompiled.getStats().size());
+            }
+        } finally {
+            delete(sources);
+            delete(output);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> stream = Files.walk(path)) {
+            for (Path file : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
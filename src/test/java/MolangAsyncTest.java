@@ -0,0 +1,79 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.compiler.MolangInterpreter;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import gg.moonflower.molangcompiler.impl.node.MolangAsyncNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MolangAsyncTest {
+
+    static final String[] EXPRESSIONS = {
+            "math.pi*2+(3/2+53)*((7)/5)",
+            "q.a * q.b - math.sin(q.a * 20) + math.clamp(q.b, 0, 1)",
+            "t.a = 14; return v.test + t.a;",
+            "v.test = q.a * 2; return v.test;",
+            "q.a > 2 ? q.b : -q.b",
+            "q.a > 2 && q.b < 1 || q.c == 0",
+            "v.missing ?? 4",
+            "temp.i = 0; loop(10, {temp.i++; if (temp.i > 5) {temp.i += 3; break;} else {temp.i += 2; continue;}}); temp.i;",
+            "temp.x = 1; loop(q.a, {temp.x = temp.x * 2;}); return temp.x;",
+            "if (q.a > 1) {return 4;} return 1;",
+            "math.trunc(q.a / q.b) + math.round(q.b) + math.pow(q.a, 2) + math.lerp(0, 10, 0.25)",
+            "q.a == 3 ? 1 : (q.a != 4 ? 2 : 3)",
+    };
+
+    static MolangRuntime createRuntime() {
+        return MolangRuntime.runtime()
+                .setQuery("a", 3)
+                .setQuery("b", 0.5F)
+                .setQuery("c", 0)
+                .setVariable("test", 7)
+                .create();
+    }
+
+    @Test
+    void testInterpreter() throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create(0);
+        for (String input : EXPRESSIONS) {
+            float expected = createRuntime().resolve(compiler.compile(input));
+            float actual = MolangInterpreter.interpret(MolangParser.parseTokens(MolangLexer.createTokens(input)), createRuntime());
+            Assertions.assertEquals(expected, actual, input);
+        }
+    }
+
+    @Test
+    void testCompileAsync() throws Exception {
+        MolangCompiler compiler = MolangCompiler.create();
+        for (String input : EXPRESSIONS) {
+            MolangExpression expected = compiler.compile(input);
+            MolangExpression expression = compiler.compileAsync(input, MolangCompiler.Priority.HIGH);
+            Assertions.assertEquals(expected, expression);
+            Assertions.assertEquals(createRuntime().resolve(expected), createRuntime().resolve(expression), input);
+
+            if (expression instanceof MolangAsyncNode asyncNode) {
+                for (int i = 0; i < 500 && !asyncNode.isCompiled(); i++) {
+                    Thread.sleep(10);
+                }
+                Assertions.assertTrue(asyncNode.isCompiled());
+                Assertions.assertEquals(createRuntime().resolve(expected), createRuntime().resolve(expression), input);
+            }
+        }
+    }
+
+    @Test
+    void testConstant() throws MolangException {
+        MolangExpression expression = MolangCompiler.create().compileAsync("4 * 4 + 2");
+        Assertions.assertEquals(18, expression.getConstant());
+    }
+
+    @Test
+    void testError() {
+        MolangCompiler compiler = MolangCompiler.create();
+        Assertions.assertThrows(MolangSyntaxException.class, () -> compiler.compileAsync("q.a +* 2"));
+    }
+}
@@ -0,0 +1,93 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class MolangBatchTest {
+
+    static List<String> createInputs(int count) {
+        List<String> inputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            inputs.add(switch (i % 4) {
+                case 0 -> "q.a * " + i;
+                case 1 -> "v.x = q.a + " + i + "; return v.x > 10 ? v.x : -v.x;";
+                case 2 -> "temp.a = " + i + "; loop(" + (i % 7 + 1) + ", {temp.a = temp.a + q.b;}); return temp.a;";
+                default -> "math.clamp(q.a * q.b, 0, " + i + ")";
+            });
+        }
+        return inputs;
+    }
+
+    private static void testBatch(int flags, int count) throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create(flags);
+        List<String> inputs = createInputs(count);
+        Map<String, MolangExpression> expressions = compiler.compileAll(inputs);
+        Assertions.assertEquals(count, expressions.size());
+        Assertions.assertEquals(inputs, new ArrayList<>(expressions.keySet()));
+
+        Set<Class<?>> classes = new HashSet<>();
+        for (String input : inputs) {
+            MolangExpression expected = compiler.compile(input);
+            MolangExpression actual = expressions.get(input);
+            classes.add(actual.getClass());
+
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).setQuery("b", 2).create();
+            Assertions.assertEquals(runtime.resolve(expected), runtime.resolve(actual), input);
+            Assertions.assertEquals(expected, actual);
+            Assertions.assertEquals(expected.hashCode(), actual.hashCode());
+            Assertions.assertEquals(expected.toString(), actual.toString());
+        }
+        Assertions.assertTrue(classes.size() <= count / 128 + 1);
+    }
+
+    @Test
+    void testCompileAll() throws MolangException {
+        testBatch(MolangCompiler.DEFAULT_FLAGS, 1000);
+    }
+
+    @Test
+    void testCompileAllHidden() throws MolangException {
+        testBatch(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.HIDDEN_CLASSES_FLAG, 1000);
+    }
+
+    @Test
+    void testCompileAllParallel() throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create();
+        List<String> inputs = createInputs(5000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Map<String, MolangExpression> expected = compiler.compileAll(inputs);
+            Map<String, MolangExpression> actual = compiler.compileAll(inputs, pool);
+            Assertions.assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).setQuery("b", 2).create();
+            for (String input : inputs) {
+                Assertions.assertEquals(runtime.resolve(expected.get(input)), runtime.resolve(actual.get(input)), input);
+            }
+
+            Assertions.assertThrows(MolangSyntaxException.class, () -> compiler.compileAll(List.of("q.a", "q.a +* 2"), pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testDuplicates() throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create();
+        Map<String, MolangExpression> expressions = compiler.compileAll(List.of("q.a", "4 * 4 + 2", "q.a"));
+        Assertions.assertEquals(2, expressions.size());
+        Assertions.assertEquals(18, expressions.get("4 * 4 + 2").getConstant());
+    }
+
+    @Test
+    void testError() {
+        MolangCompiler compiler = MolangCompiler.create();
+        Assertions.assertThrows(MolangSyntaxException.class, () -> compiler.compileAll(List.of("q.a", "q.a +* 2")));
+    }
+}
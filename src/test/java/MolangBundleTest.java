@@ -0,0 +1,126 @@
+import gg.moonflower.molangcompiler.api.BundledMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class MolangBundleTest {
+
+    @Test
+    void testBundle() throws MolangException, IOException {
+        List<String> inputs = new ArrayList<>(MolangBatchTest.createInputs(1000));
+        inputs.add("math.pi * 2");
+        Path path = Files.createTempFile("molang", ".bundle");
+        try {
+            BundledMolangCompiler.write(inputs, path, MolangCompiler.DEFAULT_FLAGS);
+            BundledMolangCompiler bundle = MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS);
+            MolangCompiler compiler = MolangCompiler.create();
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).setQuery("b", 2).create();
+
+            Assertions.assertEquals(0, bundle.getStats().loadedClassCount());
+            for (String input : inputs) {
+                Assertions.assertTrue(bundle.contains(input), input);
+                MolangExpression expected = compiler.compile(input);
+                MolangExpression actual = bundle.compile(input);
+                Assertions.assertEquals(runtime.resolve(expected), runtime.resolve(actual), input);
+                Assertions.assertEquals(expected, actual);
+                Assertions.assertEquals(expected.toString(), actual.toString());
+                Assertions.assertSame(actual, bundle.compile(input));
+            }
+
+            BundledMolangCompiler.Stats stats = bundle.getStats();
+            Assertions.assertEquals(inputs.size() * 2L, stats.hitCount());
+            Assertions.assertEquals(0, stats.missCount());
+            Assertions.assertEquals(inputs.size(), stats.size());
+            Assertions.assertTrue(stats.loadedClassCount() <= inputs.size() / 128 + 1);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testMissing() throws MolangException, IOException {
+        Path path = Files.createTempFile("molang", ".bundle");
+        try {
+            BundledMolangCompiler.write(List.of("q.a * 2", "q.b + 1"), path, MolangCompiler.DEFAULT_FLAGS);
+            BundledMolangCompiler bundle = MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS);
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).setQuery("b", 2).create();
+
+            Assertions.assertTrue(bundle.contains("  q.a   * 2"));
+            Assertions.assertFalse(bundle.contains("q.a * 3"));
+
+            Map<String, MolangExpression> expressions = bundle.compileAll(List.of("q.a * 3", "q.a * 2", "q.b + 1"));
+            Assertions.assertEquals(List.of("q.a * 3", "q.a * 2", "q.b + 1"), new ArrayList<>(expressions.keySet()));
+            Assertions.assertEquals(9, runtime.resolve(expressions.get("q.a * 3")));
+            Assertions.assertEquals(6, runtime.resolve(expressions.get("q.a * 2")));
+            Assertions.assertEquals(3, runtime.resolve(expressions.get("q.b + 1")));
+            Assertions.assertEquals(1, bundle.getStats().missCount());
+            Assertions.assertEquals(1, bundle.getStats().loadedClassCount());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testCompilerVersion() throws MolangException, IOException {
+        Path path = Files.createTempFile("molang", ".bundle");
+        try {
+            BundledMolangCompiler.write(List.of("q.a * 2"), path, MolangCompiler.DEFAULT_FLAGS);
+
+            // Pretend the bundle was written by another version of the compiler
+            byte[] data = Files.readAllBytes(path);
+            ByteBuffer.wrap(data).putInt(8, -1);
+            Files.write(path, data);
+
+            BundledMolangCompiler bundle = MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS);
+            Assertions.assertFalse(bundle.contains("q.a * 2"));
+            Assertions.assertEquals(6, MolangRuntime.runtime().setQuery("a", 3).create().resolve(bundle.compile("q.a * 2")));
+            Assertions.assertEquals(1, bundle.getStats().missCount());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testFlags() throws MolangException, IOException {
+        Path path = Files.createTempFile("molang", ".bundle");
+        try {
+            BundledMolangCompiler.write(List.of("q.a / 3"), path, MolangCompiler.DEFAULT_FLAGS);
+
+            // Flags that only change how classes are defined can still use the bundle
+            Assertions.assertTrue(MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG).contains("q.a / 3"));
+
+            // Flags that change results compile every input from source
+            for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS | MolangCompiler.FAST_MATH_FLAG, 0}) {
+                BundledMolangCompiler bundle = MolangCompiler.bundled(path, flags);
+                Assertions.assertFalse(bundle.contains("q.a / 3"));
+                Assertions.assertEquals(1, MolangRuntime.runtime().setQuery("a", 3).create().resolve(bundle.compile("q.a / 3")));
+                Assertions.assertEquals(1, bundle.getStats().missCount());
+                Assertions.assertEquals(0, bundle.getStats().size());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void testInvalid() throws IOException {
+        Path path = Files.createTempFile("molang", ".bundle");
+        try {
+            Files.writeString(path, "not a bundle at all, just some text");
+            Assertions.assertThrows(IOException.class, () -> MolangCompiler.bundled(path, MolangCompiler.DEFAULT_FLAGS));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
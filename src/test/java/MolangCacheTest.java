@@ -0,0 +1,88 @@
+import gg.moonflower.molangcompiler.api.CachedMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MolangCacheTest {
+
+    @Test
+    void testHit() throws MolangException {
+        CachedMolangCompiler compiler = MolangCompiler.cached(MolangCompiler.DEFAULT_FLAGS, 16);
+        MolangExpression expression1 = compiler.compile("query.anim_time * 2");
+        MolangExpression expression2 = compiler.compile("  query.anim_time   * 2");
+
+        Assertions.assertSame(expression1, expression2);
+        Assertions.assertEquals(1, compiler.getStats().hitCount());
+        Assertions.assertEquals(1, compiler.getStats().missCount());
+
+        MolangRuntime runtime = MolangRuntime.runtime().setQuery("anim_time", 4).create();
+        Assertions.assertEquals(8, runtime.resolve(expression2));
+    }
+
+    @Test
+    void testEviction() throws MolangSyntaxException {
+        CachedMolangCompiler compiler = MolangCompiler.cached(MolangCompiler.DEFAULT_FLAGS, 2);
+        MolangExpression a = compiler.compile("q.a");
+        MolangExpression b = compiler.compile("q.b");
+        compiler.compile("q.a");
+        MolangExpression c = compiler.compile("q.c");
+
+        CachedMolangCompiler.Stats stats = compiler.getStats();
+        Assertions.assertEquals(2, stats.size());
+        Assertions.assertEquals(1, stats.evictionCount());
+
+        // q.b was the least recently used, so it should have been evicted
+        Assertions.assertSame(a, compiler.compile("q.a"));
+        Assertions.assertSame(c, compiler.compile("q.c"));
+        Assertions.assertNotSame(b, compiler.compile("q.b"));
+    }
+
+    @Test
+    void testConcurrent() throws Exception {
+        CachedMolangCompiler compiler = MolangCompiler.cached(MolangCompiler.DEFAULT_FLAGS, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<MolangExpression>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(() -> compiler.compile("math.sin(query.anim_time * 80) * 5")));
+            }
+
+            MolangExpression expected = futures.get(0).get();
+            for (Future<MolangExpression> future : futures) {
+                Assertions.assertSame(expected, future.get());
+            }
+            Assertions.assertEquals(1, compiler.getStats().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCompileAll() throws MolangSyntaxException {
+        CachedMolangCompiler compiler = MolangCompiler.cached(MolangCompiler.DEFAULT_FLAGS, 16);
+        MolangExpression a = compiler.compile("q.a");
+        Map<String, MolangExpression> expressions = compiler.compileAll(List.of("q.a", "q.b", " q.b"));
+
+        Assertions.assertSame(a, expressions.get("q.a"));
+        Assertions.assertSame(expressions.get("q.b"), compiler.compile("q.b"));
+        Assertions.assertEquals(2, compiler.getStats().size());
+    }
+
+    @Test
+    void testError() {
+        CachedMolangCompiler compiler = MolangCompiler.cached(MolangCompiler.DEFAULT_FLAGS, 16);
+        Assertions.assertThrows(MolangSyntaxException.class, () -> compiler.compile("q.a +* 2"));
+        Assertions.assertEquals(0, compiler.getStats().size());
+    }
+}
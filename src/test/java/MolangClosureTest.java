@@ -0,0 +1,77 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MolangClosureTest {
+
+    @Test
+    void testClosures() throws MolangException {
+        for (int flags : new int[]{0, MolangCompiler.DEFAULT_FLAGS}) {
+            MolangCompiler bytecode = MolangCompiler.create(flags);
+            MolangCompiler closures = MolangCompiler.create(flags | MolangCompiler.CLOSURE_FLAG);
+            for (String input : MolangAsyncTest.EXPRESSIONS) {
+                MolangExpression expected = bytecode.compile(input);
+                MolangExpression actual = closures.compile(input);
+                Assertions.assertEquals(expected, actual);
+                Assertions.assertEquals(MolangAsyncTest.createRuntime().resolve(expected), MolangAsyncTest.createRuntime().resolve(actual), input);
+            }
+        }
+    }
+
+    @Test
+    void testTemps() throws MolangException {
+        for (int flags : new int[]{0, MolangCompiler.DEFAULT_FLAGS}) {
+            MolangCompiler bytecode = MolangCompiler.create(flags);
+            MolangCompiler closures = MolangCompiler.create(flags | MolangCompiler.CLOSURE_FLAG);
+
+            // Temp variables exist once they were set at runtime, and not after the branch that set them
+            for (String input : new String[]{
+                    "q.c ? {t.a = 1;}; return t.a ?? 7;",
+                    "q.a ? {t.a = 1;}; return t.a ?? 7;",
+                    "q.a && (t.b = 2); return t.b ?? 8;",
+                    "t.a = 1; q.a ? {t.a = 3;}; return t.a;",
+                    "loop(q.a + 1, {t.i = (t.i ?? 0) + 1;}); return t.i;",
+                    "loop(q.c, {t.i = 1;}); return t.i ?? 3;",
+                    "loop(q.a * 2, {t.k = (t.k ?? 1) * 2; t.k > 4 ? break;}); return t.k;"
+            }) {
+                Assertions.assertEquals(MolangAsyncTest.createRuntime().resolve(bytecode.compile(input)), MolangAsyncTest.createRuntime().resolve(closures.compile(input)), input);
+            }
+            for (String input : new String[]{
+                    "q.c ? {t.a = 1;}; return t.a;",
+                    "q.a ? {t.a = 1;}; return t.a;",
+                    "loop(q.a, {t.s = t.s + q.a;}); return t.s;",
+                    "loop(q.c, {t.s = 1;}); return t.s;"
+            }) {
+                MolangExpression expression = closures.compile(input);
+                Assertions.assertThrows(MolangRuntimeException.class, () -> MolangAsyncTest.createRuntime().resolve(expression), input);
+            }
+        }
+    }
+
+    @Test
+    void testNoClass() throws MolangException {
+        MolangExpression expression = MolangCompiler.create(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG).compile("q.a * 2");
+        Assertions.assertFalse(expression.getClass().getSimpleName().startsWith("Expression_"));
+        Assertions.assertEquals(6, MolangAsyncTest.createRuntime().resolve(expression));
+    }
+
+    @Test
+    void testVariables() throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG);
+        MolangRuntime runtime = MolangRuntime.runtime().create();
+        MolangExpression expression = compiler.compile("v.count = (v.count ?? 0) + 1; return v.count;");
+        Assertions.assertEquals(1, runtime.resolve(expression));
+        Assertions.assertEquals(2, runtime.resolve(expression));
+    }
+
+    @Test
+    void testBreakOutsideLoop() {
+        MolangCompiler compiler = MolangCompiler.create(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG);
+        Assertions.assertThrows(MolangSyntaxException.class, () -> compiler.compile("q.a; break;"));
+    }
+}
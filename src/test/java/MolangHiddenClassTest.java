@@ -0,0 +1,36 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+
+public class MolangHiddenClassTest {
+
+    @Test
+    void testHiddenClass() throws MolangException {
+        MolangCompiler compiler = MolangCompiler.create(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.HIDDEN_CLASSES_FLAG);
+        MolangExpression expression = compiler.compile("temp.a = q.b * 2; loop(3, {temp.a = temp.a + 1;}); return temp.a > 10 ? temp.a : math.abs(-4);");
+
+        Assertions.assertTrue(expression.getClass().isHidden());
+        MolangRuntime runtime = MolangRuntime.runtime().setQuery("b", 5).create();
+        Assertions.assertEquals(13, runtime.resolve(expression));
+        Assertions.assertEquals(expression, compiler.compile("temp.a = q.b * 2; loop(3, {temp.a = temp.a + 1;}); return temp.a > 10 ? temp.a : math.abs(-4);"));
+    }
+
+    @Test
+    void testUnload() throws Exception {
+        MolangCompiler compiler = MolangCompiler.create(MolangCompiler.DEFAULT_FLAGS | MolangCompiler.HIDDEN_CLASSES_FLAG);
+        WeakReference<Class<?>> reference = new WeakReference<>(compiler.compile("q.a * q.b").getClass());
+
+        // The compiler is still reachable, but the expression class should not be held by it
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(reference.get());
+        Assertions.assertNotNull(compiler);
+    }
+}
@@ -38,4 +38,40 @@ public class MolangLexerTest {
         System.out.println(Arrays.toString(tokens));
         Assertions.assertEquals(10, tokens.length);
     }
+
+    @Test
+    public void testOffsets() throws MolangSyntaxException {
+        String input = "  q.anim_time >= 10";
+        MolangLexer.Token[] tokens = MolangLexer.createTokens(input);
+        System.out.println(Arrays.toString(tokens));
+        Assertions.assertEquals(6, tokens.length);
+        for (MolangLexer.Token token : tokens) {
+            Assertions.assertEquals(token.value(), input.substring(token.start(), token.end()));
+        }
+    }
+
+    @Test
+    public void testKeywordPrefix() throws MolangSyntaxException {
+        String input = "q.loop_count + v.iffy";
+        MolangLexer.Token[] tokens = MolangLexer.createTokens(input);
+        System.out.println(Arrays.toString(tokens));
+        Assertions.assertEquals(7, tokens.length);
+        Assertions.assertEquals(MolangLexer.TokenType.ALPHANUMERIC, tokens[2].type());
+        Assertions.assertEquals(MolangLexer.TokenType.ALPHANUMERIC, tokens[6].type());
+    }
+
+    @Test
+    public void testWhitespace() throws MolangSyntaxException {
+        String input = "return\n\tq.a;  \n";
+        MolangLexer.Token[] tokens = MolangLexer.createTokens(input);
+        System.out.println(Arrays.toString(tokens));
+        Assertions.assertEquals(5, tokens.length);
+        Assertions.assertEquals(MolangLexer.TokenType.RETURN, tokens[0].type());
+    }
+
+    @Test
+    public void testUnknownToken() {
+        MolangSyntaxException exception = Assertions.assertThrows(MolangSyntaxException.class, () -> MolangLexer.createTokens("q.a # 2"));
+        System.out.println(exception.getMessage());
+    }
 }
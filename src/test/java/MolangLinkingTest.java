@@ -0,0 +1,222 @@
+import gg.moonflower.molangcompiler.api.LinkingMolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.api.object.MolangLibrary;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+public class MolangLinkingTest {
+
+    @Test
+    void testInline() throws MolangException {
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG, 0}) {
+            LinkingMolangCompiler compiler = MolangCompiler.linking(flags);
+            MolangExpression scale = compiler.compile("q.size * 2 + 1");
+            Assertions.assertTrue(compiler.link("scale", scale));
+
+            MolangExpression expression = compiler.compile("q.scale * q.scale + math.sqrt(query.scale ?? 0)");
+            Assertions.assertFalse(expression.toString().contains("scale"), expression.toString());
+
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("size", 4).setQuery("scale", scale).create();
+            Assertions.assertEquals(84, runtime.resolve(expression));
+        }
+    }
+
+    @Test
+    void testFold() throws MolangException {
+        LinkingMolangCompiler compiler = MolangCompiler.linking(MolangCompiler.DEFAULT_FLAGS);
+        Assertions.assertTrue(compiler.link("half", compiler.compile("0.5")));
+        Assertions.assertTrue(compiler.link("quarter", compiler.compile("q.half * q.half")));
+        Assertions.assertTrue(compiler.link("eighth", compiler.compile("q.quarter * q.half")));
+
+        MolangExpression expression = compiler.compile("q.eighth * 16");
+        Assertions.assertTrue(expression.isConstant());
+        Assertions.assertEquals(2, expression.getConstant());
+
+        Map<String, MolangExpression> all = compiler.compileAll(List.of("q.quarter + q.eighth", "v.x * q.half"));
+        Assertions.assertEquals(0.375F, all.get("q.quarter + q.eighth").getConstant());
+        MolangRuntime runtime = MolangRuntime.runtime().setVariable("x", 3).create();
+        Assertions.assertEquals(1.5F, runtime.resolve(all.get("v.x * q.half")));
+    }
+
+    @Test
+    void testNotLinked() throws MolangException {
+        LinkingMolangCompiler compiler = MolangCompiler.linking(MolangCompiler.DEFAULT_FLAGS);
+        MolangExpression statements = compiler.compile("temp.a = q.size; return temp.a * 2;");
+        MolangExpression foreign = MolangCompiler.create().compile("q.size * 3");
+        Assertions.assertFalse(compiler.link("double", statements));
+        Assertions.assertFalse(compiler.link("triple", foreign));
+
+        MolangExpression size = compiler.compile("q.size");
+        Assertions.assertTrue(compiler.link("copy", size));
+        compiler.unlink("copy");
+
+        MolangExpression expression = compiler.compile("q.double + q.triple + q.copy");
+        MolangRuntime runtime = MolangRuntime.runtime()
+                .setQuery("size", 2)
+                .setQuery("double", statements)
+                .setQuery("triple", foreign)
+                .setQuery("copy", 10)
+                .create();
+        Assertions.assertEquals(20, runtime.resolve(expression));
+    }
+
+    @Test
+    void testForeignEqual() throws MolangException {
+        int flags = MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG;
+        LinkingMolangCompiler compiler = MolangCompiler.linking(flags);
+        MolangExpression scale = compiler.compile("q.size * 2 + 1");
+        MolangExpression half = compiler.compile("0.5");
+
+        // Equal expressions from another compiler were never parsed here, so they can't be linked
+        MolangExpression foreignScale = MolangCompiler.linking(flags).compile("q.size * 2 + 1");
+        MolangExpression foreignHalf = MolangCompiler.create(flags).compile("0.5");
+        Assertions.assertEquals(scale, foreignScale);
+        Assertions.assertEquals(half, foreignHalf);
+        Assertions.assertFalse(compiler.link("scale", foreignScale));
+        Assertions.assertFalse(compiler.link("half", foreignHalf));
+
+        Assertions.assertTrue(compiler.link("scale", scale));
+        Assertions.assertTrue(compiler.link("half", half));
+    }
+
+    @Test
+    void testPurity() throws MolangException {
+        AtomicInteger calls = new AtomicInteger();
+        MolangLibrary library = new MolangLibrary() {
+            @Override
+            protected void populate(BiConsumer<String, MolangExpression> consumer) {
+                consumer.accept("add", MolangExpression.function(2, MolangJavaFunction.Purity.PURE, context -> {
+                    calls.incrementAndGet();
+                    return context.get(0) + context.get(1);
+                }));
+                consumer.accept("count", MolangExpression.function(0, context -> calls.incrementAndGet()));
+            }
+
+            @Override
+            protected String getName() {
+                return "test";
+            }
+        };
+        MolangExpression lookup = MolangExpression.function(1, MolangJavaFunction.Purity.IDEMPOTENT, context -> {
+            calls.incrementAndGet();
+            return context.get(0) * 10;
+        });
+
+        LinkingMolangCompiler compiler = MolangCompiler.linking(MolangCompiler.DEFAULT_FLAGS);
+        compiler.linkLibrary("test", library);
+        Assertions.assertTrue(compiler.link("lookup", lookup));
+
+        MolangExpression folded = compiler.compile("test.add(1, 2) * test.add(3, 4)");
+        Assertions.assertEquals(2, calls.getAndSet(0));
+        Assertions.assertTrue(folded.isConstant());
+        Assertions.assertEquals(21, folded.getConstant());
+
+        MolangRuntime runtime = MolangRuntime.runtime()
+                .loadLibrary("test", library)
+                .setQuery("lookup", lookup)
+                .setVariable("x", 2)
+                .create();
+        MolangExpression repeated = compiler.compile("q.lookup(v.x) + q.lookup(v.x) + test.add(v.x, 1) * test.add(v.x, 1)");
+        Assertions.assertEquals(49, runtime.resolve(repeated));
+        Assertions.assertEquals(2, calls.getAndSet(0));
+
+        MolangExpression impure = compiler.compile("test.count() + test.count()");
+        Assertions.assertEquals(3, runtime.resolve(impure));
+        Assertions.assertEquals(2, calls.getAndSet(0));
+    }
+
+    @Test
+    void testLoopInvariants() throws MolangException {
+        MolangLibrary library = new MolangLibrary() {
+            @Override
+            protected void populate(BiConsumer<String, MolangExpression> consumer) {
+                consumer.accept("add", MolangExpression.function(2, MolangJavaFunction.Purity.PURE, context -> context.get(0) + context.get(1)));
+            }
+
+            @Override
+            protected String getName() {
+                return "lib";
+            }
+        };
+
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG}) {
+            LinkingMolangCompiler compiler = MolangCompiler.linking(flags);
+            compiler.linkLibrary("lib", library);
+
+            // Pure calls are only the same in every iteration if their parameters are
+            MolangRuntime runtime = MolangRuntime.runtime().loadLibrary("lib", library).setQuery("b", 2).setVariable("x", 0).create();
+            Assertions.assertEquals(22, runtime.resolve(compiler.compile("v.x = 1; loop(3, {v.x = lib.add(v.x, 1) * 2;}); return v.x;")));
+            Assertions.assertEquals(15, runtime.resolve(compiler.compile("v.x = 1; loop(3, {v.x = v.x + math.abs(lib.add(v.x, 1));}); return v.x;")));
+            Assertions.assertEquals(9, runtime.resolve(compiler.compile("v.x = 0; loop(3, {v.x = v.x + lib.add(q.b, 1);}); return v.x;")));
+        }
+    }
+
+    @Test
+    void testMethodHandle() throws Throwable {
+        MolangExpression add = MolangExpression.function(MethodHandles.lookup().findStatic(MolangLinkingTest.class, "add", MethodType.methodType(float.class, float.class, float.class)), MolangJavaFunction.Purity.PURE);
+        MolangExpression hypot = MolangExpression.function(MethodHandles.lookup().findStatic(Math.class, "hypot", MethodType.methodType(double.class, double.class, double.class)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MolangExpression.function(MethodHandles.lookup().findStatic(MolangLinkingTest.class, "add", MethodType.methodType(float.class, float.class, float.class)).bindTo(1.0F).asType(MethodType.methodType(String.class, float.class))));
+
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG}) {
+            LinkingMolangCompiler compiler = MolangCompiler.linking(flags);
+            compiler.link("add", add);
+            compiler.link("hypot", hypot);
+
+            // The functions are never looked up, so the runtime doesn't need to have them
+            MolangRuntime runtime = MolangRuntime.runtime().setVariable("x", 3).create();
+            Assertions.assertEquals(5, runtime.resolve(compiler.compile("q.hypot(v.x, 4)")));
+            Assertions.assertEquals(12, runtime.resolve(compiler.compile("q.add(v.x, q.add(1, 2)) * 2")));
+            Assertions.assertEquals(7, runtime.resolve(compiler.compile("q.add(v.x, 4, v.x * 2)")));
+            Assertions.assertEquals(12, compiler.compile("q.add(5, 7)").getConstant());
+        }
+
+        // Calls that aren't linked still look up the function
+        MolangRuntime runtime = MolangRuntime.runtime().setQuery("add", add).create();
+        Assertions.assertEquals(3, runtime.resolve(MolangCompiler.create().compile("q.add(1, 2)")));
+    }
+
+    @Test
+    void testMethodHandleClasses() throws Throwable {
+        MolangExpression add = MolangExpression.function(MethodHandles.lookup().findStatic(MolangLinkingTest.class, "add", MethodType.methodType(float.class, float.class, float.class)));
+        MolangExpression fail = MolangExpression.function(MethodHandles.lookup().findStatic(MolangLinkingTest.class, "fail", MethodType.methodType(float.class, float.class)));
+
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.HIDDEN_CLASSES_FLAG}) {
+            LinkingMolangCompiler compiler = MolangCompiler.linking(flags);
+            compiler.link("add", add);
+            compiler.link("fail", fail);
+
+            // Each class binds to its own handles, including batches and loops that write their body twice
+            MolangRuntime runtime = MolangRuntime.runtime().setVariable("x", 3).create();
+            Assertions.assertEquals(7, runtime.resolve(compiler.compile("v.y = 1; loop(2, {v.y = q.add(v.y, q.add(v.x, 0));}); return v.y;")));
+            Map<String, MolangExpression> all = compiler.compileAll(List.of("q.add(v.x, 1)", "q.add(v.x, 2) * 2", "q.fail(v.x)"));
+            Assertions.assertEquals(4, runtime.resolve(all.get("q.add(v.x, 1)")));
+            Assertions.assertEquals(10, runtime.resolve(all.get("q.add(v.x, 2) * 2")));
+
+            // Errors from the handle are wrapped the same way as when the function is looked up
+            for (MolangExpression expression : new MolangExpression[]{compiler.compile("q.fail(v.x) + 1"), all.get("q.fail(v.x)")}) {
+                MolangRuntimeException e = Assertions.assertThrows(MolangRuntimeException.class, () -> runtime.resolve(expression));
+                Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+            }
+        }
+    }
+
+    public static float add(float a, float b) {
+        return a + b;
+    }
+
+    public static float fail(float value) {
+        throw new IllegalStateException("Failed with " + value);
+    }
+}
@@ -0,0 +1,378 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.bridge.MolangVariable;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
+import gg.moonflower.molangcompiler.impl.compiler.AlgebraicSimplifier;
+import gg.moonflower.molangcompiler.impl.compiler.DeadCodeEliminator;
+import gg.moonflower.molangcompiler.impl.compiler.LoopInvariantHoister;
+import gg.moonflower.molangcompiler.impl.compiler.MolangBytecodeEnvironment;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class MolangOptimizationTest {
+
+    private static void assertSame(int flags, String... inputs) throws MolangException {
+        assertSame(0, flags, inputs);
+    }
+
+    private static void assertSame(int referenceFlags, int flags, String... inputs) throws MolangException {
+        MolangCompiler reference = MolangCompiler.create(referenceFlags);
+        MolangCompiler optimized = MolangCompiler.create(flags);
+        for (String input : inputs) {
+            MolangVariable expectedVariable = MolangVariable.create(3);
+            MolangVariable actualVariable = MolangVariable.create(3);
+            float expected = createRuntime(expectedVariable).resolve(reference.compile(input));
+            float actual = createRuntime(actualVariable).resolve(optimized.compile(input));
+            Assertions.assertEquals(expected, actual, input);
+            Assertions.assertEquals(expectedVariable.getValue(), actualVariable.getValue(), input);
+        }
+    }
+
+    private static String simplify(String input, boolean fastMath) throws MolangException {
+        MolangBytecodeEnvironment environment = new MolangBytecodeEnvironment(MolangCompiler.OPTIMIZE_FLAG);
+        return AlgebraicSimplifier.simplify(MolangParser.parseTokens(MolangLexer.createTokens(input)), environment, fastMath).toString();
+    }
+
+    private static String eliminate(String input) throws MolangException {
+        MolangBytecodeEnvironment environment = new MolangBytecodeEnvironment(MolangCompiler.OPTIMIZE_FLAG);
+        return DeadCodeEliminator.eliminate(AlgebraicSimplifier.simplify(MolangParser.parseTokens(MolangLexer.createTokens(input)), environment, false)).toString();
+    }
+
+    private static String hoist(String input) throws MolangException {
+        MolangBytecodeEnvironment environment = new MolangBytecodeEnvironment(MolangCompiler.OPTIMIZE_FLAG);
+        return DeadCodeEliminator.eliminate(LoopInvariantHoister.hoist(MolangParser.parseTokens(MolangLexer.createTokens(input)), environment)).toString();
+    }
+
+    private static MolangRuntime createRuntime(MolangVariable variable) {
+        return MolangRuntime.runtime()
+                .setQuery("a", 0)
+                .setQuery("b", 2)
+                .setQuery("anim_time", 1.5F)
+                .setVariable("x", variable)
+                .create();
+    }
+
+    @Test
+    void testCommonSubexpressions() throws MolangException {
+        assertSame(MolangCompiler.OPTIMIZE_FLAG,
+                "math.sin(query.anim_time * 80) * 5 + math.sin(query.anim_time * 80) * 2",
+                "math.cos(q.b * 10) > 0.5 ? math.cos(q.b * 10) : -math.cos(q.b * 10)",
+                "(q.b + 1) * (q.b + 1) - (q.b + 1) / (q.b + 1)",
+                "!q.a + !q.a",
+                "v.x * 2 + (v.x = v.x * 2) + v.x * 2",
+                "v.x = 1; t.a = v.x * 2; v.x = 7; return v.x * 2 + t.a;",
+                "t.s = 0; loop(3, {t.s = t.s + v.x * 2; v.x = v.x + 1;}); return t.s + v.x * 2;",
+                "math.random(0, 1) == math.random(0, 1) ? 0 : 1");
+    }
+
+    @Test
+    void testConditionalScope() throws MolangException {
+        assertSame(MolangCompiler.OPTIMIZE_FLAG,
+                "(q.a && q.b) + q.b",
+                "(q.b || q.anim_time) + q.anim_time",
+                "q.a ? 1 : q.b; return q.b;",
+                "q.a ? 1 : q.b * 2; return q.b * 2;",
+                "(q.c ?? q.b * 2) + q.b * 2",
+                "q.a ? {v.x = q.b * 2;}; return v.x + q.b * 2;");
+    }
+
+    @Test
+    void testAlgebraicSimplification() throws MolangException {
+        Assertions.assertEquals("return q.a", simplify("q.a * 1 + 0", false));
+        Assertions.assertEquals("return q.a", simplify("(0 + q.a - 0) / 1", false));
+        Assertions.assertEquals("return (q.a * 0.25)", simplify("q.a / 4", false));
+        Assertions.assertEquals("return (q.a / 3.0)", simplify("q.a / 3", false));
+        Assertions.assertEquals("return (q.a * q.a)", simplify("math.pow(q.a, 2)", false));
+        Assertions.assertEquals("return ((q.a * q.a) * q.a)", simplify("math.pow(q.a, 3)", false));
+        Assertions.assertEquals("return 1.0", simplify("math.pow(q.a, 0)", false));
+        Assertions.assertEquals("return math.pow(math.random(0.0, 1.0), 2.0)", simplify("math.pow(math.random(0, 1), 2)", false));
+        Assertions.assertEquals("return ((q.a + 2.0) + 1.0)", simplify("q.a + 1 * 2 + 1", false));
+
+        assertSame(MolangCompiler.OPTIMIZE_FLAG,
+                "q.b * 1 + 0",
+                "(0 + q.anim_time - 0) / 1",
+                "q.anim_time / 4 + q.anim_time / -0.5",
+                "math.pow(q.b, 2) + math.pow(q.anim_time, 3) + math.pow(q.b, 0) + math.pow(q.b, 1)",
+                "math.pow(q.b + 1, 2) + math.pow(math.random(2, 2), 2)",
+                "t.a = q.b * 1; return t.a / 1;");
+    }
+
+    @Test
+    void testReassociation() throws MolangException {
+        Assertions.assertEquals("return ((q.a * 2.0) * 3.0)", simplify("q.a * 2 * 3", false));
+        Assertions.assertEquals("return (q.a * 8.0)", simplify("2 * q.a * 4", false));
+        Assertions.assertEquals("return (((-2.0 * q.a) * q.b) * 2.0)", simplify("-2 * q.a * q.b * 2", false));
+        Assertions.assertEquals("return ((2.0 + q.a) + 3.0)", simplify("2 + q.a + 3", false));
+
+        Assertions.assertEquals("return (q.a * 6.0)", simplify("q.a * 2 * 3", true));
+        Assertions.assertEquals("return (q.a + 5.0)", simplify("2 + q.a + 3", true));
+        Assertions.assertEquals("return (q.a - 3.0)", simplify("q.a - 1 - 2", true));
+        Assertions.assertEquals("return ((5.0 - q.a) + q.b)", simplify("2 - q.a + 3 + q.b", true));
+        Assertions.assertEquals("return (q.a - q.b)", simplify("1 + q.a - 1 - q.b", true));
+        Assertions.assertEquals("return ((q.a * q.b) * 0.75)", simplify("q.a / 2 * q.b * 1.5", true));
+        Assertions.assertEquals("return ((q.a * q.b) * -4.0)", simplify("-2 * q.a * q.b * 2", true));
+
+        // Moving constants past another factor changes where the product overflows
+        MolangRuntime runtime = MolangRuntime.runtime().setQuery("big", 3e38F).setQuery("small", 1e-30F).create();
+        Assertions.assertEquals(Float.POSITIVE_INFINITY, runtime.resolve(MolangCompiler.create(MolangCompiler.OPTIMIZE_FLAG).compile("q.big * 2 * q.small * 4")));
+
+        assertSame(MolangCompiler.OPTIMIZE_FLAG,
+                "2 * q.anim_time * 4",
+                "-2 * q.anim_time * q.b * 2",
+                "2 * (v.x = v.x + 1) * 4 + v.x",
+                "q.anim_time * 0.5 * 0.5");
+        assertSame(MolangCompiler.OPTIMIZE_FLAG | MolangCompiler.FAST_MATH_FLAG,
+                "2 + q.b + 3",
+                "q.b - 1 - 2",
+                "2 - q.b + 3 + q.anim_time",
+                "q.b * 2 * 3",
+                "(t.a = 2) + (v.x = v.x + 1) + 3 + t.a * v.x");
+    }
+
+    @Test
+    void testDeadCode() throws MolangException {
+        Assertions.assertEquals("v.x = 1.0;\nreturn v.x;\n", eliminate("v.x = 1; {return v.x;}; v.x = 2; return 4;"));
+        Assertions.assertEquals("return q.a", eliminate("t.a = q.a * 2; t.b = t.a; return q.a;"));
+        Assertions.assertEquals("temp.a = math.random(0.0, 1.0);\nreturn q.a;\n", eliminate("t.a = math.random(0, 1); return q.a;"));
+        Assertions.assertEquals("v.x = 2.0;\nreturn v.x;\n", eliminate("0 ? {v.x = 1;}; 1 ? {v.x = 2;}; return v.x;"));
+        Assertions.assertEquals("return q.b", eliminate("return 1 - 1 ? q.a : q.b;"));
+        Assertions.assertEquals("v.x = 1.0;\ntemp.a = 2.0;\nreturn (v.x + temp.a);\n", eliminate("v.x = 1; {t.a = 2;}; return v.x + t.a;"));
+        Assertions.assertEquals("loop(2.0, {q.a ? v.x = 1.0;\nbreak;\n});\nreturn v.x;\n", eliminate("loop(2, {q.a ? {v.x = 1; break; v.x = 2;};}); return v.x;"));
+
+        assertSame(MolangCompiler.OPTIMIZE_FLAG,
+                "t.a = 1; {return q.b + t.a;}; v.x = 2; return 4;",
+                "t.a = q.b * 2; t.b = t.a; return q.b;",
+                "0 ? {v.x = 1;}; 1 ? {v.x = 2;}; return v.x;",
+                "loop(4, {v.x = v.x + 1; q.b ? {break; v.x = 7;};}); return v.x;",
+                "t.a = 3; q.b ? {t.a = 4;}; return t.a ?? 1;",
+                "(t.a = q.b) * 2");
+        assertSame(MolangCompiler.OPTIMIZE_FLAG | MolangCompiler.CLOSURE_FLAG,
+                "t.a = 1; {return q.b + t.a;}; v.x = 2; return 4;",
+                "t.a = q.b * 2; t.b = t.a; return q.b;",
+                "(t.a = q.b) * 2");
+
+        // Temp variables set in a scope used to be lost when compiled to bytecode
+        MolangRuntime runtime = createRuntime(MolangVariable.create(0));
+        Assertions.assertEquals(3, runtime.resolve(MolangCompiler.create(MolangCompiler.OPTIMIZE_FLAG).compile("v.x = 1; {t.a = 2;}; return v.x + t.a;")));
+    }
+
+    @Test
+    void testConditions() throws MolangException {
+        String[] inputs = {
+                "q.b > 1 ? 10 : 20",
+                "q.b < 1 ? 10 : 20",
+                "!(q.b >= 2) ? 10 : 20",
+                "q.a == 0 && q.b != 0 ? 10 : 20",
+                "q.a != 0 && q.b != 0 ? 10 : 20",
+                "q.a || q.b <= 1 ? 10 : 20",
+                "!(q.a || q.b <= 1) ? 10 : 20",
+                "(q.a > 0 || q.b > 0) && !(q.anim_time < 1) ? 10 : 20",
+                "!(q.a > 0 && q.b > 0) || q.anim_time == 1.5 ? 10 : 20",
+                "math.sqrt(-1) < 1 ? 10 : 20",
+                "math.sqrt(-1) > 1 ? 10 : 20",
+                "!math.sqrt(-1) ? 10 : 20",
+                "q.b > 1 && math.random(0, 1) < 2 ? 10 : 20",
+                "(q.a < 1) + (q.b > 1 && q.anim_time > 1) * 2 + (q.a || !q.b) * 4",
+                "v.x = 0; q.b > 1 ? {v.x = 5;}; return v.x;",
+                "v.x = 0; loop(10, {v.x = v.x + 1; v.x >= 4 ? break;}); return v.x;",
+                "v.x = 0; t.s = 0; loop(10, {v.x = v.x + 1; v.x < 3 || v.x == 7 ? continue; t.s = t.s + v.x;}); return t.s;"
+        };
+        assertSame(MolangCompiler.CLOSURE_FLAG, 0, inputs);
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG, inputs);
+    }
+
+    @Test
+    void testLoopUnrolling() throws MolangException {
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG,
+                "v.x = 0; loop(4, {v.x = v.x + 1;}); return v.x;",
+                "t.s = 0; loop(3, {t.s = t.s * 2 + q.b;}); return t.s;",
+                "v.x = 5; loop(0, {v.x = 1;}); loop(-2, {v.x = 2;}); return v.x;",
+                "v.x = 0; loop(8, {v.x = v.x + 1; v.x >= 3 ? break;}); return v.x;",
+                "v.x = 0; t.s = 0; loop(6, {v.x = v.x + 1; t.s = t.s + v.x; v.x > 2 ? continue;}); return t.s;",
+                "t.s = 0; loop(50, {t.s = t.s + q.b;}); return t.s;",
+                "v.x = 0; loop(100, {v.x = v.x + 1; v.x == 37 ? break;}); return v.x;",
+                "v.x = 0; loop(100, {v.x = v.x + 1; v.x == 99 ? break;}); return v.x;",
+                "t.s = 0; loop(5, {q.b > 1 ? continue; t.s = t.s + 1;}); return t.s;",
+                "t.s = 0; loop(3, {loop(2, {t.s = t.s + 1;});}); return t.s;",
+                "t.n = 3; v.x = 0; loop(t.n, {v.x = v.x + 2;}); return v.x;",
+                "v.x = 0; q.b ? loop(q.b, {v.x = v.x + 1;}) : 0; return v.x;",
+                "t.s = 0; loop(q.b + 1, {t.s = t.s + v.x * 2; v.x = v.x + 1;}); return t.s + v.x;",
+                "t.s = 0; loop(3, {t.s = t.s + math.sin(q.anim_time * 10);}); return t.s;");
+
+        // Loops that don't run must not change anything, whether or not they are optimized
+        String[] empty = {
+                "loop(0, {v.x = 5;}); return v.x;",
+                "loop(-3, {v.x = 5;}); return v.x;",
+                "loop(q.a, {v.x = v.x + 5;}); return v.x;",
+                "loop(q.a - q.b, {v.x = 5;}); return v.x;",
+                "t.n = 0; loop(t.n, {v.x = q.b;}); return v.x;",
+                "loop(3, {v.w = v.x; v.x = 5; q.a ? continue; v.x = v.x + v.w;}); return v.x + v.w;"
+        };
+        assertSame(MolangCompiler.CLOSURE_FLAG, 0, empty);
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG, empty);
+    }
+
+    @Test
+    void testLoopTemps() throws MolangException {
+        for (int flags : new int[]{0, MolangCompiler.OPTIMIZE_FLAG, MolangCompiler.CLOSURE_FLAG, MolangCompiler.CLOSURE_FLAG | MolangCompiler.OPTIMIZE_FLAG}) {
+            MolangCompiler compiler = MolangCompiler.create(flags);
+
+            // Temp variables set by a loop only exist once the loop has set them
+            Assertions.assertEquals(9, createRuntime(MolangVariable.create(3)).resolve(compiler.compile("loop(q.b + 2, {t.i = (t.i ?? 5) + 1;}); return t.i;")));
+            Assertions.assertEquals(4, createRuntime(MolangVariable.create(3)).resolve(compiler.compile("loop(q.b * 2, {t.i = (t.i ?? 0) + 1;}); return t.i;")));
+            Assertions.assertEquals(6, createRuntime(MolangVariable.create(3)).resolve(compiler.compile("loop(3, {t.i = (t.i ?? 0) + 2;}); return t.i;")));
+            Assertions.assertEquals(8, createRuntime(MolangVariable.create(3)).resolve(compiler.compile("loop(q.b * 2, {t.k = (t.k ?? 1) * 2; t.k > 4 ? break;}); return t.k;")));
+            Assertions.assertEquals(6, createRuntime(MolangVariable.create(3)).resolve(compiler.compile("loop(q.a, {t.s = 4;}); return t.s ?? 6;")));
+            Assertions.assertEquals(4, createRuntime(MolangVariable.create(3)).resolve(compiler.compile("loop(2, {q.b ? {t.x = 4;};}); return t.x ?? 5;")));
+
+            // Reading them before they are set fails the same way as any unknown temp variable
+            for (String input : new String[]{
+                    "loop(q.b, {t.s = t.s + q.b;}); return t.s;",
+                    "loop(20, {t.s = t.s + q.b;}); return t.s;",
+                    "loop(q.a, {t.s = 4;}); return t.s;"
+            }) {
+                MolangExpression expression = compiler.compile(input);
+                Assertions.assertThrows(MolangRuntimeException.class, () -> createRuntime(MolangVariable.create(3)).resolve(expression), input);
+            }
+        }
+    }
+
+    @Test
+    void testLoopInvariants() throws MolangException {
+        Assertions.assertEquals("temp.$invariant0 = math.cos(q.anim_time);\nloop(10.0, {v.x = (v.x + temp.$invariant0)});\nreturn v.x;\n", hoist("loop(10, {v.x = v.x + math.cos(q.anim_time);}); return v.x;"));
+        Assertions.assertEquals("loop(10.0, {v.x = (v.x * 2.0)});\nreturn v.x;\n", hoist("loop(10, {v.x = v.x * 2;}); return v.x;"));
+        Assertions.assertEquals("loop(4.0, {v.x ? break;\nv.x = math.sin(q.a);\n});\nreturn v.x;\n", hoist("loop(4, {v.x ? break; v.x = math.sin(q.a);}); return v.x;"));
+
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG,
+                "t.s = 0; loop(10, {t.s = t.s + math.cos(q.anim_time) * v.x;}); return t.s;",
+                "loop(20, {v.x = v.x + math.sin(q.anim_time * 2) * q.b;}); return v.x;",
+                "loop(3, {loop(4, {v.x = v.x + q.anim_time * q.b;}); t.y = q.a + 1;}); return v.x + t.y;",
+                "loop(3, {loop(q.b, {v.x = v.x + q.anim_time * q.b;});}); return v.x;",
+                "loop(q.b, {v.x = v.x + math.sin(q.anim_time * 2);}); return v.x;",
+                "t.s = 0; loop(20, {t.s = t.s + 1; t.s > 4 ? break; v.x = v.x + math.sqrt(q.b);}); return t.s + v.x;",
+                "t.s = 0; loop(20, {t.s = t.s + q.b && v.x; v.x = 0;}); return t.s;");
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.CLOSURE_FLAG | MolangCompiler.OPTIMIZE_FLAG,
+                "loop(q.a, {v.x = v.x + math.sin(q.anim_time * 2);}); return v.x;",
+                "loop(q.b, {v.x = v.x + math.cos(q.anim_time);}); return v.x;",
+                "loop(10, {variable.x = q.b; v.x = v.x * 2;}); return v.x;");
+        // Missing variables must be checked by the null coalescing operator inside the loop
+        String[] coalescing = {
+                "loop(3, {v.x = v.x + (v.nope ?? 1);}); return v.x;",
+                "loop(3, {v.x = v.x + (q.nope ?? 2);}); return v.x;",
+                "loop(q.b, {v.x = v.x + (v.nope ?? 1) * q.b;}); return v.x;",
+                "loop(q.b + 1, {v.x = v.x + (q.nope ?? 2);}); return v.x;"
+        };
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG, coalescing);
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.CLOSURE_FLAG | MolangCompiler.OPTIMIZE_FLAG, coalescing);
+        MolangCompiler reference = MolangCompiler.create(MolangCompiler.CLOSURE_FLAG);
+        Map<String, MolangExpression> batch = MolangCompiler.create(MolangCompiler.OPTIMIZE_FLAG).compileAll(List.of(coalescing));
+        for (String input : coalescing) {
+            Assertions.assertEquals(createRuntime(MolangVariable.create(3)).resolve(reference.compile(input)), createRuntime(MolangVariable.create(3)).resolve(batch.get(input)), input);
+        }
+        Assertions.assertEquals("loop(3.0, {v.x = (v.x + (v.nope ?? 1.0))});\nreturn v.x;\n", hoist("loop(3, {v.x = v.x + (v.nope ?? 1);}); return v.x;"));
+
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG,
+                "loop((0 ? v.x : q.b), {v.x = v.x + 1;}); return v.x;",
+                "loop((1 ? q.a : 3), {v.x = v.x + q.b * q.anim_time;}); return v.x;",
+                "loop((1 ? 4 : q.a), {v.x = v.x + q.b * q.anim_time;}); return v.x;");
+
+        // Values moved out of a loop that doesn't run must not reach any variable
+        String[] empty = {
+                "t.n = 0; loop(t.n, {v.x = q.b;}); return v.x;",
+                "t.n = -2; loop(t.n, {v.x = q.b * q.anim_time;}); return v.x;",
+                "loop(q.a, {v.x = math.cos(q.anim_time) * q.b;}); return v.x;",
+                "loop(q.a - q.b, {v.x = v.x + math.sqrt(q.b);}); return v.x;",
+                "t.s = 5; loop(q.a - 1, {t.s = q.anim_time * q.b;}); return t.s;"
+        };
+        assertSame(0, MolangCompiler.OPTIMIZE_FLAG, empty);
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG, empty);
+        Assertions.assertEquals("temp.$iterations1 = (q.a - 1.0);\ntemp.$invariant0 = (temp.$iterations1 >= 1.0) ? (q.anim_time * q.b) : 0.0;\nloop(temp.$iterations1, {v.x = temp.$invariant0});\nreturn v.x;\n", hoist("loop(q.a - 1, {v.x = q.anim_time * q.b;}); return v.x;"));
+    }
+
+    @Test
+    void testTypes() throws MolangException {
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG,
+                "math.trunc(q.anim_time * 3) == 4",
+                "math.trunc(-q.anim_time * 3) < -4",
+                "math.round(q.anim_time) >= 2",
+                "math.round(q.anim_time) != math.trunc(q.anim_time)",
+                "math.trunc(q.anim_time * 10000000000) == math.round(q.anim_time * 10000000000)",
+                "math.trunc(q.anim_time * 10000000000) == 2147483647",
+                "math.floor(math.trunc(q.anim_time)) + math.ceil(math.round(-q.anim_time))",
+                "math.round(math.trunc(q.anim_time * 7))",
+                "math.trunc(q.anim_time) ? 5 : 6",
+                "math.trunc(q.anim_time - 1) ? 5 : 6",
+                "!(q.b > 1) + !q.anim_time + !math.trunc(q.anim_time - 1)",
+                "(q.a > 1) == (q.b > 1)",
+                "(q.a < 1) > (q.b < 1)",
+                "math.random_integer(q.b, q.b)",
+                "math.die_roll_integer(q.b, 1, 1) == 2",
+                "math.die_roll(q.b, 1, 1)",
+                "v.x = 0; loop(math.round(q.anim_time * 3), {v.x = v.x + 1;}); return v.x;",
+                "v.x = 0; loop(q.b > 1, {v.x = v.x + 1;}); return v.x;");
+    }
+
+    @Test
+    void testSwitch() throws MolangException {
+        String chain = " == 0 ? 10 : %1$s == 1 ? 11 : 2 == %1$s ? 12 : %1$s == 1 ? 14 : 13";
+        String sparse = " == -5 ? 10 : %1$s == 0 ? 11 : %1$s == 1000 ? 12 : %1$s == 70000 ? 14 : 13";
+        String[] subjects = {"q.a", "q.b", "q.anim_time", "(q.anim_time * 2)", "math.trunc(q.anim_time)", "(q.a - q.a) * -1", "q.a / q.a", "q.anim_time * 1000000000000", "-q.anim_time / q.a"};
+        for (String subject : subjects) {
+            assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG,
+                    subject + chain.formatted(subject),
+                    subject + sparse.formatted(subject),
+                    "(" + subject + " == -5 ? 10 : " + subject + " == 0 ? 11 : 12) + 1");
+        }
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG,
+                "q.b == 0 ? v.x = 1 : q.b == 2 ? v.x = 5 : q.b == 9 ? v.x = 7 : v.x = 8; return v.x;",
+                "q.b == 0 ? v.x = 1 : q.b == 4 ? v.x = 5 : q.b == 9 ? v.x = 7 : v.x = 8; return v.x;",
+                "t.s = 0; loop(4, {t.s == 0 ? t.s = 5 : t.s == 5 ? t.s = 2 : t.s == 2 ? t.s = 9 : t.s = -1;}); return t.s;");
+    }
+
+    @Test
+    void testWriteBack() throws MolangException {
+        String[] inputs = {
+                "v.x = 1; q.b ? {return 2;}; return 3;",
+                "v.x = 1; q.a ? {return 2;}; return 3;",
+                "loop(3, {q.b ? {v.x = 7; break;}; v.x = 1;}); return 4;",
+                "v.x = 5; loop(3, {q.b ? {v.x = v.x + 1; continue;}; v.x = 1;}); return 4;",
+                "v.x = 0; loop(4, {v.x = v.x + 1; q.b ? {v.y = 2; v.x = v.x * 2;}; v.x > 5 ? break;}); return v.x;",
+                "v.x = math.max(v.x, 0); q.b ? v.x = 9 : v.x = 2; return v.x;",
+                "v.x = math.max(v.x, 10); return v.x;",
+                "v.x = v.x; q.a ? v.x = 1; return v.x;",
+                "t.a = 1; loop(2, {q.a ? {return 9;}; v.x = v.x + 1;}); return v.x;",
+                "v.x = 2; {v.x = v.x * 3; {v.x = v.x + 1;};}; return v.x;",
+                "loop(2, {q.b ? break; v.x = 1;}); return v.x;",
+                "loop(2, {q.a ? break; v.x = 1;}); return v.x;",
+                "loop(5, {q.a ? break; v.x = (q.b ? v.x : 1);}); return v.x;",
+                "loop(5, {q.b ? break; v.x = (q.a ? v.x : 1);}); return v.x;",
+                "loop(q.b, {v.x > 3 ? continue; v.x = v.x + 2; t.k = v.x;}); return v.x + t.k;",
+                "loop(3, {t.k = v.x; q.b ? {v.x = 6; break;}; v.x = 1;}); return v.x + t.k;",
+        };
+        assertSame(MolangCompiler.CLOSURE_FLAG, 0, inputs);
+        assertSame(MolangCompiler.CLOSURE_FLAG, MolangCompiler.OPTIMIZE_FLAG, inputs);
+    }
+
+    @Test
+    void testFastMath() throws MolangException {
+        Assertions.assertEquals("return (q.a * 0.33333334)", simplify("q.a / 3", true));
+        Assertions.assertEquals("return ((((((2.0 * q.a) + 3.0) * q.a) + -4.0) * q.a) + 1.0)", simplify("2 * q.a * q.a * q.a + 3 * math.pow(q.a, 2) - 4 * q.a + 1", true));
+        Assertions.assertEquals("return ((q.a * q.a) + 1.0)", simplify("q.a * q.a + 1", true));
+        Assertions.assertEquals("return ((q.a * q.b) + 1.0)", simplify("q.a * q.b + 1", true));
+
+        MolangCompiler reference = MolangCompiler.create(0);
+        MolangCompiler fastMath = MolangCompiler.create(MolangCompiler.OPTIMIZE_FLAG | MolangCompiler.FAST_MATH_FLAG);
+        MolangRuntime runtime = createRuntime(MolangVariable.create(3));
+        for (String input : new String[]{"q.anim_time / 3", "2 * q.anim_time * q.anim_time * q.anim_time + 3 * math.pow(q.anim_time, 2) - 4 * q.anim_time + 1"}) {
+            float expected = runtime.resolve(reference.compile(input));
+            Assertions.assertEquals(expected, runtime.resolve(fastMath.compile(input)), Math.ulp(expected) * 4, input);
+        }
+    }
+}
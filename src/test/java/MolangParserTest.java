@@ -0,0 +1,84 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.ast.BinaryOperationNode;
+import gg.moonflower.molangcompiler.impl.ast.Node;
+import gg.moonflower.molangcompiler.impl.ast.ReturnNode;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MolangParserTest {
+
+    @Test
+    void testPrecedence() throws MolangException {
+        assertResult(7, "1 + 2 * 3");
+        assertResult(1, "1 + 2 * 3 == 7");
+        assertResult(0, "2 - 1 - 1");
+        assertResult(1, "8 / 4 / 2");
+        assertResult(1, "q.a > 2 && q.b < 1");
+        assertResult(1, "q.c || q.a - 3 == 0");
+        assertResult(6, "v.missing ?? 2 * 3");
+        assertResult(-5, "-(2 + 3)");
+        assertResult(1, "q.a > 2 && !q.c");
+    }
+
+    @Test
+    void testConditional() throws MolangException {
+        assertResult(2, "1 ? 2 : 0 ? 3 : 4");
+        assertResult(4, "0 ? 2 : 0 ? 3 : 4");
+        assertResult(3, "0 ? 2 : 1 ? 3 : 4");
+        assertResult(3, "1 ? (0 ? 2 : 3) : 4");
+        assertResult(10, "q.a + 1 > 3 ? q.a * 2 + 4 : 0");
+    }
+
+    @Test
+    void testChainedAssignment() throws MolangException {
+        assertResult(6, "v.x = v.y = 3; return v.x + v.y;");
+        assertResult(9, "v.x = 1; v.x += v.y = 4; return v.x + v.y;");
+        assertResult(8, "t.a = t.b = q.a + 1; return t.a + t.b;");
+    }
+
+    @Test
+    void testLongChain() throws MolangSyntaxException {
+        int length = 100_000;
+        StringBuilder builder = new StringBuilder("q.a");
+        for (int i = 0; i < length; i++) {
+            builder.append(" + q.a");
+        }
+
+        Node node = MolangParser.parseTokens(MolangLexer.createTokens(builder.toString()));
+        Assertions.assertInstanceOf(ReturnNode.class, node);
+
+        // Addition is left associative, so the right operand of every node should be a single value
+        int depth = 0;
+        Node current = ((ReturnNode) node).value();
+        while (current instanceof BinaryOperationNode operation) {
+            Assertions.assertFalse(operation.right() instanceof BinaryOperationNode);
+            current = operation.left();
+            depth++;
+        }
+        Assertions.assertEquals(length, depth);
+    }
+
+    @Test
+    void testErrors() {
+        Assertions.assertThrows(MolangSyntaxException.class, () -> MolangParser.parseTokens(MolangLexer.createTokens("q.a & q.b")));
+        Assertions.assertThrows(MolangSyntaxException.class, () -> MolangParser.parseTokens(MolangLexer.createTokens("1 + * 2")));
+        Assertions.assertThrows(MolangSyntaxException.class, () -> MolangParser.parseTokens(MolangLexer.createTokens("(1 + 2")));
+        Assertions.assertThrows(MolangSyntaxException.class, () -> MolangParser.parseTokens(MolangLexer.createTokens("1 2")));
+    }
+
+    private static void assertResult(float expected, String input) throws MolangException {
+        MolangRuntime runtime = MolangRuntime.runtime()
+                .setQuery("a", 3)
+                .setQuery("b", 0.5F)
+                .setQuery("c", 0)
+                .create();
+        Assertions.assertEquals(expected, runtime.resolve(MolangCompiler.create().compile(input)), input);
+        Assertions.assertEquals(expected, runtime.resolve(MolangCompiler.create(0).compile(input)), input);
+        Assertions.assertEquals(expected, runtime.resolve(MolangCompiler.create(MolangCompiler.CLOSURE_FLAG).compile(input)), input);
+    }
+}
@@ -2,13 +2,17 @@ import com.google.common.base.Stopwatch;
 import gg.moonflower.molangcompiler.api.MolangCompiler;
 import gg.moonflower.molangcompiler.api.MolangExpression;
 import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.bridge.MolangJavaFunction;
 import gg.moonflower.molangcompiler.api.bridge.MolangVariable;
 import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.api.exception.MolangRuntimeException;
 import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class MolangTest {
@@ -397,4 +401,84 @@ public class MolangTest {
         float result = runtime.resolve(loop);
         Assertions.assertEquals(4, result);
     }
+
+    @Test
+    void testNestedFunctions() throws MolangException {
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG, 0}) {
+            MolangCompiler compiler = MolangCompiler.create(flags);
+            MolangExpression nested = compiler.compile("q.sub(q.sub(9, q.sub(5, 1)), q.sum(1, 1))");
+            MolangExpression inner = compiler.compile("q.sub(10, 3)");
+            MolangExpression outer = compiler.compile("q.outer(q.sum(1, 2, 3), 4)");
+
+            MolangRuntime runtime = MolangRuntime.runtime()
+                    .setQuery("sub", 2, context -> context.get(0) - context.get(1))
+                    .setQuery("sum", -1, context -> {
+                        float sum = 0;
+                        for (int i = 0; i < context.getParameters(); i++) {
+                            sum += context.get(i);
+                        }
+                        return sum;
+                    })
+                    .create();
+            // Functions that run other expressions can still read their own parameters afterward
+            runtime.edit().setQuery("outer", 2, context -> runtime.resolve(inner) * 100 + context.get(0) * 10 + context.get(1));
+
+            Assertions.assertEquals(3, runtime.resolve(nested));
+            Assertions.assertEquals(764, runtime.resolve(outer));
+            Assertions.assertEquals(0, runtime.getParameters());
+        }
+    }
+
+    @Test
+    void testFailedFunctions() throws MolangException {
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG, 0}) {
+            MolangCompiler compiler = MolangCompiler.create(flags);
+            MolangExpression argument = compiler.compile("q.sub(1, q.sum(2, q.fail(3)))");
+            MolangExpression function = compiler.compile("q.sub(4, q.fail(5))");
+            MolangExpression nested = compiler.compile("q.sub(q.sub(9, q.sub(5, 1)), q.sum(1, 1))");
+            MolangExpression guarded = compiler.compile("q.guard(7, 8)");
+
+            MolangRuntime runtime = MolangRuntime.runtime()
+                    .setQuery("sub", 2, context -> context.get(0) - context.get(1))
+                    .setQuery("sum", 2, context -> context.get(0) + context.get(1))
+                    .setQuery("fail", 1, context -> {
+                        throw new MolangRuntimeException("Failed");
+                    })
+                    .create();
+            // Functions that catch an error from another expression can still read their own parameters afterward
+            runtime.edit().setQuery("guard", 2, context -> {
+                Assertions.assertThrows(MolangRuntimeException.class, () -> runtime.resolve(argument));
+                return context.get(0) * 10 + context.get(1);
+            });
+
+            // Parameters loaded before the error must not leak into later calls
+            Assertions.assertThrows(MolangRuntimeException.class, () -> runtime.resolve(argument));
+            Assertions.assertEquals(0, runtime.getParameters());
+            Assertions.assertThrows(MolangRuntimeException.class, () -> runtime.resolve(function));
+            Assertions.assertEquals(0, runtime.getParameters());
+            Assertions.assertEquals(3, runtime.resolve(nested));
+            Assertions.assertEquals(78, runtime.resolve(guarded));
+            Assertions.assertEquals(0, runtime.getParameters());
+        }
+    }
+
+    @Test
+    void testKeptContext() throws MolangException {
+        for (int flags : new int[]{MolangCompiler.DEFAULT_FLAGS, MolangCompiler.DEFAULT_FLAGS | MolangCompiler.CLOSURE_FLAG, 0}) {
+            MolangCompiler compiler = MolangCompiler.create(flags);
+            List<MolangJavaFunction.Context> contexts = new ArrayList<>();
+            MolangRuntime runtime = MolangRuntime.runtime()
+                    .setQuery("keep", 2, context -> {
+                        contexts.add(context);
+                        return context.get(0);
+                    })
+                    .create();
+
+            // Every call gets its own context, so a kept context still has the parameters it was called with
+            Assertions.assertEquals(4, runtime.resolve(compiler.compile("q.keep(1, 2) + q.keep(3, 4)")));
+            Assertions.assertEquals(2, contexts.size());
+            Assertions.assertArrayEquals(new float[]{1, 2}, contexts.get(0).parameters());
+            Assertions.assertArrayEquals(new float[]{3, 4}, contexts.get(1).parameters());
+        }
+    }
 }
@@ -0,0 +1,95 @@
+import gg.moonflower.molangcompiler.api.MolangCompiler;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import gg.moonflower.molangcompiler.api.TieredMolangCompiler;
+import gg.moonflower.molangcompiler.api.exception.MolangException;
+import gg.moonflower.molangcompiler.impl.node.MolangAsyncNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MolangTieredTest {
+
+    @Test
+    void testPromotion() throws Exception {
+        TieredMolangCompiler compiler = MolangCompiler.tiered(MolangCompiler.DEFAULT_FLAGS, 10);
+        MolangExpression hot = compiler.compile("temp.a = q.a; loop(4, {temp.a = temp.a * 2;}); return temp.a;");
+        MolangExpression cold = compiler.compile("q.a + 1");
+        Assertions.assertEquals(2, compiler.getStats().expressionCount());
+
+        MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 3).create();
+        Assertions.assertEquals(4, runtime.resolve(cold));
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(48, runtime.resolve(hot));
+        }
+        Assertions.assertFalse(((MolangAsyncNode) hot).isCompiled());
+
+        // Passing the threshold schedules the compile
+        Assertions.assertEquals(48, runtime.resolve(hot));
+        for (int i = 0; i < 500 && compiler.getStats().promotedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        Assertions.assertTrue(((MolangAsyncNode) hot).isCompiled());
+        Assertions.assertFalse(((MolangAsyncNode) cold).isCompiled());
+        Assertions.assertEquals(48, runtime.resolve(hot));
+
+        TieredMolangCompiler.Stats stats = compiler.getStats();
+        Assertions.assertEquals(1, stats.promotedCount());
+        Assertions.assertEquals(1, stats.interpretedCount());
+    }
+
+    @Test
+    void testEmptyLoop() throws Exception {
+        for (int flags : new int[]{0, MolangCompiler.DEFAULT_FLAGS}) {
+            TieredMolangCompiler compiler = MolangCompiler.tiered(flags, 2);
+            MolangExpression zero = compiler.compile("v.y = 1; loop(q.a, {v.y = v.y + 5;}); return v.y;");
+            MolangExpression negative = compiler.compile("v.y = 1; loop(q.a - 3, {v.y = v.y + 5;}); return v.y;");
+
+            // The interpreter and the compiled expression must agree on loops that never run
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 0).create();
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertEquals(1, runtime.resolve(zero));
+                Assertions.assertEquals(1, runtime.resolve(negative));
+            }
+            for (int i = 0; i < 500 && compiler.getStats().promotedCount() < 2; i++) {
+                Thread.sleep(10);
+            }
+
+            Assertions.assertTrue(((MolangAsyncNode) zero).isCompiled());
+            Assertions.assertTrue(((MolangAsyncNode) negative).isCompiled());
+            Assertions.assertEquals(1, runtime.resolve(zero));
+            Assertions.assertEquals(1, runtime.resolve(negative));
+        }
+    }
+
+    @Test
+    void testTempScope() throws Exception {
+        for (int flags : new int[]{0, MolangCompiler.DEFAULT_FLAGS}) {
+            TieredMolangCompiler compiler = MolangCompiler.tiered(flags, 2);
+            MolangExpression branch = compiler.compile("q.a ? {t.a = 1;}; return t.a ?? 7;");
+            MolangExpression block = compiler.compile("{t.a = 2;}; return t.a;");
+
+            // Temps set in a branch are scoped to it before and after promotion
+            MolangRuntime runtime = MolangRuntime.runtime().setQuery("a", 1).create();
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertEquals(7, runtime.resolve(branch));
+                Assertions.assertEquals(2, runtime.resolve(block));
+            }
+            for (int i = 0; i < 500 && compiler.getStats().promotedCount() < 2; i++) {
+                Thread.sleep(10);
+            }
+
+            Assertions.assertTrue(((MolangAsyncNode) branch).isCompiled());
+            Assertions.assertTrue(((MolangAsyncNode) block).isCompiled());
+            Assertions.assertEquals(7, runtime.resolve(branch));
+            Assertions.assertEquals(2, runtime.resolve(block));
+        }
+    }
+
+    @Test
+    void testConstant() throws MolangException {
+        TieredMolangCompiler compiler = MolangCompiler.tiered(MolangCompiler.DEFAULT_FLAGS, TieredMolangCompiler.DEFAULT_THRESHOLD);
+        Assertions.assertEquals(18, compiler.compile("4 * 4 + 2").getConstant());
+        Assertions.assertEquals(0, compiler.getStats().expressionCount());
+    }
+}
@@ -0,0 +1,54 @@
+import gg.moonflower.molangcompiler.api.exception.MolangSyntaxException;
+import gg.moonflower.molangcompiler.impl.compiler.MolangLexer;
+import gg.moonflower.molangcompiler.impl.compiler.MolangParser;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures parse throughput on typical expressions and on very long operator chains.
+ */
+public class ParserBenchmark {
+
+    private static final int SMALL_COUNT = 200_000;
+    private static final int CHAIN_COUNT = 200;
+    private static final int[] CHAIN_LENGTHS = {1_000, 10_000, 100_000};
+
+    @Test
+    public void main() throws MolangSyntaxException {
+        MolangLexer.Token[][] expressions = new MolangLexer.Token[MolangAsyncTest.EXPRESSIONS.length][];
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = MolangLexer.createTokens(MolangAsyncTest.EXPRESSIONS[i]);
+        }
+        run("Typical expressions", expressions, SMALL_COUNT);
+
+        for (int length : CHAIN_LENGTHS) {
+            StringBuilder builder = new StringBuilder("q.a");
+            for (int i = 0; i < length; i++) {
+                builder.append(i % 2 == 0 ? " + q.b * 2" : " - q.c / 4");
+            }
+            run("Chain of " + length + " operators", new MolangLexer.Token[][]{MolangLexer.createTokens(builder.toString())}, Math.max(1, CHAIN_COUNT * 1_000 / length));
+        }
+    }
+
+    private static void run(String name, MolangLexer.Token[][] inputs, int count) throws MolangSyntaxException {
+        long tokens = 0;
+        for (MolangLexer.Token[] input : inputs) {
+            tokens += input.length;
+        }
+
+        int hash = 0;
+        for (int i = 0; i < count; i++) {
+            for (MolangLexer.Token[] input : inputs) {
+                hash += System.identityHashCode(MolangParser.parseTokens(input));
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            for (MolangLexer.Token[] input : inputs) {
+                hash += System.identityHashCode(MolangParser.parseTokens(input));
+            }
+        }
+        long time = System.nanoTime() - start;
+
+        System.out.printf("%-32s %10.2fus/op, %6.2fns/token, %8.2fM tokens/s (%d)%n", name, time / 1000.0 / count / inputs.length, (double) time / count / tokens, tokens * count * 1000.0 / time, hash & 1);
+    }
+}